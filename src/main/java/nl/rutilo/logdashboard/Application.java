@@ -82,6 +82,10 @@ public class Application {
         final int port = args.getValueOf("port").map(Integer::parseInt)
                              .orElseGet(() -> ServicesLoader.getConfiguration().map(cfg -> cfg.port).orElse(Constants.DEFAULT_PORT));
         props.put("server.port", port);
+        final int compressionMinSize = getCompressionMinSize();
+        props.put("server.compression.enabled", compressionMinSize >= 0);
+        props.put("server.compression.min-response-size", Math.max(0, compressionMinSize));
+        props.put("server.compression.mime-types", Constants.COMPRESSED_MIME_TYPES);
 
         if(!isPortAvailable(port)) {
             Application.log("Cannot start because port " + port + " is already in use");
@@ -100,6 +104,10 @@ public class Application {
         application.storePort();
         Services.startProcesses();
     }
+    /** Minimum size in bytes of http responses to compress, or -1 when compression is disabled */
+    public static int getCompressionMinSize() {
+        return ServicesLoader.getConfiguration().map(cfg -> cfg.compressionMinSize).orElse(Constants.DEFAULT_COMPRESSION_MIN_SIZE);
+    }
     public static void restart() {
         final Thread restartThread = new Thread(() -> {
             context.close();
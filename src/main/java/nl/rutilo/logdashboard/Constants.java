@@ -27,14 +27,21 @@ public class Constants {
     public static final File   OUTPUT_LOG_FILE             = new File(LOCAL_DATA_DIR, APP_NAME + ".log");
     public static final long   OUTPUT_LOG_SIZE             = 1024L * 1024;
     public static final long   OUTPUT_LOG_MAX_SIZE_DEFAULT = 1024L * 1024 * 5;
+    public static final File   OUTPUT_HISTORY_DIR          = new File(LOCAL_DATA_DIR, "history");
+    public static final long   OUTPUT_HISTORY_SIZE_DEFAULT = 1024L * 1024 * 16; // per service
+    public static final long   OUTPUT_HISTORY_SEGMENT_SIZE = 1024L * 1024 * 4;
+    public static final File   STATE_HISTORY_FILE          = new File(LOCAL_DATA_DIR, "state-history.dat");
+    public static final int    STATE_HISTORY_MAX_SERVICES  = 256; // persisted
+    public static final File   METRICS_FILE                = new File(LOCAL_DATA_DIR, "metrics.dat");
+    public static final long   METRICS_SAVE_INTERVAL_MS    = 60_000;
     public static final long   END_ERROR_DEBOUNCE_MS       = 4000L;
 
     public static final String MSG_TOPIC_SCRIPTS_CHANGED      = "/topic/scripts-changed";
     public static final String MSG_TOPIC_SERVICES_RELOADED    = "/topic/services-reloaded";
     public static final String MSG_TOPIC_STATE_CHANGE         = "/topic/service-state-changes";
     public static final String MSG_TOPIC_LOG_VELOCITIES       = "/topic/service-log-velocities";
-    public static final String MSG_TOPIC_PROCESS_OUTPUT       = "/topic/process-output";
-    public static final String MSG_TOPIC_CLEAR_PROCESS_OUTPUT = "/topic/clear-process-output";
+    public static final String MSG_TOPIC_PROCESS_OUTPUT       = "/topic/process-output/";       // + service uid
+    public static final String MSG_TOPIC_CLEAR_PROCESS_OUTPUT = "/topic/clear-process-output/"; // + service uid
     public static final String MSG_TOPIC_LAST_STATE_HISTORY   = "/topic/last-state-history";
     public static final String MSG_TOPIC_PORT_CHANGED         = "/topic/port-changed";
     public static final String MSG_TOPIC_PORT_CAN_UPGRADE     = "/topic/upgrade-available";
@@ -42,9 +49,19 @@ public class Constants {
     public static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("u-LL-dd HH:mm:ss.SSS");
 
     public static final int DEFAULT_DETECTION_INTERVAL_MS = 10_000;
+    public static final int DEFAULT_OUTPUT_BATCH_MS       = 50;
+    public static final int DEFAULT_OUTPUT_BATCH_SIZE     = 500;
+    public static final int MAX_LOG_LINES_PER_REQUEST     = 10_000;
+    public static final int PIPELINE_QUEUE_SIZE           = 10_000; // per stage, per service
+    public static final int MAX_SEARCH_RESULTS            = 1_000;  // per service
+    public static final int DEFAULT_TAIL_BUFFER_SIZE      = 1_000;  // lines, per tail connection
+    public static final int MAX_TAIL_BUFFER_SIZE          = 100_000;
+    public static final int DEFAULT_COMPRESSION_MIN_SIZE  = 2048;   // bytes, smaller responses are sent uncompressed
 
-    public static final Duration LV_DURATION   = Duration.ofMinutes(10); // logger velocity
-    public static final Duration LV_RESOLUTION = Duration.ofSeconds(5);
+    public static final String COMPRESSED_MIME_TYPES = "application/json,text/plain"; // REST responses (static files are precompressed)
+
+    public static final Duration   LV_DURATION = Duration.ofMinutes(10); // logger velocity
+    public static final Duration[] LV_WINDOWS  = { Duration.ofMinutes(1), LV_DURATION, Duration.ofHours(1) }; // counted log lines
 
     static {
         LOCAL_DATA_DIR.mkdirs();
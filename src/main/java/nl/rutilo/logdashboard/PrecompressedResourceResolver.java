@@ -0,0 +1,102 @@
+package nl.rutilo.logdashboard;
+
+import nl.rutilo.logdashboard.util.IOUtil;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.servlet.resource.AbstractResourceResolver;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.zip.GZIPOutputStream;
+
+/** Serves gzipped static files to clients that accept them. A file is compressed once, when first
+  * requested, and kept in memory (until the file changes, which only happens when developing), so
+  * requests don't pay for compression. Small files and files that are compressed already (images,
+  * woff fonts) are served as is.
+  */
+public class PrecompressedResourceResolver extends AbstractResourceResolver {
+    private static final Set<String>         COMPRESSIBLE = new HashSet<>(Arrays.asList("html", "js", "css", "map", "json", "svg", "ttf", "eot", "txt"));
+    private final        IntSupplier         minSize;     // -1 to disable
+    private final        Map<String,Gzipped> cache        = new ConcurrentHashMap<>(); // by request path
+
+    /** Resource with the gzipped content of the original resource */
+    static final class Gzipped extends ByteArrayResource implements HttpResource {
+        private final Resource original;
+        private final long     lastModified;
+        Gzipped(Resource original, byte[] gzipped, long lastModified) {
+            super(gzipped, "gzipped " + original.getDescription());
+            this.original = original;
+            this.lastModified = lastModified;
+        }
+        @Override public String getFilename() { return original.getFilename(); } // determines the content type
+        @Override public long lastModified() { return lastModified; }
+        @Override public HttpHeaders getResponseHeaders() {
+            final HttpHeaders headers = new HttpHeaders();
+            headers.add(HttpHeaders.CONTENT_ENCODING, "gzip");
+            headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            return headers;
+        }
+    }
+
+    public PrecompressedResourceResolver(IntSupplier minSize) {
+        this.minSize = minSize;
+    }
+
+    @Override
+    protected Resource resolveResourceInternal(HttpServletRequest request, String requestPath,
+                                               List<? extends Resource> locations, ResourceResolverChain chain) {
+        final Resource resource = chain.resolveResource(request, requestPath, locations);
+        if(resource == null || request == null || !acceptsGzip(request) || !isCompressible(resource)) return resource;
+        try {
+            final long lastModified = resource.lastModified();
+            Gzipped gzipped = cache.get(requestPath);
+            if(gzipped == null || gzipped.lastModified != lastModified) {
+                final int min = minSize.getAsInt();
+                if(min < 0 || resource.contentLength() < min) return resource;
+                gzipped = new Gzipped(resource, gzip(resource), lastModified);
+                cache.put(requestPath, gzipped);
+            }
+            return gzipped;
+        } catch(final IOException e) {
+            return resource; // e.g. last modified is unknown, so serve uncompressed
+        }
+    }
+
+    @Override
+    protected String resolveUrlPathInternal(String resourceUrlPath, List<? extends Resource> locations, ResourceResolverChain chain) {
+        return chain.resolveUrlPath(resourceUrlPath, locations);
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        final String accept = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        return accept != null && accept.toLowerCase(Locale.US).contains("gzip");
+    }
+    private static boolean isCompressible(Resource resource) {
+        final String name = resource.getFilename();
+        final int dot = name == null ? -1 : name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSIBLE.contains(name.substring(dot + 1).toLowerCase(Locale.US));
+    }
+
+    static byte[] gzip(Resource resource) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(final InputStream in = resource.getInputStream();
+            final OutputStream out = new GZIPOutputStream(bytes, IOUtil.COPY_BUFFER_SIZE)) {
+            IOUtil.copy(in, out);
+        }
+        return bytes.toByteArray();
+    }
+}
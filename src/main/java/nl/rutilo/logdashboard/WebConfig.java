@@ -0,0 +1,58 @@
+package nl.rutilo.logdashboard;
+
+import nl.rutilo.logdashboard.services.ServicesLoader;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private static final String WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler("/**")
+            .addResourceLocations("classpath:/static/")
+            .resourceChain(/*cacheResources=*/false) // the resolver caches what is compressed
+            .addResolver(new PrecompressedResourceResolver(Application::getCompressionMinSize))
+            .addResolver(new PathResourceResolver());
+    }
+
+    // The servlet container negotiates compression of websocket messages (permessage-deflate) when
+    // the browser asks for it. When disabled in the configuration, the browser request is hidden.
+
+    @Bean
+    public FilterRegistrationBean<Filter> websocketCompressionFilter() {
+        final FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>((request, response, chain) -> {
+            final boolean enabled = ServicesLoader.getConfiguration().map(cfg -> cfg.websocketCompression).orElse(true);
+            chain.doFilter(enabled ? request : withoutExtensions((HttpServletRequest)request), response);
+        });
+        registration.addUrlPatterns("/dashboard-websocket/*");
+        return registration;
+    }
+    private static HttpServletRequest withoutExtensions(HttpServletRequest request) {
+        return new HttpServletRequestWrapper(request) {
+            @Override public String getHeader(String name) {
+                return WEBSOCKET_EXTENSIONS.equalsIgnoreCase(name) ? null : super.getHeader(name);
+            }
+            @Override public Enumeration<String> getHeaders(String name) {
+                return WEBSOCKET_EXTENSIONS.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+            }
+            @Override public Enumeration<String> getHeaderNames() {
+                final List<String> names = Collections.list(super.getHeaderNames());
+                names.removeIf(WEBSOCKET_EXTENSIONS::equalsIgnoreCase);
+                return Collections.enumeration(names);
+            }
+        };
+    }
+}
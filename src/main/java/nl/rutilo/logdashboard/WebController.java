@@ -3,23 +3,51 @@ package nl.rutilo.logdashboard;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.Data;
+import nl.rutilo.logdashboard.services.LineSearch;
+import nl.rutilo.logdashboard.services.MetricsStore;
+import nl.rutilo.logdashboard.services.OutputSubscriptions;
+import nl.rutilo.logdashboard.services.OutputTail;
 import nl.rutilo.logdashboard.services.Service;
 import nl.rutilo.logdashboard.services.ServiceLogger;
 import nl.rutilo.logdashboard.services.Services;
+import nl.rutilo.logdashboard.services.ServicesStateHistory;
+import nl.rutilo.logdashboard.services.StartScheduler;
+import nl.rutilo.logdashboard.util.Listeners;
 import nl.rutilo.logdashboard.util.ManifestUtil;
+import nl.rutilo.logdashboard.util.PipelineStage;
+import nl.rutilo.logdashboard.util.Timer;
 import nl.rutilo.logdashboard.util.Util;
+import nl.rutilo.logdashboard.util.WheelTimer;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 import static javax.ws.rs.core.MediaType.APPLICATION_JSON;
 import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
@@ -28,12 +56,28 @@ import static javax.ws.rs.core.MediaType.TEXT_PLAIN;
 @RestController
 public class WebController {
 	private final  SimpMessagingTemplate msgTemplate;
+	private final  OutputSubscriptions   outputSubscriptions;
 	private        long                  lastModified = -1;
 	private static boolean               upgrading = false;
 
 	public WebController(SimpMessagingTemplate msgTemplate) {
 	    this.msgTemplate = msgTemplate;
-  	    Services.setWebsocketMessaging(msgTemplate);
+	    this.outputSubscriptions = new OutputSubscriptions(msgTemplate);
+  	    Services.setWebsocketMessaging(msgTemplate, outputSubscriptions::getSubscriptionCount);
+    }
+
+    // Output of a service is only sent while some client session is subscribed to it
+
+    @EventListener public void subscribed(SessionSubscribeEvent event) {
+        final StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        outputSubscriptions.subscribe(headers.getSessionId(), headers.getSubscriptionId(), headers.getDestination());
+    }
+    @EventListener public void unsubscribed(SessionUnsubscribeEvent event) {
+        final StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        outputSubscriptions.unsubscribe(headers.getSessionId(), headers.getSubscriptionId());
+    }
+    @EventListener public void disconnected(SessionDisconnectEvent event) {
+        outputSubscriptions.disconnect(event.getSessionId());
     }
 
     // @Scheduled calls multiple times consecutively when the machine was paused for a while
@@ -66,9 +110,8 @@ public class WebController {
 
     @Scheduled(fixedRate=60_000)  private void setLastStateHistory() {
         if(!recentSetLastStateHistory.isRecent()) return;
-        if (msgTemplate == null) return;
-        msgTemplate.convertAndSend(Constants.MSG_TOPIC_LAST_STATE_HISTORY,
-            Services.getServicesStateHistory().getAsLastTimeToString());
+        Services.getServicesStateHistory().update(); // start a new row when the resolution passed
+        Services.publishStateHistoryChanges();
     }
 
     @Scheduled(initialDelay=10_000, fixedRate=3600_000) private void checkForLatestVersion() {
@@ -151,13 +194,197 @@ public class WebController {
         }
     }
 
+    /** Buffered output of a service. New lines are sent to clients subscribed to MSG_TOPIC_PROCESS_OUTPUT + uid */
     @PostMapping(value="/sendOutputOfService", produces=APPLICATION_JSON)
     public ServiceOutput sendOutputOfService(@RequestBody String serviceName) {
-        final Optional<Service> service = Services.get(serviceName);
+        return Services.get(serviceName).map(ServiceOutput::new).orElse(new ServiceOutput());
+    }
+
+    private static class OutputPage {
+        public final int                          suid;
+        public final List<ServiceLogger.LineInfo> lines;
+        public final boolean                      hasMore; // in the requested direction
+        public final int                          logVelocity;
+        private OutputPage(Service s, List<ServiceLogger.LineInfo> lines, boolean hasMore) {
+            this.suid = s.uid;
+            this.lines = lines;
+            this.hasMore = hasMore;
+            this.logVelocity = s.getState().getLogVelocity();
+        }
+    }
+
+    /** Buffered output lines of a service with sinceIndex &lt; index &lt; beforeIndex (both optional).
+      * Direction 'backward' (default) returns the newest lines of that range (and pages back into the
+      * on-disk history when beforeIndex is given), 'forward' the oldest. E.g. after a reconnect, fetch
+      * forward from the last index received to get only the lines that were missed.
+      */
+    @GetMapping(value="/output", produces=APPLICATION_JSON)
+    public OutputPage getOutput(@RequestParam(name="service") String serviceName,
+                                @RequestParam(name="sinceIndex") Optional<Long> sinceIndex,
+                                @RequestParam(name="beforeIndex") Optional<Long> beforeIndex,
+                                @RequestParam(name="limit") Optional<Integer> limit,
+                                @RequestParam(name="direction", defaultValue="backward") String direction) {
+        final Service service = Services.getOrThrow(serviceName);
+        final boolean backward = !"forward".equalsIgnoreCase(direction);
+        final int max = Math.max(0, Math.min(limit.orElse(Configuration.MAX_OUTPUT_LINE_COUNT), Constants.MAX_LOG_LINES_PER_REQUEST));
+
+        final List<ServiceLogger.LineInfo> lines = service.logger.getRange(sinceIndex.orElse(-1L), beforeIndex.orElse(Long.MAX_VALUE), max + 1, backward);
+        final boolean hasMore = lines.size() > max;
+        return new OutputPage(service, hasMore ? (backward ? lines.subList(1, lines.size()) : lines.subList(0, max)) : lines, hasMore);
+    }
+
+    /** Streams the output of a service, as Server-Sent Events (when format=sse or the Accept header asks for
+      * text/event-stream) or as newline delimited JSON, e.g. for curl. Starts with the last 'lines' lines, or
+      * on reconnect with the lines after the Last-Event-ID. slowConsumer (dropOldest or disconnect) and buffer
+      * override the configured defaults for clients that read slower than the output arrives.
+      */
+    @GetMapping(value="/tail/{service}")
+    public ResponseEntity<ResponseBodyEmitter> tail(@PathVariable("service") String serviceName,
+                                                    @RequestParam(name="format") Optional<String> format,
+                                                    @RequestParam(name="lines", defaultValue="10") int backlog,
+                                                    @RequestParam(name="sinceIndex") Optional<Long> sinceIndex,
+                                                    @RequestParam(name="buffer") Optional<Integer> bufferSize,
+                                                    @RequestParam(name="slowConsumer") Optional<String> slowConsumer,
+                                                    @RequestHeader(name="Last-Event-ID") Optional<Long> lastEventId,
+                                                    @RequestHeader(name="Accept", defaultValue="") String accept) {
+        final Service service = Services.getOrThrow(serviceName);
+        final boolean isSse = format.map("sse"::equalsIgnoreCase).orElse(accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE));
+        final ResponseBodyEmitter emitter = new ResponseBodyEmitter(0L); // no timeout
+        OutputTail.start(service, emitter, isSse ? OutputTail.Format.SSE : OutputTail.Format.NDJSON,
+            lastEventId.isPresent() ? lastEventId : sinceIndex, backlog, bufferSize,
+            slowConsumer.flatMap(OutputTail.SlowConsumerPolicy::of));
+        return ResponseEntity.ok()
+            .contentType(isSse ? MediaType.TEXT_EVENT_STREAM : OutputTail.NDJSON)
+            .header("Cache-Control", "no-cache")
+            .body(emitter);
+    }
+
+    private static class LogLines {
+        public final int          from;
+        public final int          lineCount; // total number of lines in the log index
+        public final List<String> lines;
+        private LogLines(int from, int lineCount, List<String> lines) {
+            this.from = from;
+            this.lineCount = lineCount;
+            this.lines = lines;
+        }
+    }
+
+    /** Lines of the whole logFile of a service that has logIndex set */
+    @GetMapping(value="/logLines", produces=APPLICATION_JSON)
+    public LogLines getLogLines(@RequestParam(name="service") String serviceName,
+                                @RequestParam(name="from") int from,
+                                @RequestParam(name="count") int count) {
+        final Service service = Services.getOrThrow(serviceName);
+        return service.getRunner().getLogIndex()
+            .map(index -> new LogLines(from, index.getLineCount(), index.getLines(from, Math.min(count, Constants.MAX_LOG_LINES_PER_REQUEST))))
+            .orElseGet(() -> new LogLines(from, 0, new ArrayList<>()));
+    }
+
+    /** Output lines of a service older than the line buffer holds: lines before the given line index
+      * (default newest), or lines from the given time (epoch ms) on when from is given.
+      */
+    @GetMapping(value="/outputHistory", produces=APPLICATION_JSON)
+    public List<ServiceLogger.LineInfo> getOutputHistory(@RequestParam(name="service") String serviceName,
+                                                         @RequestParam(name="before") Optional<Long> beforeIndex,
+                                                         @RequestParam(name="from") Optional<Long> fromTime,
+                                                         @RequestParam(name="count") int count) {
+        final Service service = Services.getOrThrow(serviceName);
+        final int max = Math.min(count, Constants.MAX_LOG_LINES_PER_REQUEST);
+        return fromTime.isPresent()
+            ? service.logger.getHistoryFrom(fromTime.get(), max)
+            : service.logger.getHistoryBefore(beforeIndex.orElse(Long.MAX_VALUE), max);
+    }
+
+    private static class SearchHits {
+        public final String                       service;
+        public final List<ServiceLogger.LineInfo> lines;
+        private SearchHits(Service service, List<ServiceLogger.LineInfo> lines) {
+            this.service = service.getName();
+            this.lines = lines;
+        }
+    }
+
+    /** Searches the buffered output of the given services (default all) for a literal or regex.
+      * Services are searched in parallel (on the common fork-join pool). An invalid regex results
+      * in status 400 (bad request) with the syntax error as message.
+      */
+    @GetMapping(value="/searchOutput", produces=APPLICATION_JSON)
+    public List<SearchHits> searchOutput(@RequestParam(name="query") String query,
+                                         @RequestParam(name="regex", defaultValue="false") boolean isRegex,
+                                         @RequestParam(name="caseSensitive", defaultValue="false") boolean caseSensitive,
+                                         @RequestParam(name="services") Optional<List<String>> serviceNames,
+                                         @RequestParam(name="from") Optional<Long> fromTime,
+                                         @RequestParam(name="to") Optional<Long> toTime,
+                                         @RequestParam(name="max") Optional<Integer> maxPerService) {
+        final LineSearch search = toSearch(query, isRegex, caseSensitive)
+            .between(fromTime.orElse(Long.MIN_VALUE), toTime.orElse(Long.MAX_VALUE));
+        final int max = Math.min(maxPerService.orElse(Constants.MAX_SEARCH_RESULTS), Constants.MAX_SEARCH_RESULTS);
+        final List<Service> services = serviceNames
+            .map(names -> names.stream().map(Services::getOrThrow).collect(Collectors.toList()))
+            .orElseGet(() -> new ArrayList<>(Services.get()));
+
+        return services.parallelStream()
+            .map(s -> new SearchHits(s, s.logger.search(search, max)))
+            .filter(hits -> !hits.lines.isEmpty())
+            .collect(Collectors.toList());
+    }
+
+    static LineSearch toSearch(String query, boolean isRegex, boolean caseSensitive) {
+        if(!isRegex) return LineSearch.literal(query, caseSensitive);
+        try {
+            return LineSearch.regex(query, caseSensitive);
+        } catch(final PatternSyntaxException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid regex: " + e.getMessage(), e);
+        }
+    }
+
+    /** Queue depths of the output pipeline stages, per service */
+    @GetMapping(value="/pipelineMetrics", produces=APPLICATION_JSON)
+    public Map<String,List<PipelineStage.Metrics>> getPipelineMetrics() {
+        final Map<String,List<PipelineStage.Metrics>> metrics = new LinkedHashMap<>();
+        Services.get().forEach(s -> metrics.put(s.getName(), s.logger.getPipelineMetrics()));
+        return metrics;
+    }
+
+    /** Latency between state changes and calling their (debounced) listeners */
+    @GetMapping(value="/listenerMetrics", produces=APPLICATION_JSON)
+    public Map<String,Listeners.Metrics> getListenerMetrics() {
+        final Map<String,Listeners.Metrics> metrics = new LinkedHashMap<>();
+        metrics.put("stateChanges", Services.getStateChangeListenersMetrics());
+        metrics.put("all", Listeners.getAllMetrics());
+        return metrics;
+    }
+
+    /** Pending, fired, late and cancelled timers of the shared timer */
+    @GetMapping(value="/timerMetrics", produces=APPLICATION_JSON)
+    public WheelTimer.Metrics getTimerMetrics() {
+        return Timer.getMetrics();
+    }
+
+    /** Lines/s, error lines/s and state per service over time (by default the last 7 days per hour),
+      * for drawing sparklines. Resolution is one of 5s, 1m or 1h, others result in status 400 (bad request).
+      */
+    @GetMapping(value="/metrics/series", produces=APPLICATION_JSON)
+    public List<MetricsStore.SeriesData> getMetricsSeries(@RequestParam(name="service") Optional<String> serviceName,
+                                                          @RequestParam(name="resolution", defaultValue="1h") String resolution,
+                                                          @RequestParam(name="from") Optional<Long> fromTime,
+                                                          @RequestParam(name="to") Optional<Long> toTime) {
+        final long resolutionMs = MetricsStore.resolutionOf(resolution).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown resolution: " + resolution));
+        final long now = System.currentTimeMillis();
+        final long from = fromTime.orElse(now - Duration.ofDays(7).toMillis());
+        final long to = toTime.orElse(now);
+        final List<Service> services = serviceName.map(name -> Collections.singletonList(Services.getOrThrow(name))).orElseGet(Services::get);
+        return services.stream()
+            .map(service -> Services.getMetricsStore().get(service.getName(), resolutionMs, from, to, now))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
 
-        Services.get().forEach(s -> s.logger.setMessaging(null));
-        service.ifPresent(s -> s.logger.setMessaging(msgTemplate));
-        return service.map(ServiceOutput::new).orElse(new ServiceOutput());
+    /** Chain of dependencies that took longest to start (by their last start), ending at the service or at any service */
+    @GetMapping(value="/startCriticalPath", produces=APPLICATION_JSON)
+    public StartScheduler.CriticalPath getStartCriticalPath(@RequestParam(name="service") Optional<String> serviceName) {
+        return Services.getStartCriticalPath(serviceName.map(Services::getOrThrow).orElse(null));
     }
 
     @PostMapping(value="/clearLog")
@@ -168,8 +395,9 @@ public class WebController {
     }
 
     @PostMapping(value="/stateHistory", produces=APPLICATION_JSON)
-    public Map<Long,String> getStateHistory() {
-	    return Services.getServicesStateHistory().getAsTimeToString();
+    public ServicesStateHistory.Changes getStateHistory(@RequestParam(name="since", defaultValue="-1") long sinceVersion) {
+        Services.getServicesStateHistory().update();
+        return Services.getServicesStateHistory().getChangesSince(sinceVersion);
     }
 
     @GetMapping(value="/getLatestVersion", produces=TEXT_PLAIN)
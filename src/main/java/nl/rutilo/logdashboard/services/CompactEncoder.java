@@ -0,0 +1,94 @@
+package nl.rutilo.logdashboard.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Encodes messages in the COMPACT wire format. The websocket runs over SockJS, which only carries
+  * text, so the encoding is positional JSON (no field names) that the browser can still parse natively:<ul>
+  *   <li>output: [suid, logVelocity, firstIndex, firstTime, [index deltas], [time deltas], [codes], [texts]]
+  *       where the deltas are relative to the previous line (0 for the first) and a code is
+  *       type ordinal | severity ordinal &lt;&lt; 3 | replaces &lt;&lt; 5
+  *   <li>state change: only the fields that change with the state: {name, port, state}
+  *       instead of the whole service including its configuration
+  *   <li>log velocities: [1, v0, v1, ...] for all services, or [0, i, v, i, v, ...] with only the
+  *       services of which the velocity changed since the previous message
+  * </ul>
+  */
+public final class CompactEncoder {
+    private CompactEncoder() { throw new IllegalStateException("singleton"); }
+    private static final JsonFactory  jsonFactory = new JsonFactory();
+    private static final ObjectMapper json        = new ObjectMapper();
+
+    public static String encodeOutput(int suid, int logVelocity, List<LineInfo> lines) {
+        final StringWriter out = new StringWriter(64 + lines.size() * 48);
+        try(final JsonGenerator gen = jsonFactory.createGenerator(out)) {
+            final LineInfo first = lines.isEmpty() ? null : lines.get(0);
+            gen.writeStartArray();
+            gen.writeNumber(suid);
+            gen.writeNumber(logVelocity);
+            gen.writeNumber(first == null ? 0 : first.index);
+            gen.writeNumber(first == null ? 0 : first.time);
+
+            gen.writeStartArray();
+            long previous = first == null ? 0 : first.index;
+            for(final LineInfo line : lines) { gen.writeNumber(line.index - previous); previous = line.index; }
+            gen.writeEndArray();
+
+            gen.writeStartArray();
+            previous = first == null ? 0 : first.time;
+            for(final LineInfo line : lines) { gen.writeNumber(line.time - previous); previous = line.time; }
+            gen.writeEndArray();
+
+            gen.writeStartArray();
+            for(final LineInfo line : lines) gen.writeNumber(codeOf(line));
+            gen.writeEndArray();
+
+            gen.writeStartArray();
+            for(final LineInfo line : lines) gen.writeString(line.text);
+            gen.writeEndArray();
+            gen.writeEndArray();
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e); // writing to a string
+        }
+        return out.toString();
+    }
+    static int codeOf(LineInfo line) {
+        return line.type.ordinal() | line.severity.ordinal() << 3 | (line.replaces ? 1 << 5 : 0);
+    }
+
+    public static String encodeState(Service service) {
+        final Map<String,Object> changes = new LinkedHashMap<>();
+        changes.put("name", service.getName());
+        changes.put("port", service.getPort());
+        changes.put("state", service.getState());
+        try {
+            return json.writeValueAsString(changes);
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** When previous is null (or of a different length) all velocities are encoded */
+    public static String encodeVelocities(int[] velocities, int[] previous) {
+        final StringBuilder sb = new StringBuilder("[");
+        if(previous == null || previous.length != velocities.length) {
+            sb.append(1);
+            for(final int velocity : velocities) sb.append(',').append(velocity);
+        } else {
+            sb.append(0);
+            for(int i=0; i<velocities.length; i++) {
+                if(velocities[i] != previous[i]) sb.append(',').append(i).append(',').append(velocities[i]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
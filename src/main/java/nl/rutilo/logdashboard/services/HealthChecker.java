@@ -0,0 +1,291 @@
+package nl.rutilo.logdashboard.services;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Runs the checks of all external (URL and PORT) services on a single thread.<br><br>
+  *
+  * Checks are scheduled by time. Port probes and plain http probes are non-blocking connects (and a
+  * minimal GET) multiplexed on one selector. Host names are resolved (blocking) on a separate pool
+  * and cached, so a channel is only connected once its address is known and a slow DNS server can't
+  * stall the selector. Https probes need TLS so they run blocking on their own pool, which grows to
+  * one thread per https service (a service has at most one probe in progress) so one hanging service
+  * doesn't delay the checks of others. Probe results and scheduled tasks are always called on the
+  * checker thread.
+  */
+final class HealthChecker {
+    private HealthChecker() { throw new IllegalStateException("singleton"); }
+    private static final long                            RESOLVED_MS   = 60_000; // how long a resolved address is used
+    private static final long                            UNRESOLVED_MS = 5_000;  // how long a failed lookup is remembered
+    private static final Pattern                         STATUS_LINE   = Pattern.compile("^HTTP/\\d(?:\\.\\d)? (\\d{3})");
+    private static final Object                          sync          = new Object();
+    private static final PriorityQueue<Scheduled>        scheduled     = new PriorityQueue<>(); // guarded by sync
+    private static final ConcurrentLinkedQueue<Runnable> pending       = new ConcurrentLinkedQueue<>();
+    private static final AtomicLong                      sequence      = new AtomicLong();
+    private static final Map<String,Resolved>            resolved      = new ConcurrentHashMap<>();
+    private static final ExecutorService                 resolvePool   = Executors.newCachedThreadPool(daemonThreads("Health-Check-Resolve"));
+    private static final ExecutorService                 httpsPool     = Executors.newCachedThreadPool(daemonThreads("Health-Check-Https"));
+    private static       Selector                        selector;     // null until first use
+    private static       Thread                          thread;
+
+    private static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Task scheduled to run on the checker thread */
+    static final class Scheduled implements Comparable<Scheduled> {
+        private final long     time;
+        private final long     seq = sequence.incrementAndGet(); // keeps order of tasks with the same time
+        private final Runnable task;
+        private volatile boolean cancelled;
+        private Scheduled(long time, Runnable task) { this.time = time; this.task = task; }
+        void cancel() { cancelled = true; }
+        @Override public int compareTo(Scheduled other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(seq, other.seq);
+        }
+    }
+
+    /** Address lookup of a host, done or in progress */
+    private static final class Resolved {
+        final long                           time = System.currentTimeMillis();
+        final CompletableFuture<InetAddress> address;
+        Resolved(String host) {
+            address = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return InetAddress.getByName(host);
+                } catch(final UnknownHostException e) {
+                    throw new CompletionException(e);
+                }
+            }, resolvePool);
+        }
+        boolean isExpired(long now) {
+            if(!address.isDone()) return false;
+            return now - time > (address.isCompletedExceptionally() ? UNRESOLVED_MS : RESOLVED_MS);
+        }
+    }
+
+    /** State of a probe in progress, attached to its selection key */
+    private static final class Probe {
+        final SocketChannel     channel;
+        final long              deadline;
+        final Consumer<Boolean> result;
+        final ByteBuffer        request;  // null for a port probe
+        final ByteBuffer        response = ByteBuffer.allocate(256);
+        Probe(SocketChannel channel, long deadline, ByteBuffer request, Consumer<Boolean> result) {
+            this.channel = channel;
+            this.deadline = deadline;
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    static Scheduled schedule(long delayMs, Runnable task) {
+        final Scheduled s = new Scheduled(System.currentTimeMillis() + Math.max(0, delayMs), task);
+        synchronized(sync) {
+            scheduled.add(s);
+            ensureRunning();
+        }
+        selector.wakeup();
+        return s;
+    }
+
+    /** Result is true when a connection to the port can be made within the timeout */
+    static void probePort(String host, int port, int timeoutMs, Consumer<Boolean> result) {
+        onCheckerThread(() -> connect(host, port, timeoutMs, null, result));
+    }
+
+    /** Result is true when a GET of the url results in a status below 400 within the timeout */
+    static void probeUrl(String url, int timeoutMs, Consumer<Boolean> result) {
+        onCheckerThread(() -> {
+            final URL u;
+            try {
+                u = new URL(url);
+            } catch(final IOException malformed) {
+                result.accept(false);
+                return;
+            }
+            if("http".equalsIgnoreCase(u.getProtocol())) {
+                final String path = u.getFile().isEmpty() ? "/" : u.getFile();
+                final String request = "GET " + path + " HTTP/1.1\r\nHost: " + u.getAuthority() + "\r\nConnection: close\r\n\r\n";
+                connect(u.getHost(), u.getPort() < 0 ? u.getDefaultPort() : u.getPort(), timeoutMs,
+                        ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1)), result);
+            } else {
+                httpsPool.execute(() -> {
+                    final boolean isUp = blockingGet(u, timeoutMs);
+                    onCheckerThread(() -> result.accept(isUp));
+                });
+            }
+        });
+    }
+
+    private static void onCheckerThread(Runnable task) {
+        synchronized(sync) { ensureRunning(); }
+        pending.add(task);
+        selector.wakeup();
+    }
+
+    private static void ensureRunning() { // in sync
+        if(thread != null) return;
+        try {
+            selector = Selector.open();
+        } catch(final IOException e) {
+            throw new IllegalStateException("Unable to open selector for health checks", e);
+        }
+        thread = new Thread(HealthChecker::loop, "Health-Check");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void loop() {
+        while(true) {
+            try {
+                runTasks();
+                final long now = System.currentTimeMillis();
+                long wakeTime = now + 60_000;
+                synchronized(sync) {
+                    if(!scheduled.isEmpty()) wakeTime = Math.min(wakeTime, scheduled.peek().time);
+                }
+                for(final SelectionKey key : selector.keys()) {
+                    if(!key.isValid()) continue; // finished, but not yet deregistered
+                    final Probe probe = (Probe)key.attachment();
+                    if(probe.deadline <= now) finish(key, false); else wakeTime = Math.min(wakeTime, probe.deadline);
+                }
+                if(pending.isEmpty()) selector.select(Math.max(1, wakeTime - now));
+
+                for(final SelectionKey key : selector.selectedKeys()) {
+                    if(!key.isValid()) continue;
+                    try {
+                        handle(key);
+                    } catch(final IOException | RuntimeException e) {
+                        finish(key, false);
+                    }
+                }
+                selector.selectedKeys().clear();
+            } catch(final ClosedSelectorException | IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+    }
+
+    private static void runTasks() {
+        for(Runnable task = pending.poll(); task != null; task = pending.poll()) run(task);
+        final long now = System.currentTimeMillis();
+        while(true) {
+            final Scheduled next;
+            synchronized(sync) {
+                if(scheduled.isEmpty() || scheduled.peek().time > now) return;
+                next = scheduled.poll();
+            }
+            if(!next.cancelled) run(next.task);
+        }
+    }
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch(final RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** The address of the host, from the cache or looked up on the resolve pool */
+    static CompletableFuture<InetAddress> resolve(String host) {
+        final long now = System.currentTimeMillis();
+        return resolved.compute(host, (h, old) -> old == null || old.isExpired(now) ? new Resolved(h) : old).address;
+    }
+
+    private static void connect(String host, int port, int timeoutMs, ByteBuffer request, Consumer<Boolean> result) {
+        final long deadline = System.currentTimeMillis() + timeoutMs; // includes the lookup
+        final CompletableFuture<InetAddress> address = resolve(host);
+        if(address.isDone()) connect(address, port, deadline, request, result);
+        else address.whenComplete((a, e) -> onCheckerThread(() -> connect(address, port, deadline, request, result)));
+    }
+
+    private static void connect(CompletableFuture<InetAddress> address, int port, long deadline, ByteBuffer request, Consumer<Boolean> result) {
+        if(address.isCompletedExceptionally() || deadline <= System.currentTimeMillis()) {
+            run(() -> result.accept(false));
+            return;
+        }
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            final Probe probe = new Probe(channel, deadline, request, result);
+            final boolean connected = channel.connect(new InetSocketAddress(address.join(), port)); // resolved, so no lookup here
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            if(connected) connected(key, probe);
+        } catch(final IOException | RuntimeException e) {
+            if(channel != null) try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+            run(() -> result.accept(false));
+        }
+    }
+
+    private static void handle(SelectionKey key) throws IOException {
+        final Probe probe = (Probe)key.attachment();
+        if(key.isConnectable()) {
+            if(probe.channel.finishConnect()) connected(key, probe);
+        } else if(key.isWritable()) {
+            probe.channel.write(probe.request);
+            if(!probe.request.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+        } else if(key.isReadable()) {
+            final int count = probe.channel.read(probe.response);
+            final String head = new String(probe.response.array(), 0, probe.response.position(), StandardCharsets.ISO_8859_1);
+            if(head.contains("\r\n") || count < 0 || !probe.response.hasRemaining()) {
+                final Matcher matcher = STATUS_LINE.matcher(head);
+                finish(key, matcher.find() && Integer.parseInt(matcher.group(1)) < 400);
+            }
+        }
+    }
+    private static void connected(SelectionKey key, Probe probe) {
+        if(probe.request == null) finish(key, true); else key.interestOps(SelectionKey.OP_WRITE);
+    }
+    private static void finish(SelectionKey key, boolean isUp) {
+        key.cancel();
+        try { key.channel().close(); } catch(final IOException ignored) { /*ignored*/ }
+        run(() -> ((Probe)key.attachment()).result.accept(isUp));
+    }
+
+    private static boolean blockingGet(URL url, int timeoutMs) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection)url.openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setInstanceFollowRedirects(true);
+            return connection.getResponseCode() < 400;
+        } catch(final IOException | ClassCastException e) {
+            return false;
+        } finally {
+            if(connection != null) connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Fixed capacity ring buffer of log lines, stored in parallel arrays (one per LineInfo field).<br><br>
+  *
+  * Adding is serialized by a writer lock, reading takes no lock at all: a reader copies the
+  * slots it wants and afterwards drops the ones a writer may have overwritten in the meantime.
+  * So a reader always gets a consistent, in-order range of lines. Each slot has a sequence number
+  * (the line it holds, or -1 while being written) that is read (volatile) before and after reading
+  * the slot; a slot is only used when both reads give the expected line.<br><br>
+  *
+  * Each line also gets a trigram signature (see LineSearch) so a search can skip most lines cheaply.
+  */
+public class LineBuffer {
+    private static final LineType[] LINE_TYPES = LineType.values();
+    private static final Severity[] SEVERITIES = Severity.values();
+
+    private final int             capacity;
+    private final long[]          indices;
+    private final long[]          times;
+    private final byte[]          types;
+    private final byte[]          severities;
+    private final String[]        texts;
+    private final long[]          signatures; // LineSearch.SIGNATURE_LONGS per slot
+    private final AtomicLongArray slotSeqs;   // sequence number of the line in the slot, -1 while writing
+    private final Object          writeSync = new Object();
+
+    // Sequence numbers of lines, counting all lines ever added.
+    // A line with sequence number seq is stored in slot seq % capacity.
+    private volatile long         reserved;  // lines a writer started writing
+    private volatile long         published; // lines written completely
+    private volatile long         start;     // first line after the latest clear
+
+    public LineBuffer(int capacity) {
+        if(capacity < 1) throw new IllegalArgumentException("capacity should be at least 1");
+        this.capacity = capacity;
+        indices    = new long[capacity];
+        times      = new long[capacity];
+        types      = new byte[capacity];
+        severities = new byte[capacity];
+        texts      = new String[capacity];
+        signatures = new long[capacity * LineSearch.SIGNATURE_LONGS];
+        slotSeqs   = new AtomicLongArray(capacity);
+        for(int i=0; i<capacity; i++) slotSeqs.set(i, -1);
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public void add(LineInfo line) {
+        synchronized(writeSync) {
+            final long seq = published;
+            final int slot = (int)(seq % capacity);
+            reserved = seq + 1;
+            slotSeqs.set(slot, -1);
+            indices   [slot] = line.index;
+            times     [slot] = line.time;
+            types     [slot] = (byte)line.type.ordinal();
+            severities[slot] = (byte)line.severity.ordinal();
+            texts     [slot] = line.text;
+            Arrays.fill(signatures, slot * LineSearch.SIGNATURE_LONGS, (slot + 1) * LineSearch.SIGNATURE_LONGS, 0L);
+            LineSearch.addSignature(line.text, signatures, slot * LineSearch.SIGNATURE_LONGS);
+            slotSeqs.set(slot, seq);
+            published = seq + 1;
+        }
+    }
+
+    public void clear() {
+        synchronized(writeSync) {
+            final long end = published;
+            final long oldStart = firstAvailable(end, reserved);
+            start = end;
+            // Don't keep the cleared lines alive. A reader that still sees a cleared slot skips it by its null text.
+            for(long seq = oldStart; seq < end; seq++) texts[(int)(seq % capacity)] = null;
+        }
+    }
+
+    public int size() {
+        final long end = published;
+        return (int)(end - firstAvailable(end, reserved));
+    }
+
+    /** Returns a copy of all lines currently in the buffer, oldest first */
+    public List<LineInfo> getAll() {
+        return getLast(capacity);
+    }
+
+    /** Returns a copy of the newest maxCount lines in the buffer, oldest first */
+    public List<LineInfo> getLast(int maxCount) {
+        final long end = published;
+        return copy(Math.max(firstAvailable(end, reserved), end - Math.max(0, maxCount)), end, end);
+    }
+
+    /** Returns a copy of at most maxCount lines with afterIndex &lt; index &lt; beforeIndex, oldest first.
+      * When there are more, the newest are returned when newest is true, otherwise the oldest.
+      * Line indices increase in the order lines are added, so they can be used as cursor.
+      */
+    public List<LineInfo> getRange(long afterIndex, long beforeIndex, int maxCount, boolean newest) {
+        final long end   = published;
+        final long first = firstAvailable(end, reserved);
+        long from = seqOfFirstIndexAbove(afterIndex, first, end);
+        long to   = Math.max(from, seqOfFirstIndexAbove(beforeIndex - 1, first, end));
+        if(to - from > maxCount) {
+            if(newest) from = to - Math.max(0, maxCount);
+            else       to = from + Math.max(0, maxCount);
+        }
+        return copy(from, to, end);
+    }
+
+    /** Number of buffered lines with afterIndex &lt; index &lt; beforeIndex */
+    public int count(long afterIndex, long beforeIndex) {
+        final long end   = published;
+        final long first = firstAvailable(end, reserved);
+        final long from  = seqOfFirstIndexAbove(afterIndex, first, end);
+        return (int)Math.max(0, seqOfFirstIndexAbove(beforeIndex - 1, first, end) - from);
+    }
+
+    /** Binary search for the first sequence number in [first, end) of a line with an index above the given one.
+      * A line that was overwritten meanwhile is older than all lines still there, so counts as below.
+      */
+    private long seqOfFirstIndexAbove(long index, long first, long end) {
+        long low = first;
+        long high = end;
+        while(low < high) {
+            final long mid = (low + high) >>> 1;
+            final int slot = (int)(mid % capacity);
+            final boolean wasValid = slotSeqs.get(slot) == mid;
+            final long midIndex = indices[slot];
+            if(!wasValid || slotSeqs.get(slot) != mid || midIndex <= index) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    private List<LineInfo> copy(long first, long to, long end) {
+        final int count = (int)Math.max(0, to - first);
+
+        final long[]   copyIndices    = new long[count];
+        final long[]   copyTimes      = new long[count];
+        final byte[]   copyTypes      = new byte[count];
+        final byte[]   copySeverities = new byte[count];
+        final String[] copyTexts      = new String[count];
+        int skip = 0; // slots are overwritten oldest first, so the invalid ones are at the start
+        for(int i=0; i<count; i++) {
+            final long seq = first + i;
+            final int slot = (int)(seq % capacity);
+            if(slotSeqs.get(slot) != seq) { skip = i + 1; continue; }
+            copyIndices   [i] = indices[slot];
+            copyTimes     [i] = times[slot];
+            copyTypes     [i] = types[slot];
+            copySeverities[i] = severities[slot];
+            copyTexts     [i] = texts[slot];
+            if(slotSeqs.get(slot) != seq) skip = i + 1; // overwritten while copying
+        }
+
+        skip = (int)Math.max(skip, Math.min(count, Math.max(0, start - first))); // cleared meanwhile
+        while(skip < count && copyTexts[skip] == null) skip++; // cleared while copying
+
+        final List<LineInfo> lines = new ArrayList<>(count - skip);
+        for(int i=skip; i<count; i++) {
+            lines.add(new LineInfo(copyIndices[i], copyTimes[i], LINE_TYPES[copyTypes[i]], SEVERITIES[copySeverities[i]], copyTexts[i]));
+        }
+        return lines;
+    }
+
+    /** Returns the newest maxCount lines that match the search, oldest first */
+    public List<LineInfo> search(LineSearch search, int maxCount) {
+        final long end   = published;
+        final long first = firstAvailable(end, reserved);
+
+        final List<Long>     seqs    = new ArrayList<>();
+        final List<LineInfo> matches = new ArrayList<>();
+        for(long seq = end - 1; seq >= first && matches.size() < maxCount; seq--) {
+            final int slot = (int)(seq % capacity);
+            if(slotSeqs.get(slot) != seq) break; // overwritten, and so are all older ones
+            if(!search.mayMatch(signatures, slot * LineSearch.SIGNATURE_LONGS) || !search.isInTimeRange(times[slot])) continue;
+            final String text = texts[slot];
+            if(text == null || !search.matches(text)) continue;
+            final LineInfo line = new LineInfo(indices[slot], times[slot], LINE_TYPES[types[slot]], SEVERITIES[severities[slot]], text);
+            if(slotSeqs.get(slot) != seq) break; // overwritten while reading
+            seqs.add(seq);
+            matches.add(line);
+        }
+
+        // Lines cleared while searching are no longer valid (matches are newest first)
+        final long firstValid = start;
+        int count = matches.size();
+        while(count > 0 && seqs.get(count - 1) < firstValid) count--;
+
+        final List<LineInfo> lines = new ArrayList<>(matches.subList(0, count));
+        Collections.reverse(lines);
+        return lines;
+    }
+
+    private long firstAvailable(long end, long reservedEnd) {
+        return Math.max(start, Math.max(0, Math.max(end, reservedEnd) - capacity));
+    }
+}
@@ -0,0 +1,159 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** Cleans and classifies log lines of a service. The rules (built in exception/stack-trace rules
+  * and the logLevels of the service configuration) are compiled once into a single pattern with
+  * one lookahead per severity, so classifying a line is one match call. That call scans the line
+  * once per severity instead of once per rule, but at each position every rule is still tried,
+  * so the cost does grow with the number of rules.<br><br>
+  *
+  * Rules that refer to their own groups (backreferences like \1 or \k&lt;name&gt;, or named groups
+  * that could clash with those of other rules) can't be combined, because combining shifts the
+  * group numbers. Those are kept as separate patterns and only tried when they would give a
+  * higher severity than the combined pattern.<br><br>
+  *
+  * Rules are tried from highest to lowest severity. The most severe matching rule determines the
+  * severity of the line.
+  */
+public class LineClassifier {
+    private static final String GROUP_PREFIX = "dldRule";
+    private static final List<String> BUILT_IN_ERROR_RULES = Collections.unmodifiableList(Arrays.asList(
+        "^(\\w+\\.){1,}\\w+Exception: .*$",     // exception
+        "^\\tat \\w+\\..*$",                    // stack frame
+        "^(Caused|Wrapped) by: (\\w+\\.){2,}.*$",
+        "^\\t... \\d+ more$",
+        "^\\[ERROR\\]"
+    ));
+
+    private final Pattern         rulesPattern; // null when there are no rules
+    private final List<Severity>  ruleSeverities = new ArrayList<>(); // per group of rulesPattern
+    private final List<Rule>      separateRules  = new ArrayList<>(); // most severe first
+    private final List<Pattern>   deletePatterns = new ArrayList<>();
+
+    private static class Rule {
+        final Severity severity;
+        final String   regex;
+        Pattern        pattern; // only for separate rules
+        Rule(Severity severity, String regex) { this.severity = severity; this.regex = regex; }
+    }
+
+    public static LineClassifier builtIn() {
+        return new LineClassifier(null, null, error -> {});
+    }
+    public static LineClassifier of(Service service, Consumer<String> errorHandler) {
+        return new LineClassifier(service.getLogLevels(), service.getLogDeletes(), errorHandler);
+    }
+
+    private LineClassifier(Map<String,String> levelRules, List<String> deletes, Consumer<String> errorHandler) {
+        final List<Rule> rules = new ArrayList<>();
+        BUILT_IN_ERROR_RULES.forEach(regex -> rules.add(new Rule(Severity.ERROR, regex)));
+
+        if(levelRules != null) levelRules.forEach((level, regex) -> {
+            final Severity severity;
+            try {
+                severity = Severity.valueOf(level.trim().toUpperCase(Locale.US));
+            } catch(final IllegalArgumentException unknownLevel) {
+                errorHandler.accept("logLevels has unknown level: " + level);
+                return;
+            }
+            if(severity == Severity.NONE || regex == null) return;
+            if(isValidRegex(regex, "logLevels." + level, errorHandler)) rules.add(new Rule(severity, regex));
+        });
+        if(deletes != null) deletes.forEach(regex -> {
+            if(isValidRegex(regex, "logDeletes", errorHandler)) deletePatterns.add(Pattern.compile(regex));
+        });
+
+        rules.sort((a, b) -> b.severity.compareTo(a.severity)); // stable, so built in rules stay first of ERROR
+
+        // ^(?:(?=(?:anchoredRules0)|.*?(?:otherRules0))(?<dldRule0>)|(?=...)(?<dldRule1>)|...)
+        // One lookahead from the start of the line per severity, so rules keep their own anchors
+        // and the first matching alternative (highest severity) wins.
+        final StringBuilder sb = new StringBuilder("^(?:");
+        for(int i=0; i<rules.size(); ) {
+            final Severity severity = rules.get(i).severity;
+            final List<String> anchored = new ArrayList<>();
+            final List<String> unanchored = new ArrayList<>();
+            for(; i<rules.size() && rules.get(i).severity == severity; i++) {
+                final Rule rule = rules.get(i);
+                if(refersToGroups(rule.regex)) {
+                    rule.pattern = Pattern.compile(rule.regex);
+                    separateRules.add(rule);
+                }
+                else (rule.regex.startsWith("^") ? anchored : unanchored).add("(?:" + rule.regex + ")");
+            }
+            if(anchored.isEmpty() && unanchored.isEmpty()) continue;
+            if(!ruleSeverities.isEmpty()) sb.append('|');
+            sb.append("(?=");
+            if(!anchored.isEmpty()) sb.append("(?:").append(String.join("|", anchored)).append(')');
+            if(!anchored.isEmpty() && !unanchored.isEmpty()) sb.append('|');
+            if(!unanchored.isEmpty()) sb.append(".*?(?:").append(String.join("|", unanchored)).append(')');
+            sb.append(")(?<").append(GROUP_PREFIX).append(ruleSeverities.size()).append(">)");
+            ruleSeverities.add(severity);
+        }
+        sb.append(')');
+        rulesPattern = ruleSeverities.isEmpty() ? null : Pattern.compile(sb.toString());
+    }
+
+    /** True when the regex has backreferences or named groups, which break when combined with other rules */
+    static boolean refersToGroups(String regex) {
+        for(int i=0; i<regex.length() - 1; i++) {
+            final char c = regex.charAt(i);
+            final char next = regex.charAt(i + 1);
+            if(c == '\\') {
+                if((next >= '1' && next <= '9') || next == 'k') return true;
+                i++; // skip escaped character
+            } else if(c == '(' && regex.startsWith("?<", i + 1) && i + 3 < regex.length() && Character.isLetter(regex.charAt(i + 3))) {
+                return true; // named group, not a lookbehind
+            }
+        }
+        return false;
+    }
+
+    private static boolean isValidRegex(String regex, String name, Consumer<String> errorHandler) {
+        try {
+            Pattern.compile(regex);
+            return true;
+        } catch(final PatternSyntaxException ex) {
+            errorHandler.accept(name + " has error: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    /** Removes the parts matching the logDeletes of the service */
+    public String clean(String line) {
+        String text = line;
+        for(final Pattern delete : deletePatterns) text = delete.matcher(text).replaceAll("");
+        return text;
+    }
+
+    /** Returns the severity of the most severe matching rule, or NONE */
+    public Severity classify(String line) {
+        final Severity severity = classifyCombined(line);
+        for(final Rule rule : separateRules) {
+            if(rule.severity.compareTo(severity) <= 0) break;
+            if(rule.pattern.matcher(line).find()) return rule.severity;
+        }
+        return severity;
+    }
+    private Severity classifyCombined(String line) {
+        if(rulesPattern == null) return Severity.NONE;
+        final Matcher matcher = rulesPattern.matcher(line);
+        if(!matcher.lookingAt()) return Severity.NONE;
+        for(int i=0; i<ruleSeverities.size(); i++) {
+            if(matcher.start(GROUP_PREFIX + i) >= 0) return ruleSeverities.get(i);
+        }
+        return Severity.NONE;
+    }
+}
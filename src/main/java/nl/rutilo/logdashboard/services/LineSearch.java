@@ -0,0 +1,154 @@
+package nl.rutilo.logdashboard.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/** Search for a literal or regular expression in output lines, optionally limited to a time range.<br><br>
+  *
+  * To skip most lines without running the matcher, each line in a LineBuffer has a signature: a small
+  * bitset of the (case folded) character trigrams it contains. The trigrams of text that a match
+  * requires give the signature of the search, and only lines whose signature contains all those bits
+  * can match. A signature may contain bits of other trigrams too, so candidates are always verified.
+  */
+public class LineSearch {
+    static final         int     SIGNATURE_LONGS = 8; // 512 bits per line
+    private static final int     SIGNATURE_BITS  = SIGNATURE_LONGS * 64;
+    private final        Pattern pattern;
+    private final        long[]  signature       = new long[SIGNATURE_LONGS];
+    private final        long    fromTime;
+    private final        long    toTime;
+
+    private LineSearch(Pattern pattern, List<String> requiredTexts, long fromTime, long toTime) {
+        this.pattern  = pattern;
+        this.fromTime = fromTime;
+        this.toTime   = toTime;
+        requiredTexts.forEach(text -> addSignature(text, signature, 0));
+    }
+
+    public static LineSearch literal(String text, boolean caseSensitive) {
+        final int flags = Pattern.LITERAL | (caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        final List<String> required = new ArrayList<>();
+        required.add(text);
+        return new LineSearch(Pattern.compile(text, flags), required, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** Throws a PatternSyntaxException (an IllegalArgumentException) when the regex is invalid */
+    public static LineSearch regex(String regex, boolean caseSensitive) {
+        final int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        return new LineSearch(Pattern.compile(regex, flags), requiredLiterals(regex), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** Returns a search that only matches lines with a time (epoch ms) in [fromTime, toTime] */
+    public LineSearch between(long fromTime, long toTime) {
+        final LineSearch search = new LineSearch(pattern, new ArrayList<>(), fromTime, toTime);
+        System.arraycopy(signature, 0, search.signature, 0, SIGNATURE_LONGS);
+        return search;
+    }
+
+    boolean isInTimeRange(long time) {
+        return time >= fromTime && time <= toTime;
+    }
+
+    /** False when the line with the given signature cannot match */
+    boolean mayMatch(long[] signatures, int offset) {
+        for(int i=0; i<SIGNATURE_LONGS; i++) {
+            if((signatures[offset + i] & signature[i]) != signature[i]) return false;
+        }
+        return true;
+    }
+
+    boolean matches(String text) {
+        return text != null && pattern.matcher(text).find();
+    }
+
+    /** Adds the trigram bits of the text to the signature at signatures[offset] */
+    static void addSignature(String text, long[] signatures, int offset) {
+        if(text == null || text.length() < 3) return;
+        int c0 = fold(text.charAt(0));
+        int c1 = fold(text.charAt(1));
+        for(int i=2; i<text.length(); i++) {
+            final int c2 = fold(text.charAt(i));
+            final int hash = ((c0 * 31 + c1) * 31 + c2) * 0x9E3779B1; // spread the bits
+            final int bit = (hash >>> 16) % SIGNATURE_BITS;
+            signatures[offset + (bit >>> 6)] |= 1L << bit;
+            c0 = c1;
+            c1 = c2;
+        }
+    }
+    private static int fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c)); // same folding as a case insensitive match
+    }
+
+    /** Returns texts that every match of the regex contains. Conservative: anything inside a group or
+      * a character class is ignored, as is a literal followed by a quantifier that allows zero times.
+      * Returns an empty list when nothing can be determined (e.g. alternation at the top level).
+      */
+    static List<String> requiredLiterals(String regex) {
+        final List<String> literals = new ArrayList<>();
+        final StringBuilder run = new StringBuilder();
+        int groupDepth = 0;
+        int classDepth = 0;
+        for(int i=0; i<regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if(classDepth > 0) {
+                if(c == '\\') i++;
+                else if(c == '[') classDepth++;
+                else if(c == ']' && regex.charAt(i - 1) != '[' && !regex.startsWith("[^", i - 2)) classDepth--;
+                continue;
+            }
+            if(c == '\\' && i + 1 < regex.length()) {
+                final char next = regex.charAt(++i);
+                if(next == 'Q') return new ArrayList<>(); // quoting is not parsed here
+                if(Character.isLetterOrDigit(next)) { endRun(run, literals, groupDepth); continue; } // \d, \b, \1, etc.
+                if(groupDepth == 0) run.append(next);
+                continue;
+            }
+            switch(c) {
+                case '|':
+                    if(groupDepth == 0) return new ArrayList<>();
+                    break;
+                case '(':
+                    if(hasCommentsFlag(regex, i)) return new ArrayList<>(); // whitespace in literals would not count
+                    endRun(run, literals, groupDepth);
+                    groupDepth++;
+                    break;
+                case ')':
+                    groupDepth--;
+                    break;
+                case '[':
+                    endRun(run, literals, groupDepth);
+                    classDepth++;
+                    break;
+                case '?': case '*': case '{':
+                    if(run.length() > 0) run.setLength(run.length() - 1); // last char is optional
+                    endRun(run, literals, groupDepth);
+                    if(c == '{') {
+                        i = regex.indexOf('}', i);
+                        if(i < 0) return new ArrayList<>();
+                    }
+                    break;
+                case '+': case '.': case '^': case '$':
+                    endRun(run, literals, groupDepth);
+                    break;
+                default:
+                    if(groupDepth == 0) run.append(c);
+            }
+        }
+        endRun(run, literals, groupDepth);
+        return literals;
+    }
+    private static boolean hasCommentsFlag(String regex, int groupStart) {
+        if(!regex.startsWith("(?", groupStart)) return false;
+        for(int i=groupStart + 2; i<regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if(c == 'x') return true;
+            if(!Character.isLetter(c) && c != '-') return false;
+        }
+        return false;
+    }
+    private static void endRun(StringBuilder run, List<String> literals, int groupDepth) {
+        if(groupDepth == 0 && run.length() >= 3) literals.add(run.toString());
+        run.setLength(0);
+    }
+}
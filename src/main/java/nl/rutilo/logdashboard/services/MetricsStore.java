@@ -0,0 +1,233 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceState.State;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** Time series of output metrics per service: lines, error lines and the most severe state, at three
+  * resolutions. Every SAMPLE_MS a sample (counted since the previous sample) is added to each resolution.
+  * A sample is merged into the slot of its time when that already exists, so the 1m and 1h slots are
+  * rollups of the 5s samples, maintained while recording instead of recomputed when read. Each
+  * resolution is a ring of slots, so old slots are overwritten:<ul>
+  *   <li>5s for the last hour
+  *   <li>1m for the last day
+  *   <li>1h for the last 8 days (enough for a 7-day sparkline)
+  * </ul>
+  * The store is saved to a gzipped binary file so history survives a restart of the dashboard.
+  */
+public class MetricsStore {
+    public  static final long     SAMPLE_MS   = 5_000;
+    public  static final long[]   STEPS_MS    = { SAMPLE_MS, 60_000, 3600_000 };
+    private static final int[]    CAPACITIES  = { 720, 1440, 192 };
+    private static final int      FILE_MAGIC  = 0x4c444d31; // LDM1
+    private static final State[]  STATES      = State.values();
+    private final Map<String,Series> series = new LinkedHashMap<>(); // by service name
+
+    /** Metrics of a single service at one resolution, as rates per second on a fixed time grid */
+    public static class SeriesData {
+        public final String   service;
+        public final long     resolutionMs;
+        public final long     start;           // time of the first value
+        public final Double[] linesPerSecond;  // null where nothing was recorded (e.g. dashboard not running)
+        public final Double[] errorsPerSecond;
+        public final String[] states;          // most severe state in each interval
+        SeriesData(String service, long resolutionMs, long start, int count) {
+            this.service = service;
+            this.resolutionMs = resolutionMs;
+            this.start = start;
+            linesPerSecond = new Double[count];
+            errorsPerSecond = new Double[count];
+            states = new String[count];
+        }
+    }
+
+    /** Ring of slots of one resolution. The newest slot is at 'last'. */
+    private static final class Level {
+        final long   stepMs;
+        final long[] times;  // slot start, 0 when empty
+        final int[]  lines;
+        final int[]  errors;
+        final byte[] states; // ordinal of the most severe state, -1 for none
+        int          last = -1;
+
+        Level(long stepMs, int capacity) {
+            this.stepMs = stepMs;
+            times  = new long[capacity];
+            lines  = new int[capacity];
+            errors = new int[capacity];
+            states = new byte[capacity];
+        }
+
+        void add(long time, int lineCount, int errorCount, int stateOrdinal) {
+            final long slotTime = time - Math.floorMod(time, stepMs);
+            if(last < 0 || times[last] != slotTime) {
+                if(last >= 0 && slotTime < times[last]) return; // clock went back: ignore until it catches up
+                last = (last + 1) % times.length;
+                times[last] = slotTime;
+                lines[last] = 0;
+                errors[last] = 0;
+                states[last] = -1;
+            }
+            lines[last] += lineCount;
+            errors[last] += errorCount;
+            if(stateOrdinal >= 0 && (states[last] < 0 || severityOf(stateOrdinal) > severityOf(states[last]))) states[last] = (byte)stateOrdinal;
+        }
+
+        /** Index of the oldest slot, or -1 when empty */
+        int first() {
+            if(last < 0) return -1;
+            final int next = (last + 1) % times.length;
+            return times[next] == 0 ? 0 : next;
+        }
+        int size() {
+            return last < 0 ? 0 : times[(last + 1) % times.length] == 0 ? last + 1 : times.length;
+        }
+    }
+
+    private static final class Series {
+        final Level[] levels = new Level[STEPS_MS.length];
+        long          lastLineTotal  = -1; // -1 until the first sample after (re)start
+        long          lastErrorTotal = -1;
+        Series() {
+            for(int i=0; i<levels.length; i++) levels[i] = new Level(STEPS_MS[i], CAPACITIES[i]);
+        }
+    }
+
+    private static int severityOf(int stateOrdinal) {
+        switch(STATES[stateOrdinal]) {
+            case OFF:           return 0;
+            case RUNNING:       return 1;
+            case WAITING:       return 2;
+            case STARTING:      return 3;
+            case INIT_ERROR:    return 4;
+            case RUNNING_ERROR: return 5;
+            case EXIT_ERROR:    return 6;
+        }
+        return 0;
+    }
+
+    /** Records a sample from the (ever increasing) line totals of the service. The first sample
+      * of a service after a (re)start of the dashboard only remembers the totals.
+      */
+    public synchronized void sample(String service, long time, long lineTotal, long errorTotal, State state) {
+        final Series s = series.computeIfAbsent(service, name -> new Series());
+        final int lines = s.lastLineTotal < 0 ? 0 : (int)Math.max(0, lineTotal - s.lastLineTotal);
+        final int errors = s.lastErrorTotal < 0 ? 0 : (int)Math.max(0, errorTotal - s.lastErrorTotal);
+        s.lastLineTotal = lineTotal;
+        s.lastErrorTotal = errorTotal;
+        record(service, time, lines, errors, state);
+    }
+
+    /** Adds counts to all resolutions */
+    public synchronized void record(String service, long time, int lines, int errors, State state) {
+        final Series s = series.computeIfAbsent(service, name -> new Series());
+        for(final Level level : s.levels) level.add(time, lines, errors, state == null ? -1 : state.ordinal());
+    }
+
+    /** Parses a resolution like "5s", "1m" or "1h" into one of STEPS_MS */
+    public static Optional<Long> resolutionOf(String text) {
+        final String[] names = { "5s", "1m", "1h" };
+        for(int i=0; i<names.length; i++) if(names[i].equalsIgnoreCase(text)) return Optional.of(STEPS_MS[i]);
+        return Optional.empty();
+    }
+
+    public synchronized List<String> getServiceNames() { return new ArrayList<>(series.keySet()); }
+
+    /** Values with a time in [from, to] at the resolution (one of STEPS_MS), or null when unknown.
+      * The rate of the newest slot is over the part of the interval that has passed at 'now'.
+      */
+    public synchronized SeriesData get(String service, long resolutionMs, long from, long to, long now) {
+        final Series s = series.get(service);
+        int levelIndex = STEPS_MS.length - 1;
+        while(levelIndex >= 0 && STEPS_MS[levelIndex] != resolutionMs) levelIndex--;
+        if(s == null || levelIndex < 0) return null;
+        final Level level = s.levels[levelIndex];
+        if(level.size() == 0) return new SeriesData(service, resolutionMs, from - Math.floorMod(from, resolutionMs), 0);
+
+        final long oldest = level.times[level.first()];
+        final long newest = level.times[level.last];
+        final long start = Math.max(oldest, from - Math.floorMod(from, resolutionMs));
+        final long end = Math.min(newest, to);
+        final int count = end < start ? 0 : (int)((end - start) / resolutionMs) + 1;
+        final SeriesData data = new SeriesData(service, resolutionMs, start, count);
+
+        for(int i=level.first(), n=0; n<level.size(); i=(i + 1) % level.times.length, n++) {
+            final long time = level.times[i];
+            if(time < start || time > end) continue;
+            final int slot = (int)((time - start) / resolutionMs);
+            final double seconds = Math.max(1, Math.min(resolutionMs, now - time)) / 1000.0;
+            data.linesPerSecond[slot] = level.lines[i] / seconds;
+            data.errorsPerSecond[slot] = level.errors[i] / seconds;
+            data.states[slot] = level.states[i] < 0 ? null : STATES[level.states[i]].name();
+        }
+        return data;
+    }
+
+    /** Writes to a temporary file first, so a crash while saving leaves the previous file intact */
+    public void save(File file) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null) dir.mkdirs();
+        final File temp = new File(file.getPath() + ".tmp");
+        try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+            synchronized(this) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(series.size());
+                for(final Map.Entry<String,Series> entry : series.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    for(final Level level : entry.getValue().levels) {
+                        out.writeInt(level.size());
+                        for(int i=level.first(), n=0; n<level.size(); i=(i + 1) % level.times.length, n++) {
+                            out.writeLong(level.times[i]);
+                            out.writeInt(level.lines[i]);
+                            out.writeInt(level.errors[i]);
+                            out.writeByte(level.states[i]);
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Returns an empty store when the file does not exist or cannot be read */
+    public static MetricsStore load(File file) {
+        final MetricsStore store = new MetricsStore();
+        if(!file.exists()) return store;
+        try(final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if(in.readInt() != FILE_MAGIC) return store;
+            for(int count = in.readInt(); count > 0; count--) {
+                final Series s = new Series();
+                store.series.put(in.readUTF(), s);
+                for(final Level level : s.levels) {
+                    for(int slots = in.readInt(); slots > 0; slots--) {
+                        final long time = in.readLong();
+                        final int lines = in.readInt();
+                        final int errors = in.readInt();
+                        final byte state = in.readByte();
+                        level.add(time, lines, errors, state >= 0 && state < STATES.length ? state : -1);
+                    }
+                }
+            }
+        } catch(final IOException | RuntimeException e) {
+            e.printStackTrace();
+            return new MetricsStore(); // corrupt: start over
+        }
+        return store;
+    }
+}
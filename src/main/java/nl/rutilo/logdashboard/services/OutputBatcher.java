@@ -0,0 +1,72 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/** Gathers lines and hands them to the sink as one batch, when the batch is full or
+  * when the window time after the first line of the batch has passed. The sink is
+  * called in line order and never concurrently.
+  */
+class OutputBatcher {
+    private static final ScheduledThreadPoolExecutor threadPool = new ScheduledThreadPoolExecutor(1, r -> {
+        final Thread t = new Thread(r, "Output-Batcher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Consumer<List<LineInfo>> sink;
+    private final Object                   sync = new Object();
+    private       List<LineInfo>           lines = new ArrayList<>();
+    private       ScheduledFuture<?>       flushFuture;
+    private final IntSupplier              windowMs;
+    private final IntSupplier              maxCount;
+
+    /** A window of 0ms or a max count of 1 means no batching */
+    OutputBatcher(Consumer<List<LineInfo>> sink, IntSupplier windowMs, IntSupplier maxCount) {
+        this.sink = sink;
+        this.windowMs = windowMs;
+        this.maxCount = maxCount;
+    }
+
+    public void add(LineInfo line) {
+        synchronized(sync) {
+            lines.add(line);
+            final int ms = windowMs.getAsInt();
+            if(ms <= 0 || lines.size() >= maxCount.getAsInt()) {
+                flush();
+            } else if(flushFuture == null) {
+                flushFuture = threadPool.schedule(this::flush, ms, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Sends what is gathered so far */
+    public void flush() {
+        synchronized(sync) {
+            cancelScheduledFlush();
+            if(lines.isEmpty()) return;
+            final List<LineInfo> batch = lines;
+            lines = new ArrayList<>();
+            sink.accept(batch); // in sync to keep the order of batches
+        }
+    }
+
+    /** Drops what is gathered so far */
+    public void discard() {
+        synchronized(sync) {
+            cancelScheduledFlush();
+            lines = new ArrayList<>();
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if(flushFuture != null) flushFuture.cancel(false);
+        flushFuture = null;
+    }
+}
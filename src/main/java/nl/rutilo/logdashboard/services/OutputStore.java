@@ -0,0 +1,282 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/** Append-only on-disk store of the output lines of a service, so history older than what the
+  * line buffer holds can still be read.<br><br>
+  *
+  * Lines are appended to segment files of a fixed maximum size. When the total size exceeds the
+  * maximum, the oldest segment file is deleted as a whole, so retention never copies data.
+  * Each segment keeps a sparse in-memory index (line index, time and file offset of every
+  * SPARSE_INTERVAL-th line) to find where to start reading.<br><br>
+  *
+  * History does NOT survive a restart of the dashboard: line indices restart, so the segments of a
+  * previous run are removed when the store is created. Each live store claims its directory, so a
+  * second store for the same directory gets a directory of its own instead of deleting the files
+  * of the first. Use dirNameOf() for a directory name per service.<br><br>
+  *
+  * When writing fails (disk full, no permission) the store reports it once and stops storing, so
+  * the in-memory output keeps working. Lines that were stored can still be read.
+  */
+class OutputStore implements Closeable {
+    private static final int        SPARSE_INTERVAL = 64;
+    private static final int        BUFFER_SIZE     = 64 * 1024;
+    private static final int        HEADER_SIZE     = 4 + 8 + 8 + 1 + 1; // length, index, time, type, severity
+    private static final String     EXTENSION       = ".seg";
+    private static final LineType[] LINE_TYPES      = LineType.values();
+    private static final Severity[] SEVERITIES      = Severity.values();
+    private static final Set<File>  claimedDirs     = new HashSet<>(); // of live stores, guarded by itself
+    private final File             dir;
+    private final Consumer<String> errorHandler;
+    private final long             segmentSize;
+    private final long             maxSize;
+    private final List<Segment>    segments    = new ArrayList<>(); // oldest first
+    private final ByteBuffer       writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private       FileChannel      channel;    // of the last segment, null when not open
+    private       long             totalSize;
+    private       int              segmentNumber;
+    private       boolean          disabled;   // after a write error or close
+
+    /** Lines of a single segment file */
+    private static final class Segment {
+        final File   file;
+        long         size;
+        int          lineCount;
+        long[]       indices = new long[16]; // of every SPARSE_INTERVAL-th line
+        long[]       times   = new long[16];
+        long[]       offsets = new long[16];
+        int          entryCount;
+        Segment(File file) { this.file = file; }
+
+        void addEntry(long index, long time, long offset) {
+            if(entryCount == indices.length) {
+                indices = Arrays.copyOf(indices, entryCount * 2);
+                times   = Arrays.copyOf(times,   entryCount * 2);
+                offsets = Arrays.copyOf(offsets, entryCount * 2);
+            }
+            indices[entryCount] = index;
+            times  [entryCount] = time;
+            offsets[entryCount] = offset;
+            entryCount++;
+        }
+        int linesOfEntry(int entry) {
+            return Math.min(SPARSE_INTERVAL, lineCount - entry * SPARSE_INTERVAL);
+        }
+    }
+
+    OutputStore(File dir, long segmentSize, long maxSize, Consumer<String> errorHandler) {
+        this.dir = claim(dir);
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.errorHandler = errorHandler;
+        deleteSegmentFiles(); // of a previous run, as the directory wasn't claimed
+    }
+
+    /** Name for the directory of a service: its name made file-safe plus a hash of the name, so
+      * names that only differ in unsafe characters (like "a b" and "a_b") don't share a directory.
+      */
+    static String dirNameOf(String serviceName) {
+        return serviceName.replaceAll("[^\\w.-]", "_") + "-" + String.format("%08x", serviceName.hashCode());
+    }
+
+    private static File claim(File dir) {
+        synchronized(claimedDirs) {
+            File free = dir.getAbsoluteFile();
+            for(int i=2; !claimedDirs.add(free); i++) free = new File(dir.getAbsoluteFile().getPath() + "-" + i);
+            return free;
+        }
+    }
+
+    File getDir() { return dir; }
+    synchronized boolean isDisabled() { return disabled; }
+
+    synchronized void append(LineInfo line) {
+        if(disabled) return;
+        final byte[] text = line.text == null ? new byte[0] : line.text.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = HEADER_SIZE + text.length;
+        try {
+            Segment segment = segments.isEmpty() || channel == null ? null : segments.get(segments.size() - 1);
+            if(segment == null || (segment.size > 0 && segment.size + recordSize > segmentSize)) segment = startSegment();
+            if(segment.lineCount % SPARSE_INTERVAL == 0) segment.addEntry(line.index, line.time, segment.size);
+
+            if(recordSize > writeBuffer.remaining()) flush();
+            final boolean isLarge = recordSize > writeBuffer.capacity();
+            final ByteBuffer buffer = isLarge ? ByteBuffer.allocate(recordSize) : writeBuffer;
+            buffer.putInt(recordSize - 4)
+                  .putLong(line.index)
+                  .putLong(line.time)
+                  .put((byte)line.type.ordinal())
+                  .put((byte)line.severity.ordinal())
+                  .put(text);
+            if(isLarge) write((ByteBuffer)buffer.flip());
+
+            segment.size += recordSize;
+            segment.lineCount++;
+            totalSize += recordSize;
+        } catch(final IOException e) {
+            disable("Unable to write output history in " + dir.getAbsolutePath() + " -- history is no longer stored: " + e);
+        }
+    }
+
+    private void disable(String message) {
+        disabled = true;
+        closeChannel();
+        errorHandler.accept(message);
+    }
+
+    /** Returns at most maxCount of the newest lines with an index before the given index, oldest first */
+    synchronized List<LineInfo> getBefore(long beforeIndex, int maxCount) {
+        if(maxCount <= 0) return new ArrayList<>();
+        int seg = segments.size() - 1;
+        while(seg >= 0 && (segments.get(seg).entryCount == 0 || segments.get(seg).indices[0] >= beforeIndex)) seg--;
+        if(seg < 0) return new ArrayList<>();
+        int entry = segments.get(seg).entryCount - 1;
+        while(segments.get(seg).indices[entry] >= beforeIndex) entry--;
+
+        // Step back until the entries before the one holding beforeIndex contain enough lines
+        for(int available = 0; available < maxCount;) {
+            if(entry > 0) entry--;
+            else if(seg > 0 && segments.get(seg - 1).entryCount > 0) { seg--; entry = segments.get(seg).entryCount - 1; }
+            else break;
+            available += segments.get(seg).linesOfEntry(entry);
+        }
+
+        final Deque<LineInfo> lines = new ArrayDeque<>();
+        read(seg, entry, line -> {
+            if(line.index >= beforeIndex) return false;
+            if(lines.size() == maxCount) lines.removeFirst();
+            lines.addLast(line);
+            return true;
+        });
+        return new ArrayList<>(lines);
+    }
+
+    /** Returns at most maxCount of the oldest lines with a time (epoch ms) of at least fromTime, oldest first */
+    synchronized List<LineInfo> getFrom(long fromTime, int maxCount) {
+        final List<LineInfo> lines = new ArrayList<>();
+        if(maxCount <= 0 || segments.isEmpty()) return lines;
+        int seg = 0;
+        int entry = 0;
+        for(int s=0; s<segments.size(); s++) { // start at the last entry before fromTime
+            final Segment segment = segments.get(s);
+            for(int e=0; e<segment.entryCount && segment.times[e] < fromTime; e++) { seg = s; entry = e; }
+        }
+        read(seg, entry, line -> {
+            if(line.time >= fromTime) lines.add(line);
+            return lines.size() < maxCount;
+        });
+        return lines;
+    }
+
+    synchronized int getLineCount() {
+        return segments.stream().mapToInt(s -> s.lineCount).sum();
+    }
+    synchronized long getSize() { return totalSize; }
+
+    synchronized void clear() {
+        closeChannel();
+        deleteSegmentFiles();
+    }
+
+    /** Stops storing and releases the directory (the files remain until the next store for it is created).
+      * Lines appended after closing are ignored.
+      */
+    @Override
+    public synchronized void close() {
+        disabled = true;
+        closeChannel();
+        synchronized(claimedDirs) { claimedDirs.remove(dir); }
+    }
+
+    private Segment startSegment() throws IOException {
+        closeChannel();
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create directory");
+        final Segment segment = new Segment(new File(dir, String.format("%08d", ++segmentNumber) + EXTENSION));
+        channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        segments.add(segment);
+        while(totalSize > maxSize && segments.size() > 1) {
+            final Segment oldest = segments.remove(0);
+            totalSize -= oldest.size;
+            oldest.file.delete();
+        }
+        return segment;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        write(writeBuffer);
+        writeBuffer.clear();
+    }
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /** Calls the handler with each line from the given sparse entry on, until it returns false */
+    private void read(int firstSegment, int firstEntry, Predicate<LineInfo> handler) {
+        try {
+            if(channel != null) flush();
+            for(int seg = firstSegment; seg < segments.size(); seg++) {
+                final Segment segment = segments.get(seg);
+                final long start = seg == firstSegment && segment.entryCount > 0 ? segment.offsets[firstEntry] : 0;
+                try(final FileInputStream fin = new FileInputStream(segment.file)) {
+                    fin.getChannel().position(start);
+                    final DataInputStream in = new DataInputStream(new BufferedInputStream(fin, BUFFER_SIZE));
+                    for(long offset = start; offset < segment.size;) {
+                        final int length = in.readInt();
+                        final long index = in.readLong();
+                        final long time = in.readLong();
+                        final LineType type = LINE_TYPES[in.readByte()];
+                        final Severity severity = SEVERITIES[in.readByte()];
+                        final byte[] text = new byte[length - (HEADER_SIZE - 4)];
+                        in.readFully(text);
+                        offset += 4 + length;
+                        if(!handler.test(new LineInfo(index, time, type, severity, new String(text, StandardCharsets.UTF_8)))) return;
+                    }
+                }
+            }
+        } catch(final IOException e) {
+            if(!disabled) disable("Unable to read output history in " + dir.getAbsolutePath() + " -- history is no longer stored: " + e);
+        }
+    }
+
+    private void closeChannel() {
+        if(channel == null) return;
+        try {
+            flush();
+        } catch(final IOException e) {
+            if(!disabled) e.printStackTrace();
+        }
+        try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+        channel = null;
+        writeBuffer.clear();
+    }
+
+    private void deleteSegmentFiles() {
+        segments.clear();
+        totalSize = 0;
+        final File[] files = dir.listFiles((d, name) -> name.endsWith(EXTENSION));
+        if(files != null) for(final File file : files) file.delete();
+    }
+}
@@ -0,0 +1,121 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.Constants;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/** Keeps track of which websocket (STOMP) sessions watch the output of which services.<br><br>
+  *
+  * Each service has its own output destination (MSG_TOPIC_PROCESS_OUTPUT + uid, plus the suffix of
+  * the wire format), so the broker only delivers lines to the sessions subscribed to it. The logger
+  * of a service only serializes and sends lines while at least one session is subscribed, and only
+  * in the subscribed formats. Multiple clients can watch different services (or the same one)
+  * without interfering.<br><br>
+  *
+  * Subscriptions are counted per logger, because a logger is kept when the configuration is reloaded
+  * while the service (and its uid) is replaced. Subscriptions to other destinations are only counted
+  * per destination, see isSubscribed() and getSubscriptionCount().
+  */
+public class OutputSubscriptions {
+    private final SimpMessagingTemplate                msgTemplate;
+    private final IntFunction<Optional<Service>>       serviceOfUid;
+    private final Map<String,Map<String,Subscription>> sessions          = new HashMap<>(); // session id -> subscription id -> subscription
+    private final Map<ServiceLogger,int[]>             watcherCounts     = new HashMap<>(); // per WireFormat ordinal
+    private final Map<String,Integer>                  destinationCounts = new HashMap<>();
+
+    private static final class Subscription {
+        final String        destination;
+        final ServiceLogger logger; // null when not a service output destination
+        final WireFormat    format;
+        Subscription(String destination, ServiceLogger logger) {
+            this.destination = destination;
+            this.logger = logger;
+            this.format = WireFormat.of(destination);
+        }
+    }
+
+    public OutputSubscriptions(SimpMessagingTemplate msgTemplate) {
+        this(msgTemplate, Services::get);
+    }
+    OutputSubscriptions(SimpMessagingTemplate msgTemplate, IntFunction<Optional<Service>> serviceOfUid) {
+        this.msgTemplate = msgTemplate;
+        this.serviceOfUid = serviceOfUid;
+    }
+
+    /** Returns false when the destination is not the output of an existing service (which is only counted) */
+    public synchronized boolean subscribe(String sessionId, String subscriptionId, String destination) {
+        if(sessionId == null || subscriptionId == null || destination == null) return false;
+        final Optional<Service> service = serviceOf(destination);
+        final Subscription subscription = new Subscription(destination, service.map(s -> s.logger).orElse(null));
+
+        final Subscription old = sessions.computeIfAbsent(sessionId, id -> new HashMap<>()).put(subscriptionId, subscription);
+        if(old != null) remove(old); // subscription id reused
+        destinationCounts.merge(destination, 1, Integer::sum);
+        if(subscription.logger != null) {
+            watcherCounts.computeIfAbsent(subscription.logger, logger -> new int[WireFormat.values().length])[subscription.format.ordinal()]++;
+            updateMessaging(subscription.logger);
+        }
+        return service.isPresent();
+    }
+
+    public synchronized void unsubscribe(String sessionId, String subscriptionId) {
+        final Map<String,Subscription> subscriptions = sessions.get(sessionId);
+        if(subscriptions == null) return;
+        final Subscription subscription = subscriptions.remove(subscriptionId);
+        if(subscription != null) remove(subscription);
+        if(subscriptions.isEmpty()) sessions.remove(sessionId);
+    }
+
+    public synchronized void disconnect(String sessionId) {
+        final Map<String,Subscription> subscriptions = sessions.remove(sessionId);
+        if(subscriptions != null) subscriptions.values().forEach(this::remove);
+    }
+
+    /** Number of subscriptions to the output of the service */
+    public synchronized int getWatcherCount(Service service) {
+        final int[] counts = watcherCounts.get(service.logger);
+        return counts == null ? 0 : counts[WireFormat.JSON.ordinal()] + counts[WireFormat.COMPACT.ordinal()];
+    }
+
+    /** True when some session is subscribed to the destination */
+    public synchronized boolean isSubscribed(String destination) {
+        return destinationCounts.containsKey(destination);
+    }
+
+    /** Number of subscriptions to the destination */
+    public synchronized int getSubscriptionCount(String destination) {
+        return destinationCounts.getOrDefault(destination, 0);
+    }
+
+    private void remove(Subscription subscription) {
+        destinationCounts.computeIfPresent(subscription.destination, (destination, count) -> count > 1 ? count - 1 : null);
+        final int[] counts = subscription.logger == null ? null : watcherCounts.get(subscription.logger);
+        if(counts == null) return;
+        counts[subscription.format.ordinal()]--;
+        updateMessaging(subscription.logger);
+    }
+
+    private void updateMessaging(ServiceLogger logger) {
+        final int[] counts = watcherCounts.get(logger);
+        final Set<WireFormat> formats = EnumSet.noneOf(WireFormat.class);
+        for(final WireFormat format : WireFormat.values()) if(counts[format.ordinal()] > 0) formats.add(format);
+        if(formats.isEmpty()) watcherCounts.remove(logger);
+        logger.setMessaging(formats.isEmpty() ? null : msgTemplate, formats);
+    }
+
+    private Optional<Service> serviceOf(String destination) {
+        final String topic = WireFormat.topicOf(destination);
+        if(!topic.startsWith(Constants.MSG_TOPIC_PROCESS_OUTPUT)) return Optional.empty();
+        try {
+            return serviceOfUid.apply(Integer.parseInt(topic.substring(Constants.MSG_TOPIC_PROCESS_OUTPUT.length())));
+        } catch(final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+}
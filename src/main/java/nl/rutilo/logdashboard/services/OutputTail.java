@@ -0,0 +1,242 @@
+package nl.rutilo.logdashboard.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.rutilo.logdashboard.Constants;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/** Streams the output lines of a service to an http client (like 'tail -f') as Server-Sent Events or
+  * newline delimited JSON.<br><br>
+  *
+  * Each connection has a bounded queue of lines. The publish stage of the logger only adds to that queue,
+  * a shared pool does the (possibly blocking) sending. When the client does not keep up and the queue is
+  * full, the slow consumer policy decides: drop the oldest queued lines (the client is told how many
+  * were dropped) or disconnect.<br><br>
+  *
+  * At the start, live lines are held back until the backlog is queued, and then only those newer than
+  * the backlog are queued. So lines published while the backlog is read are neither lost nor doubled.
+  */
+public class OutputTail {
+    public enum Format { SSE, NDJSON }
+    public enum SlowConsumerPolicy { DROP_OLDEST, DISCONNECT;
+        public static Optional<SlowConsumerPolicy> of(String name) {
+            final String normalized = name == null ? "" : name.replaceAll("([a-z])([A-Z])", "$1_$2").replace('-', '_').toUpperCase(Locale.US);
+            for(final SlowConsumerPolicy policy : values()) if(policy.name().equals(normalized)) return Optional.of(policy);
+            return Optional.empty();
+        }
+    }
+    public static final  MediaType                NDJSON          = MediaType.parseMediaType("application/x-ndjson");
+    private static final long                     HEARTBEAT_MS    = 15_000;
+    private static final int                      MAX_BATCH_SIZE  = 1000;
+    private static final ObjectMapper             json            = new ObjectMapper();
+    private static final Set<OutputTail>          tails           = ConcurrentHashMap.newKeySet();
+    private static final AtomicInteger            threadCount     = new AtomicInteger();
+    private static final ExecutorService          senders         = Executors.newCachedThreadPool(r -> daemon(r, "Output-Tail-" + threadCount.incrementAndGet()));
+    private static final ScheduledExecutorService heartbeats      = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Output-Tail-Heartbeat"));
+    private static volatile int                   defaultCapacity = Constants.DEFAULT_TAIL_BUFFER_SIZE;
+    private static volatile SlowConsumerPolicy    defaultPolicy   = SlowConsumerPolicy.DROP_OLDEST;
+
+    private final ServiceLogger        logger;
+    private final Format               format;
+    private final ResponseBodyEmitter  emitter;
+    private final int                  capacity;
+    private final SlowConsumerPolicy   policy;
+    private final Consumer<LineInfo>   listener     = this::offer;
+    private final ArrayDeque<LineInfo> queue        = new ArrayDeque<>(); // guarded by this
+    private       ArrayDeque<LineInfo> heldBack     = new ArrayDeque<>(); // live lines until the backlog is queued, then null
+    private       long                 lastIndex    = -1; // of the last line queued
+    private       int                  dropped;      // since the last send
+    private       boolean              sending;      // true while a sender drains the queue
+    private       boolean              heartbeatDue;
+    private volatile long              lastSendTime = System.currentTimeMillis();
+    private volatile boolean           closed;
+
+    static {
+        heartbeats.scheduleWithFixedDelay(OutputTail::checkHeartbeats, HEARTBEAT_MS, HEARTBEAT_MS / 3, TimeUnit.MILLISECONDS);
+    }
+    private static Thread daemon(Runnable r, String name) {
+        final Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** Default buffer size and policy for connections that do not specify them */
+    public static void setDefaults(int bufferSize, SlowConsumerPolicy policy) {
+        defaultCapacity = Math.max(1, bufferSize);
+        defaultPolicy = policy;
+    }
+
+    /** Starts streaming the output of the service to the emitter. First sends the lines after sinceIndex
+      * when given (e.g. from a Last-Event-ID on reconnect), otherwise the last backlog lines. When more
+      * than the buffer size of lines came after sinceIndex, the newest are sent after a dropped event.
+      */
+    public static OutputTail start(Service service, ResponseBodyEmitter emitter, Format format,
+                                   Optional<Long> sinceIndex, int backlog,
+                                   Optional<Integer> bufferSize, Optional<SlowConsumerPolicy> policy) {
+        final OutputTail tail = new OutputTail(service.logger, emitter, format,
+            Math.max(1, Math.min(bufferSize.orElse(defaultCapacity), Constants.MAX_TAIL_BUFFER_SIZE)), policy.orElse(defaultPolicy));
+        emitter.onCompletion(tail::close);
+        emitter.onTimeout(tail::close);
+        emitter.onError(error -> tail.close());
+        tails.add(tail);
+
+        service.logger.addTailListener(tail.listener); // before reading the buffer, live lines are held back
+        final List<LineInfo> initial;
+        int skipped = 0;
+        if(sinceIndex.isPresent()) {
+            initial = service.logger.getRange(sinceIndex.get(), Long.MAX_VALUE, tail.capacity, /*newest=*/true);
+            if(!initial.isEmpty()) skipped = service.logger.countBuffered(sinceIndex.get(), initial.get(0).index);
+        } else {
+            initial = service.logger.getRange(-1, Long.MAX_VALUE, Math.max(0, backlog), /*newest=*/true);
+        }
+        tail.startLive(initial, skipped);
+        return tail;
+    }
+
+    private OutputTail(ServiceLogger logger, ResponseBodyEmitter emitter, Format format, int capacity, SlowConsumerPolicy policy) {
+        this.logger = logger;
+        this.emitter = emitter;
+        this.format = format;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    public static int getConnectionCount() { return tails.size(); }
+    public boolean isClosed() { return closed; }
+
+    /** Queues the backlog, then the live lines that were held back and are newer than the backlog */
+    private synchronized void startLive(List<LineInfo> backlog, int skipped) {
+        final ArrayDeque<LineInfo> live = heldBack;
+        heldBack = null;
+        dropped += skipped;
+        backlog.forEach(this::enqueue);
+        live.forEach(this::enqueue); // skips the ones already in the backlog by index
+        if(queue.isEmpty()) heartbeatDue = true; // so the client knows the stream started
+        scheduleSend();
+    }
+
+    private synchronized void offer(LineInfo line) {
+        if(heldBack == null) {
+            enqueue(line);
+            return;
+        }
+        if(heldBack.size() >= capacity) {
+            heldBack.removeFirst();
+            dropped++;
+        }
+        heldBack.addLast(line);
+    }
+
+    private void enqueue(LineInfo line) { // synchronized
+        if(closed || line.index <= lastIndex) return;
+        lastIndex = line.index;
+        if(queue.size() >= capacity) {
+            if(policy == SlowConsumerPolicy.DISCONNECT) {
+                closed = true;
+                logger.removeTailListener(listener);
+                senders.execute(this::close); // completing may wait for a blocked send
+                return;
+            }
+            queue.removeFirst();
+            dropped++;
+        }
+        queue.addLast(line);
+        scheduleSend();
+    }
+
+    private synchronized void sendHeartbeat() {
+        heartbeatDue = true;
+        scheduleSend();
+    }
+
+    private void scheduleSend() { // synchronized
+        if(!sending && !closed) {
+            sending = true;
+            senders.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while(true) {
+            final List<LineInfo> lines = new ArrayList<>();
+            final int droppedCount;
+            final boolean heartbeat;
+            synchronized(this) {
+                while(lines.size() < MAX_BATCH_SIZE && !queue.isEmpty()) lines.add(queue.removeFirst());
+                droppedCount = dropped;
+                heartbeat = heartbeatDue;
+                dropped = 0;
+                heartbeatDue = false;
+                if(closed || (lines.isEmpty() && droppedCount == 0 && !heartbeat)) { sending = false; return; }
+            }
+            try {
+                emitter.send(format(lines, droppedCount).getBytes(StandardCharsets.UTF_8), MediaType.APPLICATION_OCTET_STREAM);
+                lastSendTime = System.currentTimeMillis();
+            } catch(final IOException | IllegalStateException e) { // client went away, or emitter completed
+                synchronized(this) { sending = false; }
+                close();
+                return;
+            }
+        }
+    }
+
+    private String format(List<LineInfo> lines, int droppedCount) {
+        final StringBuilder sb = new StringBuilder();
+        if(droppedCount > 0) {
+            if(format == Format.SSE) sb.append("event: dropped\ndata: ").append(droppedCount).append("\n\n");
+            else                     sb.append("{\"dropped\":").append(droppedCount).append("}\n");
+        }
+        for(final LineInfo line : lines) {
+            final String lineJson;
+            try {
+                lineJson = json.writeValueAsString(line);
+            } catch(final JsonProcessingException e) {
+                throw new IllegalStateException("Unable to serialize line", e);
+            }
+            if(format == Format.SSE) sb.append("id: ").append(line.index).append("\ndata: ").append(lineJson).append("\n\n");
+            else                     sb.append(lineJson).append('\n');
+        }
+        if(sb.length() == 0) sb.append(format == Format.SSE ? ":\n\n" : "\n"); // heartbeat
+        return sb.toString();
+    }
+
+    private static void checkHeartbeats() {
+        final long now = System.currentTimeMillis();
+        for(final OutputTail tail : tails) {
+            if(now - tail.lastSendTime >= HEARTBEAT_MS) tail.sendHeartbeat(); // also detects clients that went away
+        }
+    }
+
+    public void close() {
+        synchronized(this) {
+            closed = true;
+            queue.clear();
+        }
+        logger.removeTailListener(listener);
+        if(tails.remove(this)) {
+            try {
+                emitter.complete();
+            } catch(final IllegalStateException | UnsupportedOperationException ignored) {
+                // already completed
+            }
+        }
+    }
+}
@@ -3,12 +3,14 @@ package nl.rutilo.logdashboard.services;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import nl.rutilo.logdashboard.Configuration;
 import nl.rutilo.logdashboard.Constants;
+import nl.rutilo.logdashboard.util.IOUtil;
 import nl.rutilo.logdashboard.util.StringUtil;
 import nl.rutilo.logdashboard.util.Util;
 import lombok.Data;
 
 import java.io.File;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +37,7 @@ public class Service implements Comparable {
     private String       command;
     private String       dir;
     private String       logFile;
+    private boolean      logIndex;
     private boolean      start;
     private String       startedPattern;
     private int          port;
@@ -47,9 +50,14 @@ public class Service implements Comparable {
     private String       pollInterval;
     private String       outputLogFile;
     private String       outputLogSize;
+    private Integer      outputLogCount;
+    private boolean      outputLogGzip;
+    private String       outputHistorySize;
     private boolean      errToOut;
+    private String       charset;
     private boolean      excludeFromStartAll;
     private List<String> logDeletes;
+    private Map<String,String> logLevels;
     private Map<String,String> jobs;
 
     public final int uid = serialIndex++;
@@ -138,8 +146,21 @@ public class Service implements Comparable {
         final long max = outputLogSize == null ? -1 : StringUtil.sizeToLong(outputLogSize);
         return max <= 0 ? Constants.OUTPUT_LOG_MAX_SIZE_DEFAULT : max;
     }
+    public int getOutputLogCount() { return outputLogCount == null ? 1 : Math.max(0, outputLogCount); }
+    /** Max bytes of output kept on disk for paging back past the line buffer, 0 when disabled */
+    public long getOutputHistoryMaxBytes() {
+        return outputHistorySize == null ? Constants.OUTPUT_HISTORY_SIZE_DEFAULT : Math.max(0, StringUtil.sizeToLong(outputHistorySize));
+    }
     public List<String> getDependsOn() { return dependsOn == null ? new ArrayList<>() : dependsOn; }
 
+    @JsonIgnore public Charset getOutputCharset() {
+        try {
+            return charset == null ? IOUtil.TEXT_CHARSET : Charset.forName(charset.trim());
+        } catch(final IllegalArgumentException unknownCharset) {
+            return IOUtil.TEXT_CHARSET;
+        }
+    }
+
     public int getPollIntervalMs() {
         final String text = Util.or(pollInterval, ""+Constants.DEFAULT_DETECTION_INTERVAL_MS)
                               .replaceAll("[\\s_]","")
@@ -2,57 +2,96 @@ package nl.rutilo.logdashboard.services;
 
 import nl.rutilo.logdashboard.Configuration;
 import nl.rutilo.logdashboard.Constants;
-import nl.rutilo.logdashboard.util.BTCache;
+import nl.rutilo.logdashboard.util.OutputLogWriter;
+import nl.rutilo.logdashboard.util.PipelineStage;
 import nl.rutilo.logdashboard.util.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
+/** Handles the output lines of a service. Lines go through a staged pipeline so the thread that reads the
+  * output of a process only has to enqueue the line. Each stage has its own bounded queue:<ul>
+  *   <li>ingest: cleaning, classification, line buffer and state detection (in line order)
+  *   <li>persist: writing to the output log file and the on-disk output history
+  *   <li>publish: sending to the client
+  * </ul>When a queue is full the stage before it waits, up to the process reader (which stalls the process).
+  */
 public class ServiceLogger {
-    private final        LinkedList<LineInfo> lineBuffer            = new LinkedList<>();
-    private final static int                  MAX_OUTPUT_LINE_COUNT = Configuration.MAX_OUTPUT_LINE_COUNT;
-    private final        Logger               logger                = LoggerFactory.getLogger(this.getClass());
-    private final        Object               msgSync               = new Object();
-    private final static BTCache<String,Pattern> regexCache         = new BTCache<String,Pattern>()
-                                                                        .setBuilder(Pattern::compile)
-                                                                        .setMaxCount(100);
-
-    protected      Service               service;
-    private        SimpMessagingTemplate msgTemplate; // nullable
-    private static int                   lineIndex  = 0;
+    private final static int                     MAX_OUTPUT_LINE_COUNT = Configuration.MAX_OUTPUT_LINE_COUNT;
+    private final        LineBuffer              lineBuffer            = new LineBuffer(MAX_OUTPUT_LINE_COUNT);
+    private final        Logger                  logger                = LoggerFactory.getLogger(this.getClass());
+    private final        OutputBatcher           outputBatcher         = new OutputBatcher(this::sendOutput, () -> batchWindowMs, () -> batchMaxCount);
+    private final        PipelineStage<Runnable> ingestStage           = new PipelineStage<>("ingest",  Constants.PIPELINE_QUEUE_SIZE, Runnable::run);
+    private final        PipelineStage<Runnable> persistStage          = new PipelineStage<>("persist", Constants.PIPELINE_QUEUE_SIZE, Runnable::run);
+    private final        PipelineStage<Runnable> publishStage          = new PipelineStage<>("publish", Constants.PIPELINE_QUEUE_SIZE, Runnable::run);
+    private static volatile int                  batchWindowMs         = Constants.DEFAULT_OUTPUT_BATCH_MS;
+    private static volatile int                  batchMaxCount         = Constants.DEFAULT_OUTPUT_BATCH_SIZE;
+
+    protected            Service                 service;
+    private volatile     SimpMessagingTemplate   msgTemplate; // nullable
+    private volatile     Set<WireFormat>         formats       = EnumSet.noneOf(WireFormat.class);
+    private volatile     LineClassifier          classifier; // null until first use or (re)configuration
+    private volatile     OutputStore             history;    // null until the first line, or when disabled
+    private              String                  historyKey; // directory and sizes of history, ingest stage only
+    private final        Set<Consumer<LineInfo>> tailListeners = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong              lineIndex  = new AtomicLong(); // cursor, increasing in ingest order
 
     public enum LineType { WAITING, OUT, ERROR, INIT_ERROR, OTHER }
+    public enum Severity { NONE, WARN, ERROR, FATAL }
 
     public static class LineInfo {
-        public final int index;
+        public final long index;
         public final long time;
         public final LineType type;
         public final String text;
+        public final Severity severity;
         public final boolean replaces;
         public LineInfo(LineType type, String text) { this(type, text, false); }
         public LineInfo(LineType type, String text, boolean replacePrevious) {
-            this.index = lineIndex++;
-            this.time = System.currentTimeMillis();
+            this(type, text, replacePrevious, defaultSeverityOf(type));
+        }
+        public LineInfo(LineType type, String text, boolean replacePrevious, Severity severity) {
+            this(System.currentTimeMillis(), type, text, replacePrevious, severity);
+        }
+        LineInfo(long time, LineType type, String text) {
+            this(time, type, text, false, defaultSeverityOf(type));
+        }
+        LineInfo(long time, LineType type, String text, boolean replacePrevious, Severity severity) {
+            this.index = lineIndex.getAndIncrement();
+            this.time = time;
             this.type = type;
             this.text = text;
+            this.severity = severity;
             this.replaces = replacePrevious;
         }
+        LineInfo(long index, long time, LineType type, Severity severity, String text) {
+            this.index = index;
+            this.time = time;
+            this.type = type;
+            this.text = text;
+            this.severity = severity;
+            this.replaces = false;
+        }
+        private static Severity defaultSeverityOf(LineType type) {
+            return type == LineType.ERROR || type == LineType.INIT_ERROR ? Severity.ERROR : Severity.NONE;
+        }
     }
-    private static class OutputInfo {
-        public final LineInfo line;
+    static class OutputInfo {
+        public final List<LineInfo> lines;
         public final int suid;
         public final int logVelocity;
-        public OutputInfo(Service service, LineInfo line) {
-            this.line = line;
+        public OutputInfo(Service service, List<LineInfo> lines) {
+            this.lines = lines;
             this.suid = service.uid;
             this.logVelocity = service.getState().getLogVelocity();
         }
@@ -62,91 +101,217 @@ public class ServiceLogger {
     public ServiceLogger(Service service) {
         this.service = service;
     }
-    public ServiceLogger setService(Service newService) { this.service = newService; return this; }
+    public ServiceLogger setService(Service newService) {
+        this.service = newService;
+        classifier = null;
+        ingest(this::applyHistorySettings); // after a reload the history size or name may have changed
+        return this;
+    }
 
     public void clear() {
-        synchronized(lineBuffer) { lineBuffer.clear(); }
+        ingest(lineBuffer::clear);
     }
 
-    public void setMessaging(SimpMessagingTemplate msgTemplate) {
-        synchronized(msgSync) { this.msgTemplate = msgTemplate; }
+    /** Lines are only serialized and sent to the client when messaging is set, which is while
+      * some client is subscribed to the output of this service (see OutputSubscriptions), and
+      * only in the wire formats that are subscribed to.
+      */
+    public void setMessaging(SimpMessagingTemplate msgTemplate, Set<WireFormat> formats) {
+        this.formats = formats.isEmpty() ? EnumSet.noneOf(WireFormat.class) : EnumSet.copyOf(formats);
+        if(msgTemplate != this.msgTemplate) outputBatcher.discard();
+        this.msgTemplate = msgTemplate;
     }
+    boolean isMessaging() { return msgTemplate != null; }
+    boolean isMessaging(WireFormat format) { return msgTemplate != null && formats.contains(format); }
 
-    private void limit() {
-        synchronized(lineBuffer) {
-           while(lineBuffer.size() > MAX_OUTPUT_LINE_COUNT) lineBuffer.removeFirst();
-        }
+    /** The listener is called in the publish stage for each line, so should not block */
+    public void addTailListener(Consumer<LineInfo> listener) { tailListeners.add(listener); }
+    public void removeTailListener(Consumer<LineInfo> listener) { tailListeners.remove(listener); }
+
+    /** Lines sent to the client are gathered for at most windowMs or maxCount lines, whichever comes first */
+    public static void setOutputBatching(int windowMs, int maxCount) {
+        batchWindowMs = windowMs;
+        batchMaxCount = maxCount;
     }
 
 
-    private String cleanLine(String line) {
-        if(!Util.or(service.getLogDeletes(), Collections.emptyList()).isEmpty()) {
-            final String[] text = { line };
-            service.getLogDeletes().forEach(rep -> text[0] = regexCache.get(rep).matcher(text[0]).replaceAll(""));
-            return text[0];
-        }
-        return line;
+    /** Compiles the line rules of the current service configuration */
+    public void compileClassifier() {
+        final List<String> errors = new ArrayList<>();
+        classifier = LineClassifier.of(service, errors::add);
+        errors.forEach(service::logError); // after assignment, as logging classifies as well
+    }
+    private LineClassifier getClassifier() {
+        if(classifier == null) compileClassifier();
+        return classifier;
     }
 
     public void log(String outText) { handleOutLine(outText); }
     public void logError(String outText) { handleErrorLine(outText); }
-    public void logWaiting(String line) { addLine(new LineInfo(LineType.WAITING, line)); }
-    public void logOther(String line) { addLine(new LineInfo(LineType.OTHER, line)); }
+    public void logWaiting(String line) { addLine(LineType.WAITING, line); }
+    public void logOther(String line) { addLine(LineType.OTHER, line); }
+
+    /** Runs the task in order with the lines logged before it, after they were ingested */
+    public void whenIngested(Runnable task) { ingest(task); }
+
+    /** Runs the task after all output log writes queued so far (e.g. closing the output log) */
+    public void whenPersisted(Runnable task) { persistStage.put(task); }
+
+    public List<PipelineStage.Metrics> getPipelineMetrics() {
+        return Arrays.asList(ingestStage.getMetrics(), persistStage.getMetrics(), publishStage.getMetrics());
+    }
+    public boolean isPipelineIdle() {
+        return ingestStage.isIdle() && persistStage.isIdle() && publishStage.isIdle();
+    }
 
-    private void addLine(LineInfo li) {
+    private void ingest(Runnable task) {
+        if(ingestStage.isDrainingThread()) task.run(); // logging while ingesting, e.g. by state detection
+        else ingestStage.put(task);
+    }
+
+    private void addLine(LineType type, String text) { // LineInfo is created when ingested, so indices are in line order
+        final long time = System.currentTimeMillis();
+        ingest(() -> ingestLine(new LineInfo(time, type, text)));
+    }
+    private void ingestLine(LineInfo li) {
         if(!li.replaces) {
-            synchronized(lineBuffer) {
-                lineBuffer.add(li);
-                limit();
-            }
+            lineBuffer.add(li);
+            final OutputStore store = getHistoryStore();
+            if(store != null) persistStage.put(() -> store.append(li));
         }
         if(li.type != LineType.OTHER && li.type != LineType.WAITING) {
-            service.getState().handleLine(li.type != LineType.OUT && li.type != LineType.INIT_ERROR,
-                li.text, li.replaces);
+            final boolean isError = li.type != LineType.OUT && li.type != LineType.INIT_ERROR;
+            service.getState().handleLine(isError, li.text, li.replaces);
+
+            final OutputLogWriter outputFile = service.getState().getOutputFile(); // file at the time of this line
+            if(outputFile != null && !li.replaces) persistStage.put(() -> outputFile.write((isError ? "!" : " ") + li.text + "\n"));
         }
-        synchronized(msgSync) {
-            if(msgTemplate != null) {
-                msgTemplate.convertAndSend(Constants.MSG_TOPIC_PROCESS_OUTPUT, new OutputInfo(service, li));
-            }
+        if(msgTemplate != null || !tailListeners.isEmpty()) publishStage.put(() -> {
+            if(msgTemplate != null) outputBatcher.add(li);
+            tailListeners.forEach(listener -> listener.accept(li));
+        });
+    }
+    private void sendOutput(List<LineInfo> lines) { // called by the batcher, which guarantees order
+        final SimpMessagingTemplate template = msgTemplate;
+        if(template == null) return;
+        final Set<WireFormat> sendFormats = formats;
+        final String topic = Constants.MSG_TOPIC_PROCESS_OUTPUT + service.uid;
+        if(sendFormats.contains(WireFormat.JSON)) template.convertAndSend(topic, new OutputInfo(service, lines));
+        if(sendFormats.contains(WireFormat.COMPACT)) template.convertAndSend(WireFormat.COMPACT.destinationOf(topic),
+            CompactEncoder.encodeOutput(service.uid, service.getState().getLogVelocity(), lines));
+    }
+
+    private OutputStore getHistoryStore() { // only called from the ingest stage
+        applyHistorySettings();
+        final long maxSize = service.getOutputHistoryMaxBytes();
+        if(history == null && maxSize > 0) {
+            final String dirName = OutputStore.dirNameOf(Util.or(service.getName(), "service-" + service.uid));
+            final long segmentSize = Math.max(64 * 1024, Math.min(Constants.OUTPUT_HISTORY_SEGMENT_SIZE, maxSize / 4));
+            history = new OutputStore(new File(Constants.OUTPUT_HISTORY_DIR, dirName), segmentSize, maxSize, service::logOther);
+            historyKey = historyKeyOf(service);
         }
+        return history;
+    }
+    private static String historyKeyOf(Service service) {
+        return OutputStore.dirNameOf(Util.or(service.getName(), "service-" + service.uid)) + "/" + service.getOutputHistoryMaxBytes();
+    }
+    /** Closes the history when the service has other history settings than it was created with */
+    private void applyHistorySettings() { // ingest stage
+        if(history != null && !historyKeyOf(service).equals(historyKey)) closeHistoryNow();
+    }
+
+    /** Closes the on-disk history, after the lines ingested before are stored. Call when the service is removed. */
+    public void closeHistory() {
+        ingest(this::closeHistoryNow);
+    }
+    private void closeHistoryNow() { // ingest stage
+        final OutputStore store = history;
+        history = null;
+        historyKey = null;
+        if(store != null) persistStage.put(store::close); // after the appends queued before
     }
 
     public List<LineInfo> getBuffer() {
-        synchronized(lineBuffer) {
-            return new ArrayList<>(lineBuffer);
-        }
+        return lineBuffer.getAll();
+    }
+    /** Returns at most maxCount lines with afterIndex &lt; index &lt; beforeIndex, oldest first. When there are more,
+      * the newest are returned when newest is true, otherwise the oldest. When paging back (newest with a
+      * beforeIndex) past the oldest line in the buffer, older lines are read from the on-disk history.
+      */
+    public List<LineInfo> getRange(long afterIndex, long beforeIndex, int maxCount, boolean newest) {
+        final List<LineInfo> lines = lineBuffer.getRange(afterIndex, beforeIndex, maxCount, newest);
+        final OutputStore store = history;
+        if(!newest || beforeIndex == Long.MAX_VALUE || lines.size() >= maxCount || store == null) return lines;
+
+        final long olderThan = lines.isEmpty() ? beforeIndex : lines.get(0).index;
+        final List<LineInfo> older = store.getBefore(olderThan, maxCount - lines.size());
+        older.removeIf(li -> li.index <= afterIndex);
+        older.addAll(lines);
+        return older;
+    }
+    /** Number of lines in the buffer (so not in the on-disk history) with afterIndex &lt; index &lt; beforeIndex */
+    public int countBuffered(long afterIndex, long beforeIndex) {
+        return lineBuffer.count(afterIndex, beforeIndex);
+    }
+    /** Returns at most maxCount of the newest stored lines with an index before the given index, oldest first */
+    public List<LineInfo> getHistoryBefore(long beforeIndex, int maxCount) {
+        final OutputStore store = history;
+        return store == null ? new ArrayList<>() : store.getBefore(beforeIndex, maxCount);
+    }
+    /** Returns at most maxCount of the oldest stored lines from the given time (epoch ms) on */
+    public List<LineInfo> getHistoryFrom(long fromTime, int maxCount) {
+        final OutputStore store = history;
+        return store == null ? new ArrayList<>() : store.getFrom(fromTime, maxCount);
+    }
+    /** Returns the newest maxCount buffered lines that match the search, oldest first */
+    public List<LineInfo> search(LineSearch search, int maxCount) {
+        return lineBuffer.search(search, maxCount);
     }
     public void clearBuffer() {
-        synchronized(lineBuffer) {
+        ingest(() -> {
             lineBuffer.clear();
-        }
-        synchronized(msgSync) {
-            if(msgTemplate != null) {
-                msgTemplate.convertAndSend(Constants.MSG_TOPIC_CLEAR_PROCESS_OUTPUT, "update");
-            }
-        }
+            final OutputStore store = history;
+            if(store != null) persistStage.put(store::clear);
+            publishStage.put(() -> {
+                outputBatcher.flush(); // lines added before the clear should arrive before the clear
+                final SimpMessagingTemplate template = msgTemplate;
+                if(template != null) template.convertAndSend(Constants.MSG_TOPIC_CLEAR_PROCESS_OUTPUT + service.uid, "update");
+            });
+        });
     }
 
     protected void handleLine(boolean isError, String line, boolean replacePrevious) {
         if(isError) handleErrorLine(line, replacePrevious);
         else        handleOutLine(line, replacePrevious);
     }
+    /** Like handleLine, but returns false instead of waiting when the ingest queue is full */
+    boolean offerLine(boolean isError, String line, boolean replacePrevious) {
+        final Runnable task = isError ? errorLineTask(line, replacePrevious) : outLineTask(line, replacePrevious);
+        if(ingestStage.isDrainingThread()) { task.run(); return true; }
+        return ingestStage.offer(task);
+    }
 
-    protected void handleOutLine(String line) { handleOutLine(cleanLine(line), /*replacePrevious=*/false); }
-    protected void handleOutLine(String line, boolean replacePrevious) {
-        if (line.matches("^(\\w+\\.){1,}\\w+Exception: .*$")
-         || line.matches("^\\tat \\w+\\..*$")
-         || line.matches("^(Caused|Wrapped) by: (\\w+\\.){2,}.*$")
-         || line.matches("^\\t... \\d+ more$")
-         || line.startsWith("[ERROR]")) {
-            addLine(new LineInfo(LineType.ERROR, cleanLine(line), replacePrevious));
-        } else{
-            addLine(new LineInfo(LineType.OUT, cleanLine(line), replacePrevious));
-        }
+    protected void handleOutLine(String line) { handleOutLine(line, /*replacePrevious=*/false); }
+    protected void handleOutLine(String line, boolean replacePrevious) { ingest(outLineTask(line, replacePrevious)); }
+    private Runnable outLineTask(String line, boolean replacePrevious) {
+        final long time = System.currentTimeMillis();
+        return () -> {
+            final LineClassifier lineClassifier = getClassifier();
+            final String text = lineClassifier.clean(line);
+            final Severity severity = lineClassifier.classify(text);
+            ingestLine(new LineInfo(time, severity.compareTo(Severity.ERROR) >= 0 ? LineType.ERROR : LineType.OUT, text, replacePrevious, severity));
+        };
     }
-    protected void handleErrorLine(String line) { handleErrorLine(cleanLine(line), /*replacePrevious=*/false); }
-    protected void handleErrorLine(String line, boolean replacePrevious) {
-        addLine(new LineInfo(LineType.ERROR, cleanLine(line), replacePrevious));
+    protected void handleErrorLine(String line) { handleErrorLine(line, /*replacePrevious=*/false); }
+    protected void handleErrorLine(String line, boolean replacePrevious) { ingest(errorLineTask(line, replacePrevious)); }
+    private Runnable errorLineTask(String line, boolean replacePrevious) {
+        final long time = System.currentTimeMillis();
+        return () -> {
+            final LineClassifier lineClassifier = getClassifier();
+            final String text = lineClassifier.clean(line);
+            final Severity severity = lineClassifier.classify(text);
+            ingestLine(new LineInfo(time, LineType.ERROR, text, replacePrevious, severity == Severity.FATAL ? Severity.FATAL : Severity.ERROR));
+        };
     }
 
     void error(String errorText) { error(errorText, null); }
@@ -155,10 +320,10 @@ public class ServiceLogger {
 
         logger.error(errorText, e);
 
-        addLine(new LineInfo(LineType.INIT_ERROR, errorText));
+        addLine(LineType.INIT_ERROR, errorText);
         if (e != null && e.getMessage() != null) {
-            addLine(new LineInfo(LineType.INIT_ERROR, e.getMessage()));
+            addLine(LineType.INIT_ERROR, e.getMessage());
         }
-        service.getState().setInitFailed();
+        whenIngested(() -> service.getState().setInitFailed());
     }
 }
@@ -0,0 +1,128 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.Service.LocationType;
+import nl.rutilo.logdashboard.util.Util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/** Immutable snapshot of the configured services, with indexes by name, uid, group, location type
+  * and jar location so lookups don't have to scan the list. When the configuration is reloaded a
+  * new snapshot (with a higher version) replaces the old one as a whole, so readers always see a
+  * complete list. diffFrom() tells which services were added, removed or changed between two snapshots.
+  */
+public final class ServiceRegistry {
+    private static final List<Field> configurationFields = Arrays.stream(Service.class.getDeclaredFields())
+        .filter(field -> {
+            final int mods = field.getModifiers();
+            return Modifier.isPrivate(mods) && !Modifier.isStatic(mods) && !Modifier.isFinal(mods)
+                && !field.getName().matches("^(port|fileLocation|locationType)$"); // set while running
+        })
+        .peek(field -> field.setAccessible(true))
+        .collect(Collectors.toList());
+
+    public  final long                               version;
+    private final List<Service>                      services;
+    private final Map<String,Service>                byName         = new HashMap<>();
+    private final Map<Integer,Service>               byUid          = new HashMap<>();
+    private final Map<String,List<Service>>          byGroup        = new HashMap<>();
+    private final Map<LocationType,List<Service>>    byLocationType = new EnumMap<>(LocationType.class);
+    private final Map<String,Service>                jarByLocation  = new HashMap<>();
+
+    /** Services that differ between two snapshots */
+    public static class Diff {
+        public final long          fromVersion;
+        public final long          toVersion;
+        public final List<Service> added;    // no service like it in the old snapshot
+        public final List<Service> removed;  // no service like it in the new snapshot
+        public final List<Service> changed;  // new services of which the configuration changed
+        Diff(long fromVersion, long toVersion, List<Service> added, List<Service> removed, List<Service> changed) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.changed = Collections.unmodifiableList(changed);
+        }
+        public boolean isEmpty() { return added.isEmpty() && removed.isEmpty() && changed.isEmpty(); }
+        public String toString() {
+            return "added: " + namesOf(added) + ", removed: " + namesOf(removed) + ", changed: " + namesOf(changed);
+        }
+        private static List<String> namesOf(List<Service> services) {
+            return services.stream().map(Service::getName).collect(Collectors.toList());
+        }
+    }
+
+    public static ServiceRegistry of(List<Service> services) { return new ServiceRegistry(1, services); }
+
+    private ServiceRegistry(long version, List<Service> services) {
+        this.version = version;
+        this.services = Collections.unmodifiableList(new ArrayList<>(services));
+        for(final Service service : this.services) {
+            byName.putIfAbsent(Util.or(service.getName(), ""), service);
+            byUid.put(service.uid, service);
+            if(service.getGroup() != null) byGroup.computeIfAbsent(service.getGroup(), group -> new ArrayList<>()).add(service);
+            byLocationType.computeIfAbsent(service.getLocationType(), type -> new ArrayList<>()).add(service);
+            if(service.getLocationType() == LocationType.JAR) jarByLocation.putIfAbsent(Util.or(service.getLocation(), ""), service);
+        }
+    }
+
+    /** Snapshot with the next version */
+    public ServiceRegistry withServices(List<Service> newServices) {
+        return new ServiceRegistry(version + 1, newServices);
+    }
+
+    public List<Service> getAll() { return services; }
+    public int size() { return services.size(); }
+
+    public Optional<Service> get(String name) { return Optional.ofNullable(byName.get(Util.or(name, ""))); }
+    public Optional<Service> get(int uid) { return Optional.ofNullable(byUid.get(uid)); }
+
+    public List<Service> getGroup(String group) {
+        return group == null ? Collections.emptyList() : Collections.unmodifiableList(byGroup.getOrDefault(group, Collections.emptyList()));
+    }
+    public List<Service> getOfLocationType(LocationType type) {
+        return Collections.unmodifiableList(byLocationType.getOrDefault(type, Collections.emptyList()));
+    }
+
+    /** The service with the same name or else, for jars, with the same location */
+    public Optional<Service> getLike(Service like) {
+        final Service byNameFound = byName.get(Util.or(like.getName(), ""));
+        if(byNameFound != null || like.getLocationType() != LocationType.JAR) return Optional.ofNullable(byNameFound);
+        return Optional.ofNullable(jarByLocation.get(Util.or(like.getLocation(), "")));
+    }
+
+    public Diff diffFrom(ServiceRegistry old) {
+        final List<Service> added = new ArrayList<>();
+        final List<Service> changed = new ArrayList<>();
+        final Map<Service,Boolean> matched = new java.util.IdentityHashMap<>();
+        for(final Service service : services) {
+            final Optional<Service> oldService = old.getLike(service);
+            if(!oldService.isPresent()) { added.add(service); continue; }
+            matched.put(oldService.get(), true);
+            if(!hasSameConfiguration(oldService.get(), service)) changed.add(service);
+        }
+        final List<Service> removed = old.services.stream().filter(service -> !matched.containsKey(service)).collect(Collectors.toList());
+        return new Diff(old.version, version, added, removed, changed);
+    }
+
+    static boolean hasSameConfiguration(Service a, Service b) {
+        for(final Field field : configurationFields) {
+            try {
+                if(!Objects.equals(field.get(a), field.get(b))) return false;
+            } catch(final IllegalAccessException e) {
+                return false; // accessible was set
+            }
+        }
+        return true;
+    }
+}
@@ -1,11 +1,11 @@
 package nl.rutilo.logdashboard.services;
 
 import nl.rutilo.logdashboard.Configuration;
+import nl.rutilo.logdashboard.util.MappedLineIndex;
 import nl.rutilo.logdashboard.util.StringUtil;
 import nl.rutilo.logdashboard.util.Util;
 
 import java.io.File;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -16,7 +16,6 @@ import static nl.rutilo.logdashboard.services.Service.LocationType.*;
 
 public class ServiceRunner {
     protected            Service                    service;
-    private              Thread                     extLoopThread;
     private              Thread                     logLoopThread;
     private              Optional<ServiceRunnerCmd> runnerCmd  = Optional.empty();
     private              Optional<ServiceRunnerExt> runnerExt  = Optional.empty();
@@ -61,6 +60,11 @@ public class ServiceRunner {
         runExe(job);
     }
 
+    /** Index of the whole logFile, when the service has logIndex set and the logFile is being read */
+    public Optional<MappedLineIndex> getLogIndex() {
+        return runnerLog.flatMap(ServiceRunnerLog::getLogIndex);
+    }
+
     public void addInitialExternalMessage() {
         service.logger.logOther("This service is not running in the dashboard so can not be controlled by it. Running state display only.");
         if(service.getRestartCmd() != null) service.logger.logOther("Watchdog mode: service will be restarted when down.");
@@ -154,32 +158,33 @@ public class ServiceRunner {
                 service.logger.logOther("FAILED TO START");
                 service.getState().setInitFailed();
             })
-            .whenFinished(serviceRunnerCmd -> {
-                Util.sleep(Duration.ofMillis(100)); // in case output is being flushed -- no guarantees
-                service.logger.logOther("PROCESS FINISHED");
-                if(stopped[0]) {
-                    service.getState().stopped();
-                } else if(serviceRunnerCmd.failedToStart()) {
-                    service.getState().setInitFailed();
-                } else if(serviceRunnerCmd.exitCode().orElse(0) != 0) {
-                    service.logger.logOther("Exit code: " + serviceRunnerCmd.exitCode().orElse(0));
-                    service.getState().setExitError();
-                } else {
-                    service.getState().stopped();
-                }
-                runnerCmd = Optional.empty();
-            })
+            .whenFinished(serviceRunnerCmd -> // called after all output of the process is read
+                service.logger.whenIngested(() -> handleFinished(serviceRunnerCmd, stopped[0]))
+            )
             .start();
     }
+    private void handleFinished(ServiceRunnerCmd serviceRunnerCmd, boolean stopped) { // after output lines are handled
+        service.logger.logOther("PROCESS FINISHED");
+        if(stopped) {
+            service.getState().stopped();
+        } else if(serviceRunnerCmd.failedToStart()) {
+            service.getState().setInitFailed();
+        } else if(serviceRunnerCmd.exitCode().orElse(0) != 0) {
+            service.logger.logOther("Exit code: " + serviceRunnerCmd.exitCode().orElse(0));
+            service.getState().setExitError();
+        } else {
+            service.getState().stopped();
+        }
+        runnerCmd = Optional.empty();
+    }
     private void runExternalCheckLoop() {
-        if(extLoopThread != null && extLoopThread.isAlive()) return;
+        if(runnerExt.isPresent()) return;
         addInitialExternalMessage();
         service.getState().reset();
         service.getState().setWaiting();
 
-        extLoopThread = new Thread((runnerExt = Optional.of(new ServiceRunnerExt(service))).get());
-        extLoopThread.setDaemon(true);
-        extLoopThread.start();
+        runnerExt = Optional.of(new ServiceRunnerExt(service));
+        runnerExt.get().start();
     }
     private void runLogCheckLoop() {
         if(logLoopThread != null && logLoopThread.isAlive()) return;
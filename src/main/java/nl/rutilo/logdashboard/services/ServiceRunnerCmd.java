@@ -1,13 +1,10 @@
 package nl.rutilo.logdashboard.services;
 
-import nl.rutilo.logdashboard.Configuration;
-import nl.rutilo.logdashboard.util.LineStreamHandler;
-import nl.rutilo.logdashboard.util.Util;
+import nl.rutilo.logdashboard.util.ProcessSupervisor;
 import org.apache.tools.ant.types.Commandline;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -45,56 +42,40 @@ class ServiceRunnerCmd {
             final File dir = directory.orElseGet(runner::getRunDir);
             processBuilder.directory(dir);
 
-            process = processBuilder.start();
-            new Thread(() -> { handleStreamLines(process.getInputStream(), /*isErrors=*/false); callWhenFinished(); }).start();
-            new Thread(() -> { handleStreamLines(process.getErrorStream(), /*isErrors=*/true ); callWhenFinished(); }).start();
+            final Process proc = processBuilder.start();
+            synchronized(runner) { process = proc; }
+            final boolean errToOut = service.isErrToOut();
+            ProcessSupervisor.supervise(proc, service.getOutputCharset(), (isError, line) ->
+                runner.service.logger.offerLine(isError && !errToOut, line.text, line.replacesPreviousLine)
+            ).thenAccept(this::callWhenFinished);
             whenStarted.accept(this);
         } catch (final IOException e) {
             service.getState().setFailed("Unable to start: " + e.getMessage());
             service.logger.error("Unable to start " + name + ": " + String.join(" ", processBuilder.command()));
             failedToStart = true;
             onError.accept(e);
-            callWhenFinished();
         }
         return this;
     }
-    private void handleStreamLines(InputStream in, boolean isErrors0) {
-        final boolean isErrors = runner.service.isErrToOut() ? false : isErrors0;
-        new LineStreamHandler(in).forEach(line -> runner.service.logger.handleLine(isErrors, line.text, line.replacesPreviousLine));
-    }
 
     private void callWhenStopped() {
         whenStopped.accept(this);
     }
-    private void callWhenFinished() {
-        final Runnable finished = () -> {
-            boolean callWhenFinished = false;
-            synchronized(runner) {
-                if(process != null && !process.isAlive() && !exitCode.isPresent()) {
-                    exitCode = Optional.of(process.exitValue());
-                    process = null; // prevent multiple whenFinished calls
-                    callWhenFinished = true;
-                }
-            }
-            if(callWhenFinished) whenFinished.accept(this); // outside sync
-        };
-        final Thread t = new Thread(() -> {
-            final Process proc; synchronized(runner) { proc = process; }
-            if(proc != null) {
-                try { proc.waitFor(); } catch (final InterruptedException e) { /*interrupted*/ }
-                finished.run();
-            }
-        }, "Waiting until command-runner-process is finished");
-        t.setDaemon(true);
-        t.start();
+    /** Called by the supervisor when the process exited and its output is handled */
+    private void callWhenFinished(int exitValue) {
+        synchronized(runner) {
+            if(exitCode.isPresent()) return; // prevent multiple whenFinished calls
+            exitCode = Optional.of(exitValue);
+            process = null;
+        }
+        whenFinished.accept(this); // outside sync
     }
     public void stop() {
         synchronized(runner) {
             if(process != null && process.isAlive()) {
                 runner.service.logger.logOther("Stopping " + name);
                 callWhenStopped();
-                callWhenFinished();
-                process.destroyForcibly();
+                process.destroyForcibly(); // the supervisor calls whenFinished when the process ended
 //                new Thread(() -> {
 //                    process.destroy();
 //                    try { Thread.sleep(2500); } catch(final InterruptedException ignored) {}
@@ -1,20 +1,20 @@
 package nl.rutilo.logdashboard.services;
 
-import org.springframework.web.client.RestTemplate;
-
-import java.io.IOException;
-import java.net.Socket;
 import java.util.Optional;
 import java.util.function.Consumer;
 
-/** Running code is external to the dashboard -- this code only observes its state */
-public class ServiceRunnerExt implements Runnable {
-    private static final Object       waitObject = new Object();
-    private       Service             service;
-    private       boolean             running;
-    private       boolean             needsInitialize;
-    private final Consumer<Void>      cfgChangeConsumer = nil -> updateForNewConfiguration();
-    private       Optional<ExtRunner> runner = Optional.empty();
+/** Running code is external to the dashboard -- this code only observes its state.
+  * Checks are run by the HealthChecker, so no thread is used per external service.
+  */
+public class ServiceRunnerExt {
+    private static final int                     PROBE_TIMEOUT_MS  = 10_000;
+    private volatile     Service                 service;
+    private volatile     boolean                 running;
+    private volatile     boolean                 needsInitialize;
+    private volatile     boolean                 probing;
+    private final        Consumer<Void>          cfgChangeConsumer = nil -> updateForNewConfiguration();
+    private              Optional<ExtRunner>     runner            = Optional.empty(); // only used on the checker thread
+    private              HealthChecker.Scheduled nextCheck;
 
     public ServiceRunnerExt(Service service) {
         this.service = service;
@@ -25,28 +25,42 @@ public class ServiceRunnerExt implements Runnable {
         runner.ifPresent(r -> r.setService(service));
     }
 
-    public void run() {
+    public void start() {
         service.getState().reset();
         service.getState().setWaiting();
         running = true;
 
         Services.addConfigurationChangeListener(cfgChangeConsumer);
-
-        while(running) {
-            if(needsInitialize) {
-                needsInitialize = false;
-                initialize();
-            }
-            runner.ifPresent(ExtRunner::poll);
-            pause();
-        }
-
-        Services.removeConfigurationChangeListener(cfgChangeConsumer);
-        dispose();
+        scheduleCheck(0);
     }
     public void stop() {
         running = false;
-        awake();
+        Services.removeConfigurationChangeListener(cfgChangeConsumer);
+        HealthChecker.schedule(0, this::dispose); // on the checker thread, like all other runner access
+    }
+
+    private synchronized void scheduleCheck(long delayMs) {
+        if(nextCheck != null) nextCheck.cancel();
+        nextCheck = running ? HealthChecker.schedule(delayMs, this::check) : null;
+    }
+    private void check() { // on the checker thread
+        if(!running) return;
+        if(needsInitialize) {
+            needsInitialize = false;
+            initialize();
+        }
+        if(runner.isPresent()) {
+            probing = true;
+            runner.get().poll(PROBE_TIMEOUT_MS, () -> {
+                probing = false;
+                scheduleCheck(pauseMs());
+            });
+        } else {
+            scheduleCheck(pauseMs());
+        }
+    }
+    private int pauseMs() {
+        return runner.flatMap(ExtRunner::pauseOverride).orElse(service.getPollIntervalMs());
     }
 
     private void initialize() {
@@ -71,19 +85,7 @@ public class ServiceRunnerExt implements Runnable {
     }
     private void updateForNewConfiguration() {
         needsInitialize = true;
-        awake();
-    }
-
-    private void pause() {
-        synchronized(waitObject) {
-            try {
-                final int ms = runner.flatMap(ExtRunner::pauseOverride).orElse(service.getPollIntervalMs());
-                waitObject.wait(ms);
-            } catch(final InterruptedException ignored) { stop(); }
-        }
-    }
-    private void awake() {
-      synchronized(waitObject) { waitObject.notifyAll(); }
+        if(!probing) scheduleCheck(0); // otherwise initialized when the probe is done
     }
 }
 
@@ -98,7 +100,8 @@ abstract class ExtRunner {
         this.service = service;
     }
     void dispose() {}
-    abstract void poll();
+    /** Checks if the service is up, calling up() or down() and then whenDone (on the checker thread) */
+    abstract void poll(int timeoutMs, Runnable whenDone);
     Optional<Integer> pauseOverride() { return Optional.empty(); }
     void up() { handleDownState(false); }
     void down() { handleDownState(true); }
@@ -151,37 +154,30 @@ abstract class ExtRunner {
 }
 
 class UrlRunner extends ExtRunner {
-    private final RestTemplate restTemplate = new RestTemplate();
-    UrlRunner(Service service) {
-        super(service);
-
-        ((org.springframework.http.client.SimpleClientHttpRequestFactory)
-            restTemplate.getRequestFactory()).setReadTimeout(1000*10);
-
-        ((org.springframework.http.client.SimpleClientHttpRequestFactory)
-            restTemplate.getRequestFactory()).setConnectTimeout(1000*10);
-    }
-    @Override void poll() {
-        final String loc = service.getLocation();
-        try {
-            restTemplate.getForObject(service.getLocation(), String.class);
-            up();
-        } catch(final RuntimeException unableToAccess) {
-            down();
-        }
+    UrlRunner(Service service) { super(service); }
+    @Override void poll(int timeoutMs, Runnable whenDone) {
+        HealthChecker.probeUrl(service.getLocation(), timeoutMs, isUp -> {
+            if(isUp) up(); else down();
+            whenDone.run();
+        });
     }
 }
 class PortRunner extends ExtRunner {
     PortRunner(Service service) { super(service); }
-    @Override public void poll() {
+    @Override void poll(int timeoutMs, Runnable whenDone) {
+        final String   loc   = service.getLocation().replaceFirst("^\\s*:\\s*", "");
+        final String[] parts = loc.contains(":") ? loc.split(":") : new String[] { "localhost", loc };
+        final int      port;
         try {
-            final String   loc    = service.getLocation().replaceFirst("^\\s*:\\s*", "");
-            final String[] parts  = loc.contains(":") ? loc.split(":") : new String[] { "localhost", loc };
-            final Socket   socket = new Socket(parts[0], Integer.parseInt(parts[1]));
-            up();
-            socket.close();
-        } catch(final RuntimeException | IOException unableToAccess) {
+            port = Integer.parseInt(parts[1].trim());
+        } catch(final RuntimeException invalidPort) {
             down();
+            whenDone.run();
+            return;
         }
+        HealthChecker.probePort(parts[0], port, timeoutMs, isUp -> {
+            if(isUp) up(); else down();
+            whenDone.run();
+        });
     }
 }
@@ -1,20 +1,21 @@
 package nl.rutilo.logdashboard.services;
 
+import nl.rutilo.logdashboard.util.FileTailer;
+import nl.rutilo.logdashboard.util.MappedLineIndex;
 import nl.rutilo.logdashboard.util.Util;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static nl.rutilo.logdashboard.services.Service.LocationType.LOG;
 
 public class ServiceRunnerLog implements Runnable {
-    private static final Object              waitObject = new Object();
-    private static final int                 PAUSE_MS   = 1000;
+    private static final int                 PAUSE_MS   = 1000; // max wait when no file change is noticed
     private              Service             service;
-    private              boolean             running;
-    private              LogRunner           logRunner;
+    private volatile     boolean             running;
+    private volatile     LogRunner           logRunner;
 
     public ServiceRunnerLog(Service service) {
         this.service = service;
@@ -30,49 +31,60 @@ public class ServiceRunnerLog implements Runnable {
             service.getState().setWaiting();
         }
 
+        running = true;
         logRunner = new LogRunner(service);
         service.logger.logOther("Reading logger file: " + service.getLogFile());
 
-        running = true;
-
-        while(running) {
-            logRunner.poll();
-            pause();
+        try {
+            while(running) {
+                logRunner.poll();
+                logRunner.awaitChange(PAUSE_MS);
+            }
+        } finally {
+            logRunner.close();
         }
     }
+    public Optional<MappedLineIndex> getLogIndex() {
+        return Optional.ofNullable(logRunner).flatMap(LogRunner::getIndex);
+    }
     public void stop() {
         running = false;
-        awake();
-    }
-
-    private void pause() {
-        synchronized(waitObject) {
-            try {
-                waitObject.wait(PAUSE_MS);
-            } catch(final InterruptedException ignored) { stop(); }
-        }
-    }
-    private void awake() {
-      synchronized(waitObject) { waitObject.notifyAll(); }
+        if(logRunner != null) logRunner.stop(); // wakes up awaitChange
     }
 }
 
 class LogRunner {
-    private static final long    MAX_BLOCK_SIZE = 100 * 1024;
-    private static final String  EOL_REGEX      = "\\r\\n|\\r|\\n";
-    private              Service service;
-    private boolean              initializing   = true;
-    private long                 previousLength = -1L;
+    private static final long            MAX_BLOCK_SIZE = 100 * 1024;
+    private              Service         service;        // of the poll thread
+    private final        AtomicReference<Service> newService = new AtomicReference<>(); // reloaded, applied by the next poll
+    private volatile     FileTailer      tailer;
+    private volatile     MappedLineIndex index;          // only when service.logIndex is set
+    private boolean                      initializing   = true;
 
     public LogRunner(Service service) {
         this.service = service;
-        final Optional<RandomAccessFile> file = open();
-        Util.ifPresentOrElse(file, f -> up(), this::down);
-        file.ifPresent(LogRunner::close);
+        this.tailer = new FileTailer(getFile().toPath(), service.getOutputCharset(), MAX_BLOCK_SIZE);
+        if(tailer.exists()) up(); else down();
         initializing = false;
     }
+    /** Follows the log file and charset of the (reloaded) service. The read position is kept when the file stays the same.
+      * Called from the reload thread, so the change is handed to the poll thread, which applies it before its next read.
+      */
     public void setService(Service service) {
-        this.service = service;
+        newService.set(service);
+    }
+    private void applyNewService() { // on the poll thread
+        final Service reloaded = newService.getAndSet(null);
+        if(reloaded == null) return;
+        this.service = reloaded;
+        final FileTailer oldTailer = tailer;
+        if(oldTailer.getPath().equals(getFile().toPath())) {
+            oldTailer.setCharset(service.getOutputCharset());
+        } else {
+            tailer = new FileTailer(getFile().toPath(), service.getOutputCharset(), MAX_BLOCK_SIZE);
+            oldTailer.close();
+            closeIndex(); // opened again for the new file when it is read from the start
+        }
     }
 
     void up() { handleDownState(false); }
@@ -90,56 +102,43 @@ class LogRunner {
         }
     }
 
-    private File getFile() { return service.getLogFile().orElse(new File("!none:;")); }
-    private Optional<RandomAccessFile> open() {
-        try {
-            return Optional.of(new RandomAccessFile(getFile(), "r"));
-        } catch(final IOException e) {
-            return Optional.empty();
-        }
-    }
-    private static void close(RandomAccessFile file) {
-        try { file.close(); } catch (IOException ignored) {}
-    }
+    private File getFile() { return service.getLogFile().orElse(new File("!none")); } // toPath() fails on : in Windows
 
     void poll() {
-        final long newLength = getFile().length();
-        if(newLength < 0 || !getFile().exists()) return;
-        if(newLength != previousLength) {
-            if(previousLength < 0 || newLength < previousLength) {
-                service.logger.clearBuffer();
-                service.getRunner().addInitialExternalMessage();
-                service.logger.logOther("Reading logger file: " + service.getLogFile().map(File::getAbsolutePath).orElse("-"));
-                previousLength = load(0, newLength);
-            } else {
-                previousLength = load(previousLength, newLength);
-            }
+        applyNewService();
+        try {
+            tailer.poll(this::restart, service.logger::handleOutLine);
+            final MappedLineIndex currentIndex = index; // may be closed meanwhile by close()
+            if(currentIndex != null && !currentIndex.update()) openIndex();
+        } catch (final IOException e) {
+            service.logger.handleErrorLine("Failure to read logger file: " + Util.or(e.getMessage(), e.getClass().getSimpleName()));
         }
     }
-    private long load(long previousLength, long newLength) {
-        return open().map(reader -> {
-            final long               readSize  = Math.min(MAX_BLOCK_SIZE, newLength - previousLength);
-            final long               seekPos   = readSize == MAX_BLOCK_SIZE ? newLength - readSize : previousLength;
-            final Optional<String[]> readLines = readLinesFrom(reader, seekPos, readSize);
-            close(reader);
-
-            return readLines.map(lines -> {
-                for(int i=0; i<lines.length-1; i++) service.logger.handleOutLine(lines[i]);
-                return lines.length > 0 ? newLength - lines[lines.length-1].length() : 0L;
-            }).orElse(previousLength);
-        }).orElse(-1L);
+    /** Called when the file is read from the start: initially and after rotation or truncation */
+    private void restart() {
+        service.logger.clearBuffer();
+        service.getRunner().addInitialExternalMessage();
+        service.logger.logOther("Reading logger file: " + service.getLogFile().map(File::getAbsolutePath).orElse("-"));
+        if(service.isLogIndex()) openIndex();
     }
-    private Optional<String[]> readLinesFrom(RandomAccessFile file, long readOffset, long readLength) {
-        final byte[] buffer = new byte[(int)readLength];
+
+    private void openIndex() {
+        closeIndex();
         try {
-            file.seek(readOffset);
-            file.readFully(buffer);
-            final String lastOfLog = new String(buffer, "UTF-8");
-            return Optional.of(lastOfLog.split(EOL_REGEX, -1));
-        } catch (IOException e) {
-            e.printStackTrace();
-            service.logger.handleErrorLine("Failure to read logger file: " + Util.or(e.getMessage(), e.getClass().getSimpleName()));
-            return Optional.empty();
+            final long t0 = System.currentTimeMillis();
+            index = new MappedLineIndex(tailer.getPath(), service.getOutputCharset());
+            service.logger.logOther("Indexed " + index.getLineCount() + " lines in " + (System.currentTimeMillis() - t0) + "ms");
+        } catch (final IOException e) {
+            service.logger.handleErrorLine("Failure to index logger file: " + Util.or(e.getMessage(), e.getClass().getSimpleName()));
         }
     }
-}
\ No newline at end of file
+    private void closeIndex() {
+        if(index != null) index.close();
+        index = null;
+    }
+    Optional<MappedLineIndex> getIndex() { return Optional.ofNullable(index); }
+
+    void awaitChange(long timeoutMs) { tailer.awaitChange(timeoutMs); }
+    void stop() { tailer.close(); }
+    void close() { tailer.close(); closeIndex(); }
+}
@@ -2,16 +2,19 @@ package nl.rutilo.logdashboard.services;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import nl.rutilo.logdashboard.Constants;
-import nl.rutilo.logdashboard.util.HistoricCount;
-import nl.rutilo.logdashboard.util.LimitedSizeFile;
+import nl.rutilo.logdashboard.util.OutputLogWriter;
+import nl.rutilo.logdashboard.util.SlidingRateCounter;
 import nl.rutilo.logdashboard.util.Listeners;
 import nl.rutilo.logdashboard.util.Timer;
 import nl.rutilo.logdashboard.util.Util;
+import nl.rutilo.logdashboard.util.WheelTimer;
 import lombok.Data;
 
 import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -24,17 +27,19 @@ import static nl.rutilo.logdashboard.services.ServiceState.State.*;
 public class ServiceState implements Comparable {
     @JsonIgnore private Service service;
     @JsonIgnore private final Listeners<ServiceState> listeners = new Listeners<ServiceState>().debounced();
-    @JsonIgnore private final HistoricCount           logHistoricCount = HistoricCount.ofDuration(Constants.LV_DURATION).andResolution(Constants.LV_RESOLUTION);
+    @JsonIgnore private final SlidingRateCounter      logCount   = SlidingRateCounter.withWindows(Constants.LV_WINDOWS);
+    @JsonIgnore private final LongAdder               linesLogged      = new LongAdder(); // never reset, for MetricsStore
+    @JsonIgnore private final LongAdder               errorLinesLogged = new LongAdder();
     @JsonIgnore private final Object                  outputSync = new Object();
+    @JsonIgnore private final AtomicReference<WheelTimer.Handle> stateTimer = new AtomicReference<>(); // debounces RUNNING_ERROR -> RUNNING
 
     private State           state = OFF;
     private long            timeLastStateChange;
     private long            timeStarted;
     private long            timeLastError;
     private long            timeSinceRunningOk;
-    private int             logVelocity;
     private String          lastError;
-    private LimitedSizeFile outputFile;
+    private volatile OutputLogWriter outputFile; // written to by the persist stage of the logger
     private boolean         startPatternHasError;
     private boolean         aboutToStart;
 
@@ -91,8 +96,7 @@ public class ServiceState implements Comparable {
     }
     public void reset() {
         timeStarted = System.currentTimeMillis();
-        logHistoricCount.reset();
-        logVelocity = 0;
+        logCount.reset();
         closeOutputLog();
     }
     public void stopped() {
@@ -110,28 +114,23 @@ public class ServiceState implements Comparable {
         if(this.state == WAITING) setState(OFF);
     }
 
-    private String getStateTimerId() {
-        return service.getName() + "-state-timer";
-    }
-
     private void setState(State newState) { setState(newState, /*noDebounce=*/false); }
     private void setState(State newState, boolean noDebounce) {
-        final String stateTimerId = getStateTimerId();
         final long now = System.currentTimeMillis();
         final boolean justStarted = (timeStarted == 0 || now - timeStarted < 2000);
 
         // debounce change of error -> running for a few seconds because
         // error messages are often interlaced with normal messages
         // (which are interpreted as no-error).
-        if (newState == RUNNING_ERROR && Timer.has(stateTimerId)) {
-            Timer.clear(stateTimerId);
+        if (newState == RUNNING_ERROR) {
+            replaceStateTimer(null);
         }
         if (newState == RUNNING && state == RUNNING_ERROR && !noDebounce && !justStarted && now - timeLastError < Constants.END_ERROR_DEBOUNCE_MS) {
-            Timer.start(stateTimerId, Duration.ofMillis(Constants.END_ERROR_DEBOUNCE_MS), () -> setState(newState, true));
+            replaceStateTimer(Timer.schedule(Duration.ofMillis(Constants.END_ERROR_DEBOUNCE_MS), () -> setState(newState, true)));
             return;
         }
         if(state != newState) {
-            Timer.clear(stateTimerId);
+            replaceStateTimer(null);
             state = newState;
             if(newState == RUNNING) timeSinceRunningOk = System.currentTimeMillis();
             if(newState == RUNNING_ERROR || newState == INIT_ERROR) timeLastError = System.currentTimeMillis();
@@ -140,6 +139,12 @@ public class ServiceState implements Comparable {
             callChangeListeners();
         }
     }
+    /** Called from the ingest thread and the timer thread, so the swap is atomic: a timer that is
+      * replaced is always cancelled, and never one that replaced it.
+      */
+    private void replaceStateTimer(WheelTimer.Handle newTimer) {
+        Timer.cancel(stateTimer.getAndSet(newTimer));
+    }
     public void setOff()      { setState(OFF); }
     public void setStarting() { setState(STARTING); }
     public void setRunning()  { setState(RUNNING); }
@@ -168,13 +173,15 @@ public class ServiceState implements Comparable {
         service.getOutputLogFile().ifPresent(ofile -> {
             service.log("Output log file: " + ofile.getAbsolutePath());
             synchronized(outputSync) {
-                outputFile = new LimitedSizeFile(ofile, service.getOutputLogFileMaxBytes());
+                outputFile = new OutputLogWriter(ofile, service.getOutputCharset(), service.getOutputLogFileMaxBytes(),
+                                                 service.getOutputLogCount(), service.isOutputLogGzip(), service::logOther);
             }
         });
     }
     private void closeOutputLog() {
         synchronized(outputSync) {
-            if(outputFile != null) outputFile.close();
+            final OutputLogWriter file = outputFile;
+            if(file != null) service.logger.whenPersisted(file::close); // after lines still waiting to be written
             outputFile = null;
         }
     }
@@ -182,11 +189,8 @@ public class ServiceState implements Comparable {
     public void handleLine(boolean isError, String line) { handleLine(isError, line, /*replacesPrevious=*/false); }
     public void handleLine(boolean isError, String line, boolean replacesPrevious) {
         addToLogVelocity();
-        if(outputFile != null && !replacesPrevious) {
-            synchronized(outputSync) {
-                outputFile.write((isError ? "!" : " ") + line + "\n");
-            }
-        }
+        linesLogged.increment();
+        if(isError) errorLinesLogged.increment();
 
         if (!isRunning() && state != WAITING && service.startedFromDashboard()) aboutToStart();
         // no else
@@ -225,7 +229,7 @@ public class ServiceState implements Comparable {
             if(serviceStartedPattern == null && defaultStartedPattern.matcher(line).matches()) setState(RUNNING);
             if(serviceStartedPattern != null && serviceStartedPattern.matcher(line).matches()) setState(RUNNING);
         } else {
-            if (line.matches("^(PROCESS FINISHED)")) setState(OFF);
+            if (line.equals("PROCESS FINISHED")) setState(OFF);
             else
             if (line.startsWith("\tat ")) setError(); // stack trace
             else
@@ -234,11 +238,17 @@ public class ServiceState implements Comparable {
     }
 
     private void addToLogVelocity() {
-        if(isRunning()) logHistoricCount.add();
-        updateLogVelocity();
+        if(isRunning()) logCount.add();
+    }
+    /** Number of lines logged in the last LV_DURATION */
+    public int getLogVelocity() {
+        return (int)logCount.get(Constants.LV_DURATION);
     }
-    public int updateLogVelocity() {
-        logVelocity = logHistoricCount.get();
-        return logVelocity;
+    /** Number of lines logged in the given window, which is one of Constants.LV_WINDOWS */
+    public long getLogCount(Duration window) {
+        return logCount.get(window);
     }
+    /** Number of lines handled since the dashboard started */
+    public long getLinesLogged() { return linesLogged.sum(); }
+    public long getErrorLinesLogged() { return errorLinesLogged.sum(); }
 }
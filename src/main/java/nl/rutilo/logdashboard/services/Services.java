@@ -6,34 +6,44 @@ import nl.rutilo.logdashboard.util.Listeners;
 import nl.rutilo.logdashboard.util.Util;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.ToIntFunction;
 
 import static nl.rutilo.logdashboard.services.Service.LocationType.*;
 
 
 public class Services {
+    private static final int                       LOG_VELOCITIES_KEYFRAME_INTERVAL = 6; // send all every minute
     private static Optional<SimpMessagingTemplate> msgTemplate      = Optional.empty();
-    private static final List<Service>             services         = ServicesLoader.getConfiguration().map(cfg -> cfg.services).orElseGet(ArrayList::new);
+    private static volatile ServiceRegistry        registry         = ServiceRegistry.of(ServicesLoader.getConfiguration().map(cfg -> cfg.services).orElseGet(ArrayList::new));
+    private static volatile ServiceRegistry.Diff   lastRegistryDiff;
     private static final ServicesStateHistory  servicesStateHistory = ServicesStateHistory
-                                                                          .forServices(services)
+                                                                          .forServices(registry.getAll())
                                                                           .withDuration(Duration.ofHours(24))
-                                                                          .andResolution(Duration.ofMinutes(5));
-    private static final Set<Service>             servicesToStart     = new LinkedHashSet<>();
+                                                                          .andResolution(Duration.ofMinutes(5))
+                                                                          .persistedIn(Constants.STATE_HISTORY_FILE);
+    private static final StartScheduler           startScheduler      = new StartScheduler(Services::updateWaitingStateOf);
+    private static       ToIntFunction<String>    subscriptionCount   = destination -> 0;
+    private static       int[]                    lastLogVelocities;  // as last sent in the compact format
+    private static       int                      logVelocitiesSubscriptions; // to the compact format, when last sent
+    private static       int                      logVelocitiesSent;
+    private static       long                     stateHistoryVersionSent = -1;
     private static final Consumer<ServiceState>   stateChangeListener = state -> {
         msgTemplate.ifPresent(mt -> {
-            servicesStateHistory.update();
+            servicesStateHistory.update(state);
             mt.convertAndSend(Constants.MSG_TOPIC_STATE_CHANGE, state.getService());
-            mt.convertAndSend(Constants.MSG_TOPIC_LAST_STATE_HISTORY, servicesStateHistory.getAsLastTimeToString());
+            final String compactTopic = WireFormat.COMPACT.destinationOf(Constants.MSG_TOPIC_STATE_CHANGE);
+            if(isSubscribed(compactTopic)) mt.convertAndSend(compactTopic, CompactEncoder.encodeState(state.getService()));
+            publishStateHistoryChanges();
             callStateChangeListeners(state);
-            checkRuns();
         });
+        startScheduler.stateChanged(state.getService());
     };
     private static final Listeners<ServiceState>      listeners           = new Listeners<ServiceState>().debounced();
     private static final Listeners<Void>              newCfgListeners     = new Listeners<>();
@@ -41,9 +51,15 @@ public class Services {
     private static       boolean                      startIgnoreDeps     = false;
     private static final ScheduledExecutorService     scheduler           = Executors.newScheduledThreadPool(1);
     private static final ServicesConfigurationChecker configChecker       = new ServicesConfigurationChecker().whenChanged(Services::updateForNewConfiguration);
+    private static final MetricsStore                 metricsStore        = MetricsStore.load(Constants.METRICS_FILE);
+    private static       long                         metricsSavedTime    = System.currentTimeMillis();
     public static        boolean                      noAutoStart         = false;
     public static        boolean                      autoStartAll        = false; // only use this for the initial configuration load
 
+    static {
+        startScheduler.setServices(registry.getAll());
+    }
+
     public static void reload() {
         updateForNewConfiguration();
     }
@@ -51,24 +67,35 @@ public class Services {
     public static void startProcesses() {
         scheduler.scheduleAtFixedRate(configChecker::check,         /*initialDelay*/5, /*delay*/1, TimeUnit.SECONDS);
         scheduler.scheduleAtFixedRate(Services::sendLogVelocities,  /*initialDelay*/5, /*delay*/10, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(Services::sampleMetrics, MetricsStore.SAMPLE_MS, MetricsStore.SAMPLE_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(Services::saveMetrics));
 
-        ServicesLoader.setFileLocations(services);
-        services.forEach(Services::initForLoadedService);
+        ServicesLoader.setFileLocations(registry.getAll());
+        registry.getAll().forEach(Services::initForLoadedService);
     }
 
-    public static void setWebsocketMessaging(SimpMessagingTemplate smt) {
+    /** subscriptionCount tells how many clients are subscribed to a destination, so topics and compact variants are only sent when used */
+    public static void setWebsocketMessaging(SimpMessagingTemplate smt, ToIntFunction<String> subscriptionCount) {
         msgTemplate = Optional.ofNullable(smt);
+        Services.subscriptionCount = subscriptionCount;
     }
+    private static boolean isSubscribed(String destination) { return subscriptionCount.applyAsInt(destination) > 0; }
 
     public static void addStateChangeListener(Consumer<ServiceState> listener) { listeners.add(listener); }
     public static void removeStateChangeListener(Consumer<ServiceState> listener) { listeners.remove(listener); }
     private static void callStateChangeListeners(ServiceState changedState) { listeners.call(changedState); }
+    /** Dispatch statistics of the (debounced) state change listeners, like the tray */
+    public static Listeners.Metrics getStateChangeListenersMetrics() { return listeners.getMetrics(); }
 
     public static void addConfigurationChangeListener(Consumer<Void> listener) { newCfgListeners.add(listener); }
     public static void removeConfigurationChangeListener(Consumer<Void> listener) { newCfgListeners.remove(listener); }
     private static void callConfigurationChangeListeners() { newCfgListeners.call(null); }
 
-    public static List<Service> get() { return services; }
+    /** Unmodifiable list of the current services. It is replaced as a whole when the configuration is reloaded. */
+    public static List<Service> get() { return registry.getAll(); }
+    public static ServiceRegistry getRegistry() { return registry; }
+    /** Services added, removed and changed by the last configuration reload (null when not reloaded yet) */
+    public static ServiceRegistry.Diff getLastRegistryDiff() { return lastRegistryDiff; }
     private static void initForLoadedService(Service s) {
         s.state.addChangeListener(stateChangeListener);
         if(s.getLocationType() == URL || s.getLocationType() == PORT || s.getLocationType() == LOG) s.getRunner().start();
@@ -76,10 +103,37 @@ public class Services {
     }
 
     private static void sendLogVelocities() {
-        if (msgTemplate == null) return;
-        msgTemplate.ifPresent(mt -> mt.convertAndSend(Constants.MSG_TOPIC_LOG_VELOCITIES,
-            services.stream().mapToInt(service -> service.getState().getLogVelocity())
-        ));
+        msgTemplate.ifPresent(mt -> {
+            final int[] velocities = registry.getAll().stream().mapToInt(service -> service.getState().getLogVelocity()).toArray();
+            if(isSubscribed(Constants.MSG_TOPIC_LOG_VELOCITIES)) mt.convertAndSend(Constants.MSG_TOPIC_LOG_VELOCITIES, velocities);
+
+            final String compactTopic = WireFormat.COMPACT.destinationOf(Constants.MSG_TOPIC_LOG_VELOCITIES);
+            final int subscriptions = subscriptionCount.applyAsInt(compactTopic);
+            if(subscriptions == 0) { lastLogVelocities = null; logVelocitiesSubscriptions = 0; return; }
+            final boolean sendAll = subscriptions > logVelocitiesSubscriptions // a client subscribed, which has no velocities yet
+                                 || logVelocitiesSent++ % LOG_VELOCITIES_KEYFRAME_INTERVAL == 0; // in case one left and another came
+            mt.convertAndSend(compactTopic, CompactEncoder.encodeVelocities(velocities, sendAll ? null : lastLogVelocities));
+            lastLogVelocities = velocities;
+            logVelocitiesSubscriptions = subscriptions;
+        });
+    }
+    public static MetricsStore getMetricsStore() { return metricsStore; }
+
+    private static void sampleMetrics() {
+        final long now = System.currentTimeMillis();
+        registry.getAll().forEach(service -> {
+            final ServiceState state = service.getState();
+            metricsStore.sample(service.getName(), now, state.getLinesLogged(), state.getErrorLinesLogged(), state.getState());
+        });
+        if(now - metricsSavedTime >= Constants.METRICS_SAVE_INTERVAL_MS) saveMetrics();
+    }
+    private static void saveMetrics() {
+        metricsSavedTime = System.currentTimeMillis();
+        try {
+            metricsStore.save(Constants.METRICS_FILE);
+        } catch(final IOException e) {
+            Application.log("Failed to save metrics: " + e.getMessage());
+        }
     }
     private static void updateForNewConfiguration() {
         //Application.log("Configuration change detected -- updating services");
@@ -88,7 +142,6 @@ public class Services {
         // This method was called because an update was detected on the cfg file. Here read it.
         ServicesLoader.load();
 
-        final List<Service> oldServices = new ArrayList<>(services);
         final List<Service> cfgServices = ServicesLoader.getConfiguration().map(cfg -> cfg.services).orElseGet(ArrayList::new);
         if(cfgServices.isEmpty()) {
             Application.log("Failed to read updated configuration -- ignoring (reload client to show error)");
@@ -98,7 +151,7 @@ public class Services {
 
         // A new list of services is loaded.
         // Try to keep running services running, unless they were removed
-        handleServiceConfigurationUpdate(oldServices, cfgServices);
+        handleServiceConfigurationUpdate(cfgServices);
 
         callConfigurationChangeListeners();
 
@@ -109,18 +162,20 @@ public class Services {
             msgTemplate.ifPresent(mt -> mt.convertAndSend(Constants.MSG_TOPIC_SERVICES_RELOADED, "update"));
         }
     }
-    private static void handleServiceConfigurationUpdate(List<Service> oldServices, List<Service> cfgServices) {
-        if(cfgServices == services) {
+    private static void handleServiceConfigurationUpdate(List<Service> cfgServices) {
+        final ServiceRegistry oldRegistry = registry;
+        if(cfgServices == oldRegistry.getAll()) {
             Application.log("Unexpected configuration update: services == cfgServices");
             return;
         }
         final Map<Service,Service> oldToNewServices = new HashMap<>();
-        synchronized(servicesToStart) {
+        final List<Service> toStart = new ArrayList<>();
+        synchronized(startScheduler) {
+            final ServiceRegistry newRegistry = oldRegistry.withServices(cfgServices);
+            final ServiceRegistry.Diff diff = newRegistry.diffFrom(oldRegistry); // before the new services copy from the old
             cfgServices.forEach(cfgService -> {
-                final Optional<Service> likeOpt = getServiceLike(cfgService);
+                final Optional<Service> likeOpt = oldRegistry.getLike(cfgService);
                 likeOpt.ifPresent(oldService -> {
-                    oldServices.remove(oldService);
-
                     cfgService.setState(oldService.getState());
 
                     final boolean locationChanged = !Util.or(cfgService.getLocation(), "").equals(Util.or(oldService.getLocation(), ""));
@@ -130,6 +185,7 @@ public class Services {
                         cfgService.setFileLocation(null);
                         ServicesLoader.setFileLocationOf(cfgService);
                         oldService.getRunner().stop();
+                        oldService.logger.closeHistory(); // the new service has a logger of its own
                         if (cfgService.getLocationType() != JAR) cfgService.getRunner().start();
                     } else {
                         // keep the old runner, so running process is not terminated when location/jar does not change
@@ -137,7 +193,7 @@ public class Services {
                         cfgService.copyFromOld(oldService);
                     }
 
-                    if (servicesToStart.remove(oldService)) servicesToStart.add(cfgService);
+                    if (startScheduler.cancel(oldService)) toStart.add(cfgService);
                 });
                 if (!likeOpt.isPresent()) {
                     ServicesLoader.setFileLocationOf(cfgService);
@@ -145,16 +201,20 @@ public class Services {
                 }
             });
 
-            oldServices.forEach(service -> {
-                servicesToStart.remove(service);
+            diff.removed.forEach(service -> {
+                startScheduler.cancel(service);
                 service.getRunner().stop();
+                service.logger.closeHistory();
                 service.getState().removeChangeListener(stateChangeListener);
             });
 
-            services.clear();
-            services.addAll(cfgServices);
-            services.forEach(service -> callStateChangeListeners(service.getState())); // updates tray
-            servicesStateHistory.servicesWereUpdated(services, oldToNewServices);
+            registry = newRegistry;
+            lastRegistryDiff = diff;
+            startScheduler.setServices(newRegistry.getAll());
+            toStart.forEach(startScheduler::request);
+            newRegistry.getAll().forEach(service -> callStateChangeListeners(service.getState())); // updates tray
+            servicesStateHistory.servicesWereUpdated(newRegistry.getAll(), oldToNewServices);
+            if(!diff.isEmpty()) Application.log("Services configuration reloaded -- " + diff);
         }
     }
     private static void restartServerForNewPort(int oldPort, int newPort) {
@@ -164,29 +224,52 @@ public class Services {
     }
 
     public static void reset() {
-        services.forEach(s -> s.state.removeChangeListener(stateChangeListener));
-        services.clear();
+        final ServiceRegistry oldRegistry = registry;
+        oldRegistry.getAll().forEach(s -> s.state.removeChangeListener(stateChangeListener));
+        registry = oldRegistry.withServices(Collections.emptyList());
+        startScheduler.setServices(registry.getAll());
     }
     public static Optional<Service> get(String serviceName) {
-        return get().stream().filter(s -> Util.or(s.getName(), "").equals(serviceName)).findFirst();
+        return registry.get(serviceName);
+    }
+    public static Optional<Service> get(int uid) {
+        return registry.get(uid);
     }
     public static Service getOrThrow(String serviceName) {
         return Services.get(serviceName).orElseThrow(() -> new RuntimeException("Unknown service requested: " + serviceName));
     }
     public static List<Service> getGroupOf(Service s0) {
-        return getServices(s -> s0 == s || Util.or(s0.getGroup(), "none").equals(s.getGroup()));
+        final ServiceRegistry current = registry;
+        if(s0.getGroup() == null) return current.get(s0.uid).filter(s -> s == s0).map(Collections::singletonList).orElseGet(Collections::emptyList);
+        return current.getGroup(s0.getGroup());
     }
 
     public static ServicesStateHistory getServicesStateHistory() {
         return servicesStateHistory;
     }
+    /** Sends the state history rows changed since the previous call. A client that missed
+      * a message (its version is not the fromVersion) should ask for the changes since its version.
+      */
+    public static synchronized void publishStateHistoryChanges() {
+        msgTemplate.ifPresent(mt -> {
+            final ServicesStateHistory.Changes changes = servicesStateHistory.getChangesSince(stateHistoryVersionSent);
+            if(!changes.full && changes.rows.isEmpty()) return;
+            mt.convertAndSend(Constants.MSG_TOPIC_LAST_STATE_HISTORY, changes);
+            stateHistoryVersionSent = changes.version;
+        });
+    }
 
-    public static void setStartParallel(boolean set) { startParallel = set; }
-    public static void setStartIgnoreDeps(boolean set) { startIgnoreDeps = set; }
+    public static void setStartParallel(boolean set) { startParallel = set; startScheduler.setParallel(set); }
+    public static void setStartIgnoreDeps(boolean set) { startIgnoreDeps = set; startScheduler.setIgnoreDependencies(set); }
 
     public static boolean getStartParallel() { return startParallel; }
     public static boolean getStartIgnoreDeps() { return startIgnoreDeps; }
 
+    /** Chain of dependencies that took longest to start, ending at the service (or any service when null) */
+    public static StartScheduler.CriticalPath getStartCriticalPath(Service service) {
+        return startScheduler.getCriticalPath(service);
+    }
+
     public static void start(Service service) {
         start(service, Optional.empty());
     }
@@ -196,23 +279,21 @@ public class Services {
         if(job.isPresent()) {
             service.getRunner().start(job.map(jobName -> service.getJobs().get(jobName)).orElse(""));
         } else {
-            synchronized(servicesToStart) { servicesToStart.add(service); }
-            checkRuns();
+            startScheduler.request(service);
         }
     }
-    public static void stop(Service service) { servicesToStart.remove(service); service.runner.stop(); checkRuns(); }
+    public static void stop(Service service) { startScheduler.cancel(service); service.runner.stop(); checkRuns(); }
     public static void startAll() {
         Application.log("Start all");
-        synchronized(servicesToStart) {
-            services.stream()
+        synchronized(startScheduler) {
+            registry.getAll().stream()
                 .filter(s -> !s.isExcludeFromStartAll())
-                .filter(s -> !servicesToStart.contains(s))
-                .forEach(servicesToStart::add);
-            servicesToStart.forEach(s -> {
-                if (!s.getState().isRunning()) s.getState().setOff();
-            });
+                .filter(s -> !startScheduler.isRequested(s))
+                .forEach(s -> {
+                    if (!s.getState().isRunning()) s.getState().setOff();
+                    startScheduler.request(s);
+                });
         }
-        checkRuns();
     }
     public static void stopAll() {
         Application.log("Stop all");
@@ -220,61 +301,14 @@ public class Services {
         get().forEach(s -> s.runner.stop());
     }
     public static void clearStart() {
-        synchronized (servicesToStart) {
-            servicesToStart.clear();
-            services.forEach(s -> s.state.resetState());
+        synchronized (startScheduler) {
+            startScheduler.clear();
+            registry.getAll().forEach(s -> s.state.resetState());
         }
     }
 
-    private static Optional<Service> getServiceLike(Service like) {
-        Optional<Service> found = services.stream()
-            .filter(service -> service.getName().equals(like.getName()))
-            .findFirst();
-
-        if(!found.isPresent()) found = services.stream()
-            .filter(service -> service.getLocationType() == JAR
-                            && like.getLocationType() == JAR
-                            && Util.or(service.getLocation(),"").equals(Util.or(like.getLocation(), ""))
-            )
-            .findFirst();
-
-        return found;
-    }
-    private static List<Service> getDepServicesOf(Service service) {
-        if(startIgnoreDeps) return new ArrayList<>();
-        return service.getDependsOn()
-            .stream()
-            .map(depName -> {
-                final Optional<Service> dep = Services.get(depName);
-                if (!dep.isPresent() && !service.state.isWaiting()) service.logger.logError("Unknown dependency: " + depName);
-                return dep;
-            })
-            .filter(Optional::isPresent)
-            .map(Optional::get)
-            .collect(Collectors.toList())
-            ;
-    }
-
-    private static final Predicate<Service> canBeStarted   = s -> s.getRunner().canBeStarted();
-    private static final Predicate<Service> starting       = s -> s.getState().isStarting();
-    private static final Predicate<Service> notStarting    = s -> !starting.test(s);
-    private static final Predicate<Service> runningOk      = s -> s.getState().isRunningOk();
-    private static final Predicate<Service> running        = s -> s.getState().isRunning();
-    private static final Predicate<Service> runStartedOk   = s -> runningOk.test(s) && !starting.test(s);
-    private static final Predicate<Service> notRunning     = s -> !running.test(s);
-    private static final Predicate<Service> waiting        = s -> s.getState().isWaiting();
-    private static final Predicate<Service> notWaiting     = s -> !waiting.test(s);
-    private static final Predicate<Service> initError      = s -> s.getState().isInitError();
-    private static final Predicate<Service> notInitError   = s -> !s.getState().isInitError();
-    private static final Predicate<Service> exitError      = s -> s.getState().isExitError();
-    private static final Predicate<Service> hasDepsRunning = s -> getDepServicesOf(s).stream().allMatch(runStartedOk);
-
-    private static List<Service> getServices(Predicate<Service> predicate) {
-        return new ArrayList<>(services).stream().filter(predicate).collect(Collectors.toList());
-    }
-
     private static void updateWaitingStateOf(Service s) {
-        final List<Service> deps = getDepServicesOf(s); // returns empty when startIgnoreDeps
+        final List<Service> deps = startScheduler.getDependenciesOf(s); // returns empty when startIgnoreDeps
         if (deps.isEmpty()) {
             if (!startParallel) s.logger.logWaiting(" - no other service is starting (no parallel)");
             if (startIgnoreDeps) {
@@ -288,31 +322,10 @@ public class Services {
         s.state.setWaiting();
     }
 
+    /** Recalculates which services can be started. State changes are handled by the start scheduler,
+      * so this is only needed when something else changed, like the start flags.
+      */
     public static void checkRuns() {
-        synchronized(servicesToStart) {
-            servicesToStart.removeIf(running);
-            servicesToStart.removeIf(initError);
-            servicesToStart.removeIf(exitError);
-            if (servicesToStart.isEmpty()) return;
-
-            servicesToStart.stream()
-                .filter(notRunning)
-                .filter(notStarting)
-                .filter(notWaiting)
-                .filter(notInitError)
-                .forEach(Services::updateWaitingStateOf);
-
-            if (!startParallel && services.stream().anyMatch(starting)) return;
-
-            servicesToStart.stream()
-                .filter(notRunning)
-                .filter(canBeStarted)
-                .filter(notStarting)
-                .filter(notInitError)
-                .filter(waiting)
-                .filter(hasDepsRunning)
-                .limit(startParallel ? 999 : 1)
-                .forEach(service -> service.runner.start());
-        }
+        startScheduler.resync();
     }
 }
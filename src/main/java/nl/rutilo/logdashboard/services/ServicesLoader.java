@@ -31,8 +31,8 @@ import static nl.rutilo.logdashboard.services.Service.LocationType.JAR;
 
 public class ServicesLoader {
     private static final String       SERVICES_CFG_NAME           = "services.yaml";
-    private static final String       CHECK_TIMER_NAME            = "ServicesLocationCheck";
     private static final Duration     CHECK_TIMER_DURATION        = Duration.ofSeconds(5);
+    private static volatile WheelTimer.Handle checkTimer; // repeats checking jar locations
     private static final Set<Service> servicesWithoutFileLocation = Collections.synchronizedSet(new HashSet<>());
     private static Optional<ConfigurationData> loadedConfiguration = Optional.empty();
     private static Optional<File> sourcePath = Optional.empty();
@@ -42,6 +42,12 @@ public class ServicesLoader {
         @SuppressWarnings("CanBeFinal") // set via reflection
         public       int                port      = Constants.DEFAULT_PORT;
         public       String             root      = null;
+        public       int                outputBatchMs    = Constants.DEFAULT_OUTPUT_BATCH_MS;
+        public       int                outputBatchSize  = Constants.DEFAULT_OUTPUT_BATCH_SIZE;
+        public       int                tailBufferSize   = Constants.DEFAULT_TAIL_BUFFER_SIZE;
+        public       String             tailSlowConsumer = "dropOldest";
+        public       int                compressionMinSize   = Constants.DEFAULT_COMPRESSION_MIN_SIZE;
+        public       boolean            websocketCompression = true;
         public final Map<String,String> variables = new LinkedHashMap<>();
         public final List<Service>      services  = new ArrayList<>();
     }
@@ -49,12 +55,14 @@ public class ServicesLoader {
 
     public static Optional<ConfigurationData> getConfiguration() { return loadedConfiguration.isPresent() ? loadedConfiguration : load(); }
     public static Optional<ConfigurationData> load() {
-        Timer.clear(CHECK_TIMER_NAME);
+        checkTimer = Timer.cancel(checkTimer);
         servicesWithoutFileLocation.clear();
         Service.defaults = null;
         loadedConfiguration = parseServicesConfiguration();
         loadedConfiguration.ifPresent(cfg -> {
             if(cfg.root != null) Configuration.setJarsDir(new File(cfg.root));
+            ServiceLogger.setOutputBatching(cfg.outputBatchMs, cfg.outputBatchSize);
+            OutputTail.setDefaults(cfg.tailBufferSize, OutputTail.SlowConsumerPolicy.of(cfg.tailSlowConsumer).orElse(OutputTail.SlowConsumerPolicy.DROP_OLDEST));
             final List<Service> services = cfg.services;
             services.forEach(s -> {
                 if(s.getName() == null) s.setName("Service" + s.getUid());
@@ -62,6 +70,7 @@ public class ServicesLoader {
             });
             repeatCheckFileLocations();
             handleGroups(services);
+            services.forEach(s -> s.logger.compileClassifier());
         });
         return loadedConfiguration;
     }
@@ -86,7 +95,8 @@ public class ServicesLoader {
     }
 
     private static void repeatCheckFileLocations() {
-        Timer.start(CHECK_TIMER_NAME, CHECK_TIMER_DURATION, () -> {
+        Timer.cancel(checkTimer);
+        checkTimer = Timer.schedule(CHECK_TIMER_DURATION, () -> {
             setFileLocations(Services.get());
             repeatCheckFileLocations();
         });
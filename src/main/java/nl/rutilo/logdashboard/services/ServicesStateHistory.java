@@ -1,51 +1,70 @@
 package nl.rutilo.logdashboard.services;
 
+import nl.rutilo.logdashboard.Application;
+import nl.rutilo.logdashboard.Constants;
+
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import static nl.rutilo.logdashboard.services.ServiceState.State;
 
-/** Make sure to call update() on state changes. */
+/** History of state transitions of all services, in rows of 'resolution' duration.<br><br>
+  *
+  * The rows are a ring, so the oldest row is overwritten when the duration is exceeded. A row holds
+  * one packed long per service: up to MAX_TRANSITIONS 3-bit state codes (only changes are added, so
+  * a state that stays the same is a single code) with the number of codes in the top bits. When a
+  * service flips more often than that within a row, the first state and the latest transitions are
+  * kept.<br><br>
+  *
+  * Every change increases the version, so clients can ask for the changes since the version they
+  * have (usually only the last row). In the rows sent, a run of equal columns is written as count*column.
+  * <br><br>
+  *
+  * When persistedIn() a file, each change is also written to that (memory-mapped) file, and the
+  * history in the file is loaded, so it survives a restart of the dashboard.<br><br>
+  *
+  * Make sure to call update(state) on state changes.
+  */
 public class ServicesStateHistory {
-    private final List<Service> services;
-    private final long resolutionMs;
-    private final long maxCount;
-
-    class Row {
-        long time;
-        final List<List<State>> items;
-        Row() {
-            time = System.currentTimeMillis();
-            items = getCurrentStates().stream().map(ServicesStateHistory::listFor).collect(Collectors.toList());
-        }
-        Row(Row other) {
-            time = other.time;
-            items = other.items.stream().map(ArrayList::new).collect(Collectors.toList());
-        }
-        public long getTime() { return time; }
-        public String toString() {
-            return String.join(",", items.stream().map(this::getStateLetters).collect(Collectors.toList()));
-        }
-        private String getStateLetters(List<State> states) {
-            return String.join("", states.stream().map(this::getStateLetter).collect(Collectors.toList()));
-        }
-        private String getStateLetter(State state) {
-            switch(state) {
-                case OFF:           return "O";
-                case WAITING:       return "W";
-                case STARTING:      return "S";
-                case RUNNING:       return "R";
-                case INIT_ERROR:    return "I";
-                case RUNNING_ERROR: return "E";
-            }
-            return ""; // never get here, but the compiler wants it;
+    private static final int     CODE_BITS       = 3;
+    private static final long    CODE_MASK       = (1 << CODE_BITS) - 1;
+    private static final int     COUNT_SHIFT     = 59; // 5 bits for the count
+    static final         int     MAX_TRANSITIONS = COUNT_SHIFT / CODE_BITS;
+    private static final String  STATE_LETTERS   = "OWSRIXE"; // per State ordinal
+
+    private final List<Service>              services;
+    private final Map<Service,Integer>       indexOfService = new IdentityHashMap<>();
+    private final long                       resolutionMs;
+    private final long[]                     rowTimes;
+    private final long[]                     rowVersions;   // version of the last change of the row
+    private final long[][]                   rows;          // per row, a packed column per service
+    private       int                        newest         = -1;
+    private       int                        rowCount;
+    private       long                       version;
+    private       long                       resetVersion;  // clients with an older version need everything
+    private       StateHistoryFile           file;
+
+    /** Rows changed since a version, for sending to clients */
+    public static class Changes {
+        public final long             fromVersion;
+        public final long             version;
+        public final boolean          full;       // true when rows not in this list should be removed
+        public final long             oldestTime; // rows before this time were dropped
+        public final Map<Long,String> rows;       // time -> run-length encoded row
+        Changes(long fromVersion, long version, boolean full, long oldestTime, Map<Long,String> rows) {
+            this.fromVersion = fromVersion;
+            this.version = version;
+            this.full = full;
+            this.oldestTime = oldestTime;
+            this.rows = rows;
         }
     }
-    final List<Row> rows = new ArrayList<>();
 
     public static class ServicesStateHistoryBuilder1 {
         private final List<Service> services;
@@ -78,102 +97,199 @@ public class ServicesStateHistory {
     private ServicesStateHistory(List<Service> services, long resolutionMs, long durationMs) {
         this.services = services;
         this.resolutionMs = resolutionMs;
-        this.maxCount = durationMs / resolutionMs;
+        final long maxCount = durationMs / resolutionMs;
         if(maxCount < 1) throw new IllegalArgumentException("duration should be longer than resolution");
+        rowTimes = new long[(int)maxCount];
+        rowVersions = new long[(int)maxCount];
+        rows = new long[(int)maxCount][];
+        version = resetVersion = System.currentTimeMillis() * 1000; // above versions of a previous run
+        indexServices();
         update();
     }
 
-    public Map<Long,String> getAsTimeToString() {
-        update();
-        return rows.stream().collect(Collectors.toMap(Row::getTime, Object::toString));
+    /** Loads the rows stored in the file, before the current row, and from now on writes all changes to
+      * the file. Stored columns are matched to services by name, or else by jar location, like a
+      * configuration reload does. Without a file (or when it cannot be opened) the history is only in memory.
+      */
+    public synchronized ServicesStateHistory persistedIn(File fileToUse) {
+        try {
+            final StateHistoryFile newFile = new StateHistoryFile(fileToUse, rows.length, Constants.STATE_HISTORY_MAX_SERVICES, resolutionMs);
+            restore(newFile.read());
+            file = newFile;
+            writeAllToFile();
+        } catch(final IOException | RuntimeException e) {
+            Application.log("Unable to keep the state history in " + fileToUse + ": " + e.getMessage());
+        }
+        return this;
+    }
+
+    private void restore(StateHistoryFile.Contents contents) {
+        final int[] storedIndexOf = new int[services.size()];
+        for(int i=0; i<services.size(); i++) storedIndexOf[i] = storedIndexOf(services.get(i), contents.keys);
+
+        final long currentTime = rowTimes[newest];
+        final long[] currentRow = rows[newest];
+        final List<Integer> restored = new ArrayList<>();
+        for(int r=0; r<contents.rows.size(); r++) if(contents.times.get(r) < currentTime) restored.add(r);
+        final List<Integer> kept = restored.subList(Math.max(0, restored.size() - (rows.length - 1)), restored.size());
+
+        newest = -1;
+        rowCount = 0;
+        for(final int r : kept) {
+            final long[] stored = contents.rows.get(r);
+            final long[] columns = new long[services.size()];
+            for(int i=0; i<columns.length; i++) if(storedIndexOf[i] >= 0 && storedIndexOf[i] < stored.length) columns[i] = stored[storedIndexOf[i]];
+            appendRow(contents.times.get(r), columns);
+        }
+        appendRow(currentTime, currentRow);
+        resetVersion = ++version;
+    }
+    private static int storedIndexOf(Service service, List<String> keys) {
+        for(int i=0; i<keys.size(); i++) if(StateHistoryFile.nameOfKey(keys.get(i)).equals(service.getName())) return i;
+        final String location = StateHistoryFile.locationOfKey(StateHistoryFile.keyOf(service));
+        if(!location.isEmpty()) {
+            for(int i=0; i<keys.size(); i++) if(StateHistoryFile.locationOfKey(keys.get(i)).equals(location)) return i;
+        }
+        return -1;
     }
-    public Map<Long,String> getAsLastTimeToString() {
+    private void appendRow(long time, long[] columns) {
+        newest = (newest + 1) % rows.length;
+        rowCount = Math.min(rowCount + 1, rows.length);
+        rowTimes[newest] = time;
+        rows[newest] = columns;
+        rowVersions[newest] = ++version;
+    }
+    private void writeAllToFile() {
+        if(file == null) return;
+        final List<String> keys = new ArrayList<>();
+        for(int i=0; i<services.size() && i<file.getMaxColumns(); i++) keys.add(StateHistoryFile.keyOf(services.get(i)));
+        file.writeAll(keys, newest, rowCount, rowTimes, rows);
+    }
+
+    /** All rows, not run-length encoded */
+    public synchronized Map<Long,String> getAsTimeToString() {
         update();
-        final Map<Long, String> map = new HashMap<>();
-        if(!rows.isEmpty()) map.put(lastOf(rows).time, lastOf(rows).toString());
+        final Map<Long,String> map = new LinkedHashMap<>();
+        for(int n=rowCount-1; n>=0; n--) {
+            final int row = rowIndex(n);
+            map.put(rowTimes[row], rowToString(rows[row], /*runLengthEncoded=*/false));
+        }
         return map;
     }
 
-    public void update() {
-        if(needsNewRow()) {
-            addRow();
-            update();
-        } else {
-            final Row lastRow = lastOf(rows);
-            final List<State> states = getCurrentStates();
-            for(int i=0; i<states.size(); i++) {
-                final State state = states.get(i);
-                final List<State> item = lastRow.items.get(i);
-                // Only add state changes.
-                if(item.isEmpty() || lastOf(item) != state) {
-                    item.add(state);
-                }
-            }
-        }
+    /** Rows changed since the given version: all rows when that version is too old (or unknown) */
+    public synchronized Changes getChangesSince(long sinceVersion) {
+        final boolean full = sinceVersion < resetVersion || sinceVersion > version;
+        final List<Integer> changed = new ArrayList<>();
+        for(int n=0; n<rowCount && (full || rowVersions[rowIndex(n)] > sinceVersion); n++) changed.add(rowIndex(n));
+
+        final Map<Long,String> map = new LinkedHashMap<>();
+        for(int i=changed.size()-1; i>=0; i--) map.put(rowTimes[changed.get(i)], rowToString(rows[changed.get(i)], /*runLengthEncoded=*/true));
+        final long oldestTime = rowCount == 0 ? 0 : rowTimes[rowIndex(rowCount - 1)];
+        return new Changes(full ? -1 : sinceVersion, version, full, oldestTime, map);
     }
 
-    public void servicesWereUpdated(List<Service> newServices, Map<Service,Service> oldToNewMapping) {
-        class Locals {
-            List<Row> createNewRows() {
-                final List<Row> newRows = new ArrayList<>();
-                for(final Row oldRow : rows) {
-                    newRows.add(createNewRow(oldRow));
-                }
-                return newRows;
-            }
-            Row createNewRow(Row oldRow) {
-                final Row newRow = new Row(oldRow);
-                newRow.items.forEach(List::clear);
-                while(newRow.items.size() < newServices.size()) newRow.items.add(new ArrayList<>());
-                keepStatesOfRemainingServices(oldRow, newRow);
-                while(newRow.items.size() > newServices.size()) newRow.items.remove(newRow.items.size()-1);
-
-                return newRow;
-            }
-            void keepStatesOfRemainingServices(Row oldRow, Row newRow) {
-                for(int oldIndex=0; oldIndex<oldRow.items.size(); oldIndex++) {
-                    final Service oldService = services.get(oldIndex);
-                    final Service newService = oldToNewMapping.get(oldService);
-                    if(newService != null) {
-                        final List<State> oldStates = oldRow.items.get(oldIndex);
-                        final int newIndex = newServices.indexOf(newService);
-                        if(newIndex >= 0 && newIndex < newRow.items.size()) newRow.items.set(newIndex, oldStates);
-                    }
-                }
+    public synchronized long getVersion() { return version; }
+
+    /** Adds the states of all services */
+    public synchronized void update() {
+        if(needsNewRow()) addRow();
+        for(int i=0; i<services.size(); i++) setState(i, services.get(i).state.getState());
+    }
+
+    /** Adds the state of a single service */
+    public synchronized void update(ServiceState state) {
+        if(needsNewRow()) { update(); return; }
+        final Integer index = indexOfService.get(state.getService());
+        if(index != null) setState(index, state.getState());
+    }
+
+    public synchronized void servicesWereUpdated(List<Service> newServices, Map<Service,Service> oldToNewMapping) {
+        final Map<Service,Integer> newIndexOfService = new IdentityHashMap<>();
+        for(int i=0; i<newServices.size(); i++) newIndexOfService.put(newServices.get(i), i);
+
+        for(int n=0; n<rowCount; n++) {
+            final long[] oldColumns = rows[rowIndex(n)];
+            final long[] newColumns = new long[newServices.size()];
+            for(int oldIndex=0; oldIndex<oldColumns.length && oldIndex<services.size(); oldIndex++) {
+                final Service newService = oldToNewMapping.get(services.get(oldIndex));
+                final Integer newIndex = newService == null ? null : newIndexOfService.get(newService);
+                if(newIndex != null) newColumns[newIndex] = oldColumns[oldIndex];
             }
+            rows[rowIndex(n)] = newColumns;
         }
-        final Locals locals = new Locals();
-        final List<Row> newRows = locals.createNewRows();
-        rows.clear();
-        rows.addAll(newRows);
         services.clear();
         services.addAll(newServices);
+        indexServices();
+        resetVersion = ++version;
+        for(int n=0; n<rowCount; n++) rowVersions[rowIndex(n)] = version;
+        writeAllToFile();
     }
 
+    private void indexServices() {
+        indexOfService.clear();
+        for(int i=0; i<services.size(); i++) indexOfService.put(services.get(i), i);
+    }
+
+    /** Index of the n-th newest row */
+    private int rowIndex(int n) {
+        return Math.floorMod(newest - n, rows.length);
+    }
 
     private boolean needsNewRow() {
-        final long now = System.currentTimeMillis();
-        return rows.isEmpty() || now - lastOf(rows).time > resolutionMs;
+        return rowCount == 0 || System.currentTimeMillis() - rowTimes[newest] > resolutionMs;
     }
     private void addRow() {
-        final long now = System.currentTimeMillis();
-        final Row lastRow = rows.isEmpty() ? null : lastOf(rows);
-        final Row row = rows.isEmpty() ? new Row() : new Row(lastOf(rows));
-        row.time = (lastRow == null ? now - resolutionMs : lastRow.time) + resolutionMs;
-        rows.add(new Row());
-        if(rows.size() > maxCount) rows.remove(0);
+        appendRow(System.currentTimeMillis(), new long[services.size()]);
+        if(file != null) file.startRow(newest, rowCount, rowTimes[newest], rows[newest]);
+    }
+
+    private void setState(int index, State state) {
+        final long[] columns = rows[newest];
+        if(index >= columns.length) return;
+        final long column = add(columns[index], state.ordinal());
+        if(column != columns[index]) {
+            columns[index] = column;
+            rowVersions[newest] = ++version;
+            if(file != null) file.writeColumn(newest, index, column);
+        }
     }
 
-    private List<State> getCurrentStates() {
-        return services.stream().map(s -> s.state.getState()).collect(Collectors.toList());
+    static int countOf(long column) { return (int)(column >>> COUNT_SHIFT); }
+    static int codeAt(long column, int i) { return (int)((column >>> (i * CODE_BITS)) & CODE_MASK); }
+
+    /** Returns the column with the code added, unless it already ends with that code */
+    static long add(long column, int code) {
+        int count = countOf(column);
+        if(count > 0 && codeAt(column, count - 1) == code) return column;
+        long codes = column & ~(-1L << COUNT_SHIFT);
+        if(count == MAX_TRANSITIONS) { // keep the first, drop the second
+            codes = (codes & CODE_MASK) | ((codes >>> (2 * CODE_BITS)) << CODE_BITS);
+            count--;
+        }
+        codes |= (long)code << (count * CODE_BITS);
+        return codes | (long)(count + 1) << COUNT_SHIFT;
     }
 
-    private static List<State> listFor(State state) {
-        final List<State> list = new ArrayList<>();
-        list.add(state);
-        return list;
+    static String columnToString(long column) {
+        final StringBuilder sb = new StringBuilder(countOf(column));
+        for(int i=0; i<countOf(column); i++) sb.append(STATE_LETTERS.charAt(codeAt(column, i)));
+        return sb.toString();
     }
-    private static <T> T lastOf(List<T> list) {
-        return list.get(list.size()-1);
+
+    private static String rowToString(long[] columns, boolean runLengthEncoded) {
+        final StringBuilder sb = new StringBuilder(columns.length * 2);
+        for(int i=0; i<columns.length; ) {
+            int run = 1;
+            while(runLengthEncoded && i + run < columns.length && columns[i + run] == columns[i]) run++;
+            if(sb.length() > 0) sb.append(',');
+            if(run > 2) sb.append(run).append('*').append(columnToString(columns[i]));
+            else {
+                sb.append(columnToString(columns[i]));
+                if(run == 2) sb.append(',').append(columnToString(columns[i]));
+            }
+            i += run;
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,252 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.util.Util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/** Starts the services that were requested to start, as soon as their dependencies run.<br><br>
+  *
+  * The dependsOn names are resolved once into a graph, which is rebuilt when the services change.
+  * Each requested service counts its dependencies that are not running yet. A state change of a
+  * service only updates the counts of the services that depend on it, and a requested service of
+  * which the count drops to zero is queued to be started. So starting services costs work in the
+  * order of the number of dependencies, instead of a scan of all requested services and their
+  * dependencies on every state change.<br><br>
+  *
+  * Unless starting in parallel, only one service is starting at a time. The time services took to
+  * start is remembered, so the critical path (the chain of dependencies that takes longest to
+  * start) can be reported.
+  */
+public class StartScheduler {
+    private final Consumer<Service>  onWaiting;   // called when a requested service has to wait
+    private final Consumer<Service>  starter;
+    private final Map<Service,Node>  nodes        = new IdentityHashMap<>();
+    private final Set<Node>          requested    = new LinkedHashSet<>(); // in order of request
+    private final Deque<Node>        ready        = new ArrayDeque<>();
+    private       int                startingCount;
+    private       boolean            parallel;
+    private       boolean            ignoreDeps;
+
+    private static final class Node {
+        final Service      service;
+        final List<Node>   dependencies = new ArrayList<>();
+        final List<Node>   dependents   = new ArrayList<>();
+        final List<String> unknownDependencies = new ArrayList<>();
+        boolean            runningOk;   // running and done starting, so dependents can start
+        boolean            starting;
+        boolean            queued;
+        int                unmet;       // dependencies not runningOk, only kept up to date when requested
+        long               startingSince;
+        long               startDurationMs;
+        Node(Service service) { this.service = service; }
+    }
+
+    /** Dependencies of services on the critical path, in start order */
+    public static class CriticalPath {
+        public final List<String> services;
+        public final long         durationMs; // sum of the last start durations of the services
+        CriticalPath(List<String> services, long durationMs) {
+            this.services = services;
+            this.durationMs = durationMs;
+        }
+    }
+
+    public StartScheduler(Consumer<Service> onWaiting) {
+        this(onWaiting, service -> service.runner.start());
+    }
+    StartScheduler(Consumer<Service> onWaiting, Consumer<Service> starter) {
+        this.onWaiting = onWaiting;
+        this.starter = starter;
+    }
+
+    /** Rebuilds the dependency graph. Requests for services that are no longer in the list are dropped. */
+    public synchronized void setServices(List<Service> services) {
+        final Map<Service,Node> oldNodes = new IdentityHashMap<>(nodes);
+        final List<Service> requestedServices = requested.stream().map(node -> node.service).collect(Collectors.toList());
+        nodes.clear();
+        requested.clear();
+        ready.clear();
+
+        final Map<String,Node> byName = new HashMap<>();
+        for(final Service service : services) {
+            final Node node = new Node(service);
+            final Node old = oldNodes.get(service);
+            if(old != null) node.startDurationMs = old.startDurationMs;
+            nodes.put(service, node);
+            byName.putIfAbsent(Util.or(service.getName(), ""), node);
+        }
+        for(final Node node : nodes.values()) {
+            for(final String depName : node.service.getDependsOn()) {
+                final Node dep = byName.get(depName);
+                if(dep == null) { node.unknownDependencies.add(depName); continue; }
+                node.dependencies.add(dep);
+                dep.dependents.add(node);
+            }
+        }
+        requestedServices.stream().map(nodes::get).filter(node -> node != null).forEach(requested::add);
+        resync();
+    }
+
+    public synchronized void setParallel(boolean set) { parallel = set; }
+    public synchronized void setIgnoreDependencies(boolean set) { ignoreDeps = set; }
+
+    /** Dependencies of the service (none when ignoring dependencies) */
+    public synchronized List<Service> getDependenciesOf(Service service) {
+        final Node node = nodes.get(service);
+        if(node == null || ignoreDeps) return Collections.emptyList();
+        return node.dependencies.stream().map(dep -> dep.service).collect(Collectors.toList());
+    }
+
+    public synchronized boolean isRequested(Service service) {
+        final Node node = nodes.get(service);
+        return node != null && requested.contains(node);
+    }
+
+    /** Requests the service to start as soon as its dependencies are running */
+    public synchronized void request(Service service) {
+        final Node node = nodes.get(service);
+        if(node == null || !requested.add(node)) return;
+        if(!node.service.state.isWaiting()) {
+            node.unknownDependencies.forEach(depName -> service.logger.logError("Unknown dependency: " + depName));
+        }
+        if(isDone(node)) { requested.remove(node); return; }
+        node.unmet = ignoreDeps ? 0 : (int)node.dependencies.stream().filter(dep -> !dep.runningOk).count();
+        if(!node.service.state.isStarting() && !node.service.state.isWaiting() && !node.service.state.isInitError()) onWaiting.accept(service);
+        if(node.unmet == 0) enqueue(node);
+        dispatch();
+    }
+
+    /** Returns true when the service was requested */
+    public synchronized boolean cancel(Service service) {
+        final Node node = nodes.get(service);
+        return node != null && requested.remove(node);
+    }
+
+    public synchronized void clear() {
+        requested.clear();
+        ready.clear();
+        nodes.values().forEach(node -> node.queued = false);
+    }
+
+    /** Handles a state change of a service: only the services depending on it are updated */
+    public synchronized void stateChanged(Service service) {
+        final Node node = nodes.get(service);
+        if(node == null) return;
+        final ServiceState state = service.state;
+
+        final boolean starting = state.isStarting();
+        if(starting != node.starting) {
+            node.starting = starting;
+            startingCount += starting ? 1 : -1;
+            if(starting) node.startingSince = System.currentTimeMillis();
+            else if(state.isRunningOk() && node.startingSince > 0) node.startDurationMs = System.currentTimeMillis() - node.startingSince;
+        }
+        final boolean runningOk = state.isRunningOk() && !starting;
+        if(runningOk != node.runningOk) {
+            node.runningOk = runningOk;
+            for(final Node dependent : node.dependents) {
+                if(!requested.contains(dependent) || ignoreDeps) continue;
+                dependent.unmet += runningOk ? -1 : 1;
+                if(dependent.unmet == 0) enqueue(dependent);
+            }
+        }
+        if(requested.contains(node)) {
+            if(isDone(node)) requested.remove(node);
+            else if(node.unmet == 0) enqueue(node); // e.g. became waiting
+        }
+        dispatch();
+    }
+
+    /** Recalculates everything from the current states (e.g. after changing the flags) */
+    public synchronized void resync() {
+        startingCount = 0;
+        for(final Node node : nodes.values()) {
+            node.starting = node.service.state.isStarting();
+            node.runningOk = node.service.state.isRunningOk() && !node.starting;
+            node.queued = false;
+            if(node.starting) startingCount++;
+        }
+        requested.removeIf(StartScheduler::isDone);
+        ready.clear();
+        for(final Node node : requested) {
+            node.unmet = ignoreDeps ? 0 : (int)node.dependencies.stream().filter(dep -> !dep.runningOk).count();
+            if(!node.service.state.isStarting() && !node.service.state.isWaiting() && !node.service.state.isInitError()) onWaiting.accept(node.service);
+            if(node.unmet == 0) enqueue(node);
+        }
+        dispatch();
+    }
+
+    /** Longest chain of dependencies, by the last start durations. Ends at the given service, or
+      * when null at any service.
+      */
+    public synchronized CriticalPath getCriticalPath(Service target) {
+        final Map<Node,Long> longest = new HashMap<>();
+        final Map<Node,Node> previous = new HashMap<>();
+        final Set<Node> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<Node> ends = new ArrayList<>();
+        if(target == null) ends.addAll(nodes.values());
+        else if(nodes.containsKey(target)) ends.add(nodes.get(target));
+
+        Node end = null;
+        for(final Node node : ends) {
+            final long duration = longestPathTo(node, longest, previous, visiting);
+            if(end == null || duration > longest.get(end)) end = node;
+        }
+        final List<String> path = new ArrayList<>();
+        for(Node node = end; node != null; node = previous.get(node)) path.add(0, node.service.getName());
+        return new CriticalPath(path, end == null ? 0 : longest.get(end));
+    }
+    private static long longestPathTo(Node node, Map<Node,Long> longest, Map<Node,Node> previous, Set<Node> visiting) {
+        final Long known = longest.get(node);
+        if(known != null) return known;
+        if(!visiting.add(node)) return 0; // dependency cycle
+        long max = 0;
+        Node maxDep = null;
+        for(final Node dep : node.dependencies) {
+            final long duration = longestPathTo(dep, longest, previous, visiting);
+            if(maxDep == null || duration > max) { max = duration; maxDep = dep; }
+        }
+        if(maxDep != null) previous.put(node, maxDep);
+        visiting.remove(node);
+        longest.put(node, max + node.startDurationMs);
+        return max + node.startDurationMs;
+    }
+
+    private static boolean isDone(Node node) {
+        final ServiceState state = node.service.state;
+        return state.isRunning() || state.isInitError() || state.isExitError();
+    }
+
+    private void enqueue(Node node) {
+        if(node.queued) return;
+        node.queued = true;
+        ready.add(node);
+    }
+
+    private void dispatch() {
+        while(!ready.isEmpty() && (parallel || startingCount == 0)) {
+            final Node node = ready.poll();
+            node.queued = false;
+            if(!requested.contains(node) || node.unmet > 0) continue;
+            final ServiceState state = node.service.state;
+            if(state.isRunning() || state.isInitError() || !state.isWaiting() || !node.service.getRunner().canBeStarted()) continue;
+            starter.accept(node.service);
+            if(!node.starting) { // until its state changes, so no other service is started meanwhile
+                node.starting = true;
+                node.startingSince = System.currentTimeMillis();
+                startingCount++;
+            }
+        }
+    }
+}
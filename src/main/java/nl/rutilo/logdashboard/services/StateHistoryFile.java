@@ -0,0 +1,159 @@
+package nl.rutilo.logdashboard.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Fixed size memory-mapped file that mirrors the rows of a ServicesStateHistory, so the history
+  * survives a restart or crash of the dashboard.<br><br>
+  *
+  * Layout: a header, two areas for the service keys (name and jar location) and a ring of rows of
+  * a time, a generation and a packed column per service. Writes go to the mapped pages, so they are
+  * kept by the OS when the process dies; force() is only called when a row starts or the keys change.<br><br>
+  *
+  * To stay consistent after a crash halfway a write, a new row is written completely before the
+  * header points to it, and new service keys are written to the inactive key area before the
+  * header switches to it. Both header switches are a single aligned long write. Rows are marked
+  * with the generation of the keys they were written for, so when the dashboard dies while all
+  * rows are rewritten for new keys, the rows that don't match the keys are dropped instead of
+  * attributed to the wrong services.
+  */
+class StateHistoryFile {
+    private static final int MAGIC          = 0x4c445348; // LDSH
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE    = 64;
+    private static final int KEYS_SIZE      = 32 * 1024;
+    private static final int POS_MAGIC      = 0;
+    private static final int POS_FORMAT     = 4;
+    private static final int POS_CAPACITY   = 8;
+    private static final int POS_MAX_COLS   = 12;
+    private static final int POS_RESOLUTION = 16;
+    private static final int POS_RING       = 24; // newest row << 32 | row count
+    private static final int POS_KEYS       = 32; // generation << 17 | key area << 16 | length
+    private final        File             file;
+    private final        int              capacity;
+    private final        int              maxColumns;
+    private final        MappedByteBuffer buffer;
+    private              long             generation;
+
+    /** Contents of the file: keys of the services of the columns, and the rows from old to new */
+    static final class Contents {
+        final List<String> keys  = new ArrayList<>();
+        final List<Long>   times = new ArrayList<>();
+        final List<long[]> rows  = new ArrayList<>();
+    }
+
+    /** Creates the file, or clears it when it has a different format */
+    StateHistoryFile(File file, int capacity, int maxColumns, long resolutionMs) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.maxColumns = maxColumns;
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null) dir.mkdirs();
+        final long size = HEADER_SIZE + 2L * KEYS_SIZE + (long)capacity * rowSize();
+        try(final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final boolean matches = raf.length() == size
+                && raf.readInt() == MAGIC
+                && raf.readInt() == FORMAT_VERSION
+                && raf.readInt() == capacity
+                && raf.readInt() == maxColumns
+                && raf.readLong() == resolutionMs;
+            if(!matches) raf.setLength(0);
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if(!matches) {
+                buffer.putInt(POS_MAGIC, MAGIC);
+                buffer.putInt(POS_FORMAT, FORMAT_VERSION);
+                buffer.putInt(POS_CAPACITY, capacity);
+                buffer.putInt(POS_MAX_COLS, maxColumns);
+                buffer.putLong(POS_RESOLUTION, resolutionMs);
+                buffer.force();
+            }
+            generation = buffer.getLong(POS_KEYS) >>> 17;
+        }
+    }
+
+    File getFile() { return file; }
+    int getMaxColumns() { return maxColumns; }
+
+    /** Key to recognize a service after a restart, also when it was renamed (see Services.getServiceLike) */
+    static String keyOf(Service service) {
+        final String location = service.getLocationType() == Service.LocationType.JAR && service.getLocation() != null ? service.getLocation() : "";
+        return service.getName() + "\t" + location;
+    }
+    static String nameOfKey(String key) { return key.substring(0, key.indexOf('\t')); }
+    static String locationOfKey(String key) { return key.substring(key.indexOf('\t') + 1); }
+
+    Contents read() {
+        final Contents contents = new Contents();
+        final long keys = buffer.getLong(POS_KEYS);
+        final int keysLength = (int)(keys & 0xFFFF);
+        if(keysLength > 0 && keysLength <= KEYS_SIZE) {
+            final byte[] bytes = new byte[keysLength];
+            for(int i=0; i<keysLength; i++) bytes[i] = buffer.get(keysPosition((int)(keys >>> 16) & 1) + i);
+            for(final String key : new String(bytes, StandardCharsets.UTF_8).split("\n")) if(key.contains("\t")) contents.keys.add(key);
+        }
+        final long ring = buffer.getLong(POS_RING);
+        final int newest = (int)(ring >>> 32);
+        final int rowCount = (int)ring;
+        if(newest < 0 || newest >= capacity || rowCount < 0 || rowCount > capacity) return contents;
+        final int columnCount = Math.min(contents.keys.size(), maxColumns);
+        for(int n=rowCount-1; n>=0; n--) {
+            final int position = rowPosition(Math.floorMod(newest - n, capacity));
+            if(buffer.getLong(position + 8) != generation) continue;
+            final long[] columns = new long[columnCount];
+            for(int i=0; i<columnCount; i++) columns[i] = buffer.getLong(position + 16 + i * 8);
+            contents.times.add(buffer.getLong(position));
+            contents.rows.add(columns);
+        }
+        return contents;
+    }
+
+    /** Writes all rows for the (new) keys of the columns */
+    void writeAll(List<String> keys, int newest, int rowCount, long[] times, long[][] rows) {
+        generation++;
+        for(int n=0; n<rowCount; n++) {
+            final int row = Math.floorMod(newest - n, capacity);
+            writeRow(row, times[row], rows[row]);
+        }
+        buffer.putLong(POS_RING, (long)newest << 32 | rowCount);
+        buffer.force();
+
+        final byte[] bytes = String.join("\n", keys).getBytes(StandardCharsets.UTF_8);
+        final int length = Math.min(bytes.length, KEYS_SIZE);
+        final int area = 1 - (int)(buffer.getLong(POS_KEYS) >>> 16 & 1); // the inactive one
+        for(int i=0; i<length; i++) buffer.put(keysPosition(area) + i, bytes[i]);
+        buffer.force();
+        buffer.putLong(POS_KEYS, generation << 17 | (long)area << 16 | length);
+        buffer.force();
+    }
+
+    /** Writes a new row before pointing the header to it */
+    void startRow(int newest, int rowCount, long time, long[] columns) {
+        writeRow(newest, time, columns);
+        buffer.putLong(POS_RING, (long)newest << 32 | rowCount);
+        buffer.force();
+    }
+
+    void writeColumn(int row, int index, long column) {
+        if(index < maxColumns) buffer.putLong(rowPosition(row) + 16 + index * 8, column);
+    }
+
+    void force() { buffer.force(); }
+
+    private void writeRow(int row, long time, long[] columns) {
+        final int position = rowPosition(row);
+        buffer.putLong(position, time);
+        buffer.putLong(position + 8, generation);
+        for(int i=0; i<maxColumns; i++) buffer.putLong(position + 16 + i * 8, i < columns.length ? columns[i] : 0);
+    }
+
+    private int rowSize() { return 16 + 8 * maxColumns; }
+    private int rowPosition(int row) { return HEADER_SIZE + 2 * KEYS_SIZE + row * rowSize(); }
+    private static int keysPosition(int area) { return HEADER_SIZE + (area == 0 ? 0 : KEYS_SIZE); }
+}
@@ -0,0 +1,24 @@
+package nl.rutilo.logdashboard.services;
+
+/** Encoding of messages sent over the websocket. A client chooses the format per subscription:
+  * the compact variant of a topic is the topic with the COMPACT suffix (see CompactEncoder).
+  * Clients that subscribe to the plain topic get JSON.
+  */
+public enum WireFormat {
+    JSON(""), COMPACT(".compact");
+
+    public final String suffix;
+
+    WireFormat(String suffix) { this.suffix = suffix; }
+
+    public String destinationOf(String topic) { return topic + suffix; }
+
+    public static WireFormat of(String destination) {
+        return destination != null && destination.endsWith(COMPACT.suffix) ? COMPACT : JSON;
+    }
+
+    /** Returns the destination without the format suffix */
+    public static String topicOf(String destination) {
+        return destination == null ? null : destination.substring(0, destination.length() - of(destination).suffix.length());
+    }
+}
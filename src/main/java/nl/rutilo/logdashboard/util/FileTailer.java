@@ -0,0 +1,195 @@
+package nl.rutilo.logdashboard.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** Follows a growing (log) file, like 'tail -F'.<br><br>
+  *
+  * The file channel is kept open between polls and read incrementally into a reused direct buffer.
+  * The identity of the file (file key, or creation time when the platform has no file key) is
+  * checked on each poll, so rotation by rename/recreate is detected as well as truncation.
+  * Use awaitChange() to wait for a file system notification instead of sleeping a fixed time.<br><br>
+  *
+  * close() may be called from another thread, which also stops a waiting awaitChange().
+  */
+public class FileTailer implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Path           path;
+    private final long           maxBlockSize;
+    private       CharsetDecoder decoder;
+    private final ByteBuffer     bytes        = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharBuffer     chars        = CharBuffer.allocate(BUFFER_SIZE);
+    private final StringBuilder  partialLine  = new StringBuilder();
+    private       FileChannel    channel;     // null when not (yet) opened
+    private       Object         fileId;
+    private       long           position;
+    private       boolean        skipLine;    // true when starting halfway a line
+    private       boolean        afterCR;
+    private       WatchService   watcher;     // null when not (yet) watching
+    private volatile boolean     closed;
+
+    /** maxBlockSize is the maximum number of bytes to read at once. When more than that is
+      * appended (or a file is opened), only the last maxBlockSize bytes are read.
+      */
+    public FileTailer(Path path, Charset charset, long maxBlockSize) {
+        this.path = path;
+        this.maxBlockSize = maxBlockSize;
+        this.decoder = newDecoder(charset);
+    }
+    private static CharsetDecoder newDecoder(Charset charset) {
+        return charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    public Path getPath() { return path; }
+    public synchronized Charset getCharset() { return decoder.charset(); }
+
+    /** Decodes what is read from now on with the given charset, continuing at the same position */
+    public synchronized void setCharset(Charset charset) {
+        if(!charset.equals(decoder.charset())) decoder = newDecoder(charset);
+    }
+    public boolean exists() { return Files.isRegularFile(path); }
+
+    /** Reads what was appended since the previous poll and calls lineHandler for each complete line.
+      * The resetHandler is called before reading when the file was (re)opened from the start:
+      * the first time, after rotation or after truncation. Returns false if the file does not exist.
+      */
+    public synchronized boolean poll(Runnable resetHandler, Consumer<String> lineHandler) throws IOException {
+        if(closed) return false;
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch(final NoSuchFileException gone) {
+            closeChannel(); // don't keep a deleted file open
+            return false;
+        }
+        final Object id = Util.or(attrs.fileKey(), attrs.creationTime());
+        final long   size = attrs.size();
+
+        if(channel == null || !Objects.equals(id, fileId) || size < position) {
+            closeChannel();
+            // FileChannel opens with share-delete on Windows, so the writer can still rotate the file
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            fileId = id;
+            resetHandler.run();
+            restartAt(Math.max(0, size - maxBlockSize));
+        } else if(size - position > maxBlockSize) {
+            restartAt(size - maxBlockSize); // too much to handle: skip to the end
+        }
+        read(channel.size(), lineHandler);
+        return true;
+    }
+
+    private void restartAt(long newPosition) {
+        position = newPosition;
+        skipLine = newPosition > 0;
+        afterCR = false;
+        partialLine.setLength(0);
+        decoder.reset();
+        bytes.clear();
+    }
+
+    private void read(long end, Consumer<String> lineHandler) throws IOException {
+        while(position < end) {
+            final int count = channel.read(bytes, position);
+            if(count <= 0) break;
+            position += count;
+            bytes.flip();
+            chars.clear();
+            decoder.decode(bytes, chars, false);
+            bytes.compact(); // keep any incomplete multi-byte sequence for the next read
+            chars.flip();
+            splitLines(lineHandler);
+        }
+    }
+
+    private void splitLines(Consumer<String> lineHandler) {
+        while(chars.hasRemaining()) {
+            final char c = chars.get();
+            if(c == '\n' && afterCR) { afterCR = false; continue; } // CRLF
+            afterCR = c == '\r';
+            if(c == '\n' || c == '\r') {
+                if(!skipLine) lineHandler.accept(partialLine.toString());
+                skipLine = false;
+                partialLine.setLength(0);
+            } else {
+                partialLine.append(c);
+            }
+        }
+    }
+
+    /** Blocks until the file may have changed or timeoutMs passed, whichever comes first.
+      * Falls back to just waiting when the file system cannot be watched.
+      */
+    public void awaitChange(long timeoutMs) {
+        if(closed) return;
+        try {
+            final WatchService ws = getWatcher();
+            if(ws == null) { Util.sleep(Duration.ofMillis(timeoutMs)); return; }
+
+            final long endTime = System.currentTimeMillis() + timeoutMs;
+            for(long waitMs = timeoutMs; waitMs > 0 && !closed; waitMs = endTime - System.currentTimeMillis()) {
+                final WatchKey key = ws.poll(waitMs, TimeUnit.MILLISECONDS);
+                if(key == null) return;
+                boolean isChanged = false;
+                for(final WatchEvent<?> event : key.pollEvents()) {
+                    isChanged |= event.kind() == OVERFLOW || path.getFileName().equals(event.context());
+                }
+                key.reset();
+                if(isChanged) return;
+            }
+        } catch(final InterruptedException | ClosedWatchServiceException e) {
+            // return
+        }
+    }
+    private synchronized WatchService getWatcher() {
+        if(watcher == null && !closed) {
+            final Path dir = path.toAbsolutePath().getParent();
+            try {
+                watcher = dir.getFileSystem().newWatchService();
+                dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } catch(final IOException | UnsupportedOperationException e) {
+                closeWatcher(); // dir does not exist (yet): retry next time
+            }
+        }
+        return watcher;
+    }
+    private synchronized void closeWatcher() {
+        if(watcher != null) try { watcher.close(); } catch(final IOException ignored) { /*ignored*/ }
+        watcher = null;
+    }
+    private void closeChannel() {
+        if(channel != null) try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+        channel = null;
+        fileId = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        closeWatcher();
+        closeChannel();
+    }
+}
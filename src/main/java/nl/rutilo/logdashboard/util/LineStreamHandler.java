@@ -2,6 +2,12 @@ package nl.rutilo.logdashboard.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Spliterator;
@@ -10,14 +16,36 @@ import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+/** Splits a stream into lines, handling CR (overwrite), CRLF and BS (backspace) like a terminal would.<br><br>
+  *
+  * The stream is read in blocks into a reused buffer and decoded using the given charset,
+  * so multi-byte characters (that may be split over blocks) are decoded correctly.<br><br>
+  *
+  * Instead of reading from a stream (pull), data can also be fed (push) using feed() and end(),
+  * so no thread has to block on the input. Lines are then given as soon as they are complete.
+  */
 public class LineStreamHandler {
-    private final InputStream stream;
+    private static final int  BUFFER_SIZE   = IOUtil.COPY_BUFFER_SIZE;
     private static final char LF            = '\n';
     private static final char CR            = '\r';
     private static final char BS            = '\b';
-    private String            nextLineInit  = "";
-    private boolean           nextOverwrite = false;
-    private int               peekByte      = -1;
+    private static final int  NO_DATA       = -2; // push mode: no more data until the next feed
+    private final InputStream    stream;        // null in push mode
+    private final CharsetDecoder decoder;
+    private final ByteBuffer     bytes         = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer     chars         = CharBuffer.allocate(BUFFER_SIZE);
+    private boolean              endOfInput    = false;
+    private String               nextLineInit  = "";
+    private boolean              nextOverwrite = false;
+    private int                  peekChar      = -1;
+
+    // State of the line being built, kept when data runs out before the end of line (push mode)
+    private StringBuilder        line;          // null when no line is being built
+    private boolean              replacing;
+    private boolean              overwrite;
+    private int                  index;
+    private int                  readCount;
+    private String               crLine;        // line ended by CR: overwritten by the next line unless LF follows
 
     public static final class Line {
         public final String text;
@@ -30,59 +58,105 @@ public class LineStreamHandler {
     }
 
     public LineStreamHandler(InputStream in) {
+        this(in, IOUtil.TEXT_CHARSET);
+    }
+    /** Handler for push mode: use feed() and end() */
+    public LineStreamHandler(Charset charset) {
+        this(null, charset);
+    }
+    public LineStreamHandler(InputStream in, Charset charset) {
         stream = in;
+        decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars.flip(); // nothing decoded yet
+    }
+
+    /** Returns the next decoded character or -1 at end of stream. Blocks only when no decoded chars are left.
+      * In push mode NO_DATA is returned when all fed data is used.
+      */
+    private int read() throws IOException {
+        while(!chars.hasRemaining()) {
+            if(endOfInput && bytes.position() == 0) return -1;
+            if(stream == null && !endOfInput) {
+                fill();
+                return chars.hasRemaining() ? chars.get() : NO_DATA;
+            }
+            fill();
+        }
+        return chars.get();
+    }
+    private void fill() throws IOException {
+        if(!endOfInput && stream != null) {
+            final int count = stream.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            if (count < 0) endOfInput = true; else bytes.position(bytes.position() + count);
+        }
+        bytes.flip();
+        chars.clear();
+        final CoderResult result = decoder.decode(bytes, chars, endOfInput);
+        if(endOfInput && result.isUnderflow()) decoder.flush(chars);
+        chars.flip();
+        bytes.compact(); // keep any incomplete multi-byte sequence for the next fill
     }
 
+    /** Returns the next line, or null at end of stream (or when fed data is used up, in push mode) */
     private Line nextLine() {
-        final StringBuilder sb = new StringBuilder(nextLineInit);
-        final boolean replacing = sb.length() != 0;
-        final boolean overwrite = nextOverwrite;
-        boolean done = false;
-        boolean endOfStream = false;
-        int index = 0;
-        int readCount = 0;
-        nextLineInit = "";
-        nextOverwrite = false;
+        try {
+            if(line == null) {
+                if(crLine != null) {
+                    // optimization: CR followed by a LF can be interpreted as just an LF
+                    //               This prevents a duplicate overwrite.
+                    final int b = peekChar >= 0 ? peekChar : read();
+                    if(b == NO_DATA) return null;
+                    peekChar = b == LF ? -1 : b;
+                    if(b != LF) {
+                        nextLineInit = crLine;
+                        nextOverwrite = true;
+                    }
+                    crLine = null;
+                }
+                line = new StringBuilder(nextLineInit);
+                replacing = line.length() != 0;
+                overwrite = nextOverwrite;
+                index = 0;
+                readCount = 0;
+                nextLineInit = "";
+                nextOverwrite = false;
+            }
 
-        while(!done) {
-            try {
-                final int b = peekByte >= 0 ? peekByte : stream.read();
-                peekByte = -1;
+            while(true) {
+                final int b = peekChar >= 0 ? peekChar : read();
+                if(b == NO_DATA) return null;
+                peekChar = -1;
                 if(b != ' ') readCount++;
 
-                if(b < 0) { endOfStream = sb.length() == 0; done = true; }
-                else
+                if(b < 0) return line.length() == 0 ? endLine(null) : endLine(line.toString());
                 switch(b) {
-                    case LF: done = true; break;
+                    case LF: return endLine(line.toString());
                     case CR:
-                        done = true;
-                        // optimization: CR followed by a LF can be interpreted as just an LF
-                        //               This prevents a duplicate overwrite.
-                        peekByte = stream.read();
-                        if(peekByte == LF) {
-                            peekByte = -1;
-                        } else {
-                            nextLineInit = sb.toString();
-                            nextOverwrite = true;
-                        }
-                        break;
+                        crLine = line.toString();
+                        return endLine(crLine);
                     case BS:
                         if(readCount == 1) {
-                            if(overwrite) removeAt(sb, index--); else removeLastOf(sb);
+                            if(overwrite) removeAt(line, index--); else removeLastOf(line);
                             readCount--;
                         } else {
-                            done = true;
-                            nextLineInit = removeLastOf(sb.toString());
+                            nextLineInit = removeLastOf(line.toString());
+                            return endLine(line.toString());
                         }
                         break;
                     default:
-                        if(overwrite && index < sb.length()) sb.setCharAt(index++, (char)b); else sb.append((char)b);
+                        if(overwrite && index < line.length()) line.setCharAt(index++, (char)b); else line.append((char)b);
                 }
-            } catch (final IOException ignored) {
-                return null;
             }
+        } catch (final IOException ignored) {
+            return null;
         }
-        return endOfStream ? null : new Line(sb.toString(), replacing);
+    }
+    private Line endLine(String text) {
+        final boolean wasReplacing = replacing;
+        line = null;
+        return text == null ? null : new Line(text, wasReplacing);
     }
     private static String removeLastOf(String s) { return s.isEmpty() ? "" : s.substring(0, s.length()-1); }
     private static void removeLastOf(StringBuilder sb) { if(sb.length() > 0) sb.setLength(sb.length()-1); }
@@ -108,6 +182,23 @@ public class LineStreamHandler {
         };
     }
 
+    /** Push mode: handles the given data, calling linesConsumer for each line that is complete */
+    public void feed(byte[] data, int offset, int length, Consumer<Line> linesConsumer) {
+        int pos = offset;
+        final int end = offset + length;
+        while(pos < end) {
+            final int count = Math.min(bytes.remaining(), end - pos);
+            bytes.put(data, pos, count);
+            pos += count;
+            for(Line next = nextLine(); next != null; next = nextLine()) linesConsumer.accept(next);
+        }
+    }
+    /** Push mode: no more data will be fed, so the remaining (incomplete) line is given as well */
+    public void end(Consumer<Line> linesConsumer) {
+        endOfInput = true;
+        for(Line next = nextLine(); next != null; next = nextLine()) linesConsumer.accept(next);
+    }
+
     public Stream<Line> stream() {
         return StreamSupport.stream(
             Spliterators.spliterator(iterator(), /*initial size=*/0L, Spliterator.NONNULL),
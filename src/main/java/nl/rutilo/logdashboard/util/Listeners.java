@@ -2,22 +2,82 @@ package nl.rutilo.logdashboard.util;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/** Listeners that are called with a parameter. When debounced, calls are not done on the calling
+  * thread but by a dispatcher thread, and calls with the same parameter object (by identity) that
+  * are not dispatched yet are coalesced into one call. A debounced Listeners is called at most once
+  * per minimum interval: the first call after a quiet period is dispatched right away, later calls
+  * wait until the interval since the previous dispatch has passed. The dispatcher sleeps until a
+  * call is due instead of polling. The latency between a call and its dispatch is measured.
+  */
 public class Listeners<T> {
-    @JsonIgnore private static final Map<Listeners<?>, Set<Object>> calls = new HashMap<>();
-    @JsonIgnore private final  List<Consumer<T>>     listeners = new ArrayList<>();
-    @JsonIgnore private        boolean               debounced = false;
+    public static final Duration DEFAULT_MIN_INTERVAL = Duration.ofMillis(100);
+    private static final DelayQueue<Due> dueQueue    = new DelayQueue<>();
+    private static final Stats           allStats    = new Stats();
+    @JsonIgnore private final  List<Consumer<T>>     listeners     = new ArrayList<>();
+    @JsonIgnore private final  List<T>               pending       = new ArrayList<>(); // in order of first call
+    @JsonIgnore private final  Map<T,Long>           pendingSince  = new IdentityHashMap<>(); // nanoTime of first call
+    @JsonIgnore private final  Stats                 stats         = new Stats();
+    @JsonIgnore private        boolean               debounced     = false;
+    @JsonIgnore private        long                  minIntervalNs = DEFAULT_MIN_INTERVAL.toNanos();
+    @JsonIgnore private        boolean               isDue;        // in the dueQueue
+    @JsonIgnore private        long                  lastDispatchNs;
+    @JsonIgnore private        boolean               hasDispatched;
 
     static {
-        final Thread t = new Thread(Listeners::checkCalls);
+        final Thread t = new Thread(Listeners::dispatchLoop, "Listeners");
         t.setDaemon(true);
         t.start();
     }
 
+    /** Dispatch statistics of debounced calls */
+    public static class Metrics {
+        public final long   dispatched;   // calls done
+        public final long   coalesced;    // calls merged into a call not dispatched yet
+        public final double avgLatencyMs; // between first call and dispatch
+        public final double maxLatencyMs;
+        private Metrics(Stats stats) {
+            synchronized(stats) {
+                dispatched   = stats.dispatched;
+                coalesced    = stats.coalesced;
+                avgLatencyMs = stats.dispatched == 0 ? 0 : stats.totalLatencyNs / 1e6 / stats.dispatched;
+                maxLatencyMs = stats.maxLatencyNs / 1e6;
+            }
+        }
+    }
+    private static final class Stats {
+        long dispatched;
+        long coalesced;
+        long totalLatencyNs;
+        long maxLatencyNs;
+        synchronized void addCoalesced() { coalesced++; }
+        synchronized void addDispatched(long latencyNs) {
+            dispatched++;
+            totalLatencyNs += latencyNs;
+            maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+        }
+    }
+
+    private static final class Due implements Delayed {
+        final Listeners<?> listeners;
+        final long         dueNs;
+        Due(Listeners<?> listeners, long dueNs) { this.listeners = listeners; this.dueNs = dueNs; }
+        @Override public long getDelay(TimeUnit unit) { return unit.convert(dueNs - System.nanoTime(), TimeUnit.NANOSECONDS); }
+        @Override public int compareTo(Delayed other) { return Long.compare(dueNs, ((Due)other).dueNs); }
+    }
+
     public Listeners<T> debounced() { return debounced(true); }
     public Listeners<T> debounced(boolean set) { debounced = set; return this; }
+    public Listeners<T> debounced(Duration minInterval) {
+        synchronized(pending) { minIntervalNs = minInterval.toNanos(); }
+        return debounced(true);
+    }
 
     public void add(Consumer<T> listener) {
         synchronized (listeners) { listeners.add(listener); }
@@ -27,36 +87,63 @@ public class Listeners<T> {
     }
     public void call(T param) {
         if (debounced) {
-            synchronized(calls) {
-                if (!calls.containsKey(this)) calls.put(this, new TreeSet<>());
-                calls.get(this).add(param);
+            final long now = System.nanoTime();
+            final long dueNs;
+            synchronized(pending) {
+                if(pendingSince.containsKey(param)) { stats.addCoalesced(); allStats.addCoalesced(); return; }
+                pendingSince.put(param, now);
+                pending.add(param);
+                if(isDue) return;
+                isDue = true;
+                dueNs = hasDispatched && now - lastDispatchNs < minIntervalNs ? lastDispatchNs + minIntervalNs : now;
             }
+            dueQueue.add(new Due(this, dueNs));
         } else {
             doCall(param);
         }
     }
-    private void doCall(Object param) {
+    private void doCall(T param) {
         final List<Consumer<T>> copy;
         synchronized(listeners) { copy = new ArrayList<>(listeners); }
-        //noinspection unchecked
-        copy.forEach(l -> l.accept((T)param));
+        copy.forEach(l -> l.accept(param));
+    }
+
+    /** Dispatch statistics of this Listeners */
+    public Metrics getMetrics() { return new Metrics(stats); }
+    /** Dispatch statistics of all debounced Listeners */
+    public static Metrics getAllMetrics() { return new Metrics(allStats); }
+
+    private void dispatch() {
+        final List<T> params;
+        final long[] since;
+        synchronized(pending) {
+            // call() may be called by a listener, so call with a copy
+            params = new ArrayList<>(pending);
+            since = params.stream().mapToLong(pendingSince::get).toArray();
+            pending.clear();
+            pendingSince.clear();
+            isDue = false;
+            hasDispatched = true;
+            lastDispatchNs = System.nanoTime();
+        }
+        for(int i=0; i<params.size(); i++) {
+            final long latency = System.nanoTime() - since[i];
+            stats.addDispatched(latency);
+            allStats.addDispatched(latency);
+            try {
+                doCall(params.get(i));
+            } catch(final RuntimeException e) {
+                e.printStackTrace(); // don't let one listener stop the dispatching
+            }
+        }
     }
 
-    private static void checkCalls() {
+    private static void dispatchLoop() {
         for(;;) {
-            try { Thread.sleep(250); } catch(final InterruptedException ignored) { break; }
-
-            if(!calls.isEmpty()) {
-                final HashMap<Listeners<?>, Set<Object>> callsCopy;
-                synchronized (calls) {
-                    callsCopy = new HashMap<>();
-                    calls.forEach((key, value) -> callsCopy.put(key, new TreeSet<Object>(value)));
-                    calls.clear();
-                }
-                // call() may be called by the listener
-                // to prevent ConcurrentModificationException,
-                // do forEach() on copy.
-                callsCopy.forEach((listeners, params) -> params.forEach(listeners::doCall));
+            try {
+                dueQueue.take().listeners.dispatch();
+            } catch(final InterruptedException ignored) {
+                break;
             }
         }
     }
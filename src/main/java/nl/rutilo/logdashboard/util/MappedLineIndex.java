@@ -0,0 +1,222 @@
+package nl.rutilo.logdashboard.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/** Index of the lines of a (large) text file, so any range of lines can be read without loading
+  * the file onto the heap. The initial index is built in parallel chunks and update() indexes lines
+  * appended since the previous call.<br><br>
+  *
+  * The file is memory-mapped in fixed size chunks. A chunk is mapped once, when the file has grown
+  * past its end, so a file that is being tailed doesn't pile up mappings of its growing end. The
+  * part after the last full chunk is read with positional reads.<br><br>
+  *
+  * The index is sparse: the offset of every SPARSE_LINES-th line is kept, and reading a line scans
+  * from the nearest kept offset. So the index grows with the file by 16 bytes per SPARSE_LINES lines.<br><br>
+  *
+  * Lines end with LF (a CR before it is removed). The last line is only indexed when it is complete.
+  * All methods are synchronized so the index can be updated and read from different threads.
+  */
+public class MappedLineIndex implements Closeable {
+    private static final long MAP_CHUNK_SIZE   = 64L << 20; // size of a single mapping
+    private static final int  INDEX_CHUNK_SIZE = 16 << 20;  // unit of parallel indexing
+    private static final int  SPARSE_LINES     = 64;        // one offset is kept per this many lines
+    private static final int  BLOCK_SIZE       = 64 * 1024; // unit of reading
+    private static final int  MAX_LINE_LENGTH  = 64 * 1024; // longer lines are cut when read
+    private final Path                   path;
+    private final Charset                charset;
+    private final FileChannel            channel;
+    private final List<MappedByteBuffer> mappedChunks = new ArrayList<>(); // only full chunks
+    private       long[]                 keptLines    = new long[64]; // line numbers of which the offset is kept, ascending
+    private       long[]                 keptOffsets  = new long[64];
+    private       int                    keptCount    = 1;            // line 0 at offset 0
+    private       int                    lineCount;   // complete lines
+    private       long                   indexedEnd;  // offset after the last indexed LF
+
+    /** Line feeds found in a part of the file: the count, the start of the line after the last one
+      * and the start offsets of every SPARSE_LINES-th line (numbered from the start of the part).
+      */
+    private static final class PartIndex {
+        int    count;
+        long   lastStart;
+        long[] keptLines   = new long[16];
+        long[] keptOffsets = new long[16];
+        int    keptCount;
+    }
+
+    public MappedLineIndex(Path path, Charset charset) throws IOException {
+        this.path = path;
+        this.charset = charset;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        update();
+    }
+
+    public Path getPath() { return path; }
+    public synchronized int getLineCount() { return lineCount; }
+    public synchronized long getIndexedSize() { return indexedEnd; }
+    synchronized int getMappedChunkCount() { return mappedChunks.size(); }
+
+    /** Indexes lines appended since the last update. Returns false if the file became smaller, in
+      * which case this index is no longer valid and should be replaced by a new one.
+      */
+    public synchronized boolean update() throws IOException {
+        final long size = channel.size();
+        if(size < indexedEnd) { // mapped bytes beyond the new size must no longer be read
+            mappedChunks.clear();
+            lineCount = 0;
+            keptCount = 1;
+            indexedEnd = 0;
+            return false;
+        }
+        if(size == indexedEnd) return true;
+        while((mappedChunks.size() + 1) * MAP_CHUNK_SIZE <= size) {
+            mappedChunks.add(channel.map(FileChannel.MapMode.READ_ONLY, mappedChunks.size() * MAP_CHUNK_SIZE, MAP_CHUNK_SIZE));
+        }
+
+        final int partCount = (int)((size - indexedEnd + INDEX_CHUNK_SIZE - 1) / INDEX_CHUNK_SIZE);
+        final long from = indexedEnd;
+        final PartIndex[] parts = new PartIndex[partCount];
+        try {
+            IntStream.range(0, partCount).parallel().forEach(part -> {
+                final long partFrom = from + (long)part * INDEX_CHUNK_SIZE;
+                parts[part] = indexPart(partFrom, Math.min(size, partFrom + INDEX_CHUNK_SIZE));
+            });
+        } catch(final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for(final PartIndex part : parts) add(part);
+        return true;
+    }
+
+    private PartIndex indexPart(long from, long to) {
+        final PartIndex part = new PartIndex();
+        final byte[] block = new byte[BLOCK_SIZE];
+        for(long offset = from; offset < to;) {
+            final int length;
+            try {
+                length = read(offset, block, (int)Math.min(block.length, to - offset));
+            } catch(final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if(length <= 0) break;
+            for(int i = 0; i < length; i++) {
+                if(block[i] != '\n') continue;
+                part.count++;
+                part.lastStart = offset + i + 1;
+                if(part.count % SPARSE_LINES == 0) {
+                    if(part.keptCount == part.keptLines.length) {
+                        part.keptLines = Arrays.copyOf(part.keptLines, part.keptCount * 2);
+                        part.keptOffsets = Arrays.copyOf(part.keptOffsets, part.keptCount * 2);
+                    }
+                    part.keptLines[part.keptCount] = part.count;
+                    part.keptOffsets[part.keptCount++] = part.lastStart;
+                }
+            }
+            offset += length;
+        }
+        return part;
+    }
+
+    private void add(PartIndex part) {
+        if(part.count == 0) return;
+        if(keptCount + part.keptCount > keptLines.length) {
+            final int newLength = Math.max(keptCount + part.keptCount, keptLines.length + (keptLines.length >> 1));
+            keptLines = Arrays.copyOf(keptLines, newLength);
+            keptOffsets = Arrays.copyOf(keptOffsets, newLength);
+        }
+        for(int i = 0; i < part.keptCount; i++) {
+            keptLines[keptCount] = lineCount + part.keptLines[i];
+            keptOffsets[keptCount++] = part.keptOffsets[i];
+        }
+        lineCount += part.count;
+        indexedEnd = part.lastStart;
+    }
+
+    /** Reads bytes at the offset from the mapped chunks, or from the channel after the last full chunk */
+    private int read(long offset, byte[] bytes, int length) throws IOException {
+        int done = 0;
+        while(done < length) {
+            final long at = offset + done;
+            final int chunk = (int)(at / MAP_CHUNK_SIZE);
+            if(chunk < mappedChunks.size()) {
+                final ByteBuffer mapped = mappedChunks.get(chunk).duplicate(); // own position, for parallel reads
+                mapped.position((int)(at - chunk * MAP_CHUNK_SIZE));
+                final int count = Math.min(length - done, mapped.remaining());
+                mapped.get(bytes, done, count);
+                done += count;
+            } else {
+                final int count = channel.read(ByteBuffer.wrap(bytes, done, length - done), at);
+                if(count <= 0) break;
+                done += count;
+            }
+        }
+        return done;
+    }
+
+    /** Returns at most count lines, starting at line number from (0 based) */
+    public synchronized List<String> getLines(int from, int count) {
+        if(from < 0 || count <= 0 || from >= lineCount) return Collections.emptyList();
+        final int to = Math.min(lineCount, from + count);
+        final List<String> lines = new ArrayList<>(to - from);
+
+        int kept = Arrays.binarySearch(keptLines, 0, keptCount, from);
+        if(kept < 0) kept = -kept - 2; // the nearest kept line before it
+        long line = keptLines[kept];
+        final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+        final byte[] block = new byte[BLOCK_SIZE];
+        try {
+            for(long offset = keptOffsets[kept]; offset < indexedEnd && lines.size() < to - from;) {
+                final int length = read(offset, block, (int)Math.min(block.length, indexedEnd - offset));
+                if(length <= 0) break;
+                int lineStart = 0;
+                for(int i = 0; i < length && lines.size() < to - from; i++) {
+                    if(block[i] != '\n') continue;
+                    if(line >= from) {
+                        appendCapped(lineBytes, block, lineStart, i - lineStart);
+                        lines.add(toLine(lineBytes));
+                    }
+                    lineBytes.reset();
+                    lineStart = i + 1;
+                    line++;
+                }
+                if(line >= from) appendCapped(lineBytes, block, lineStart, length - lineStart); // continues in the next block
+                offset += length;
+            }
+        } catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    private static void appendCapped(ByteArrayOutputStream lineBytes, byte[] bytes, int offset, int length) {
+        lineBytes.write(bytes, offset, Math.max(0, Math.min(length, MAX_LINE_LENGTH + 1 - lineBytes.size()))); // +1 for a CR
+    }
+    private String toLine(ByteArrayOutputStream lineBytes) {
+        final byte[] bytes = lineBytes.toByteArray();
+        int end = bytes.length;
+        if(end > 0 && bytes[end - 1] == '\r') end--;
+        return new String(bytes, 0, Math.min(end, MAX_LINE_LENGTH), charset);
+    }
+
+    /** The mappings are released when garbage collected (Java has no explicit unmap) */
+    @Override
+    public synchronized void close() {
+        mappedChunks.clear();
+        lineCount = 0;
+        keptCount = 1;
+        try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+    }
+}
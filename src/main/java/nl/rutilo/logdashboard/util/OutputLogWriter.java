@@ -0,0 +1,240 @@
+package nl.rutilo.logdashboard.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/** Log file that is written asynchronously: write() only adds the text to a memory buffer, which
+  * a shared flusher thread writes to the file every FLUSH_MS, or sooner when FLUSH_BYTES are waiting
+  * (group commit). The file size is tracked in memory. When the file grows larger than the maximum size
+  * it is rotated: file.1 becomes file.2 (etc, up to the keep count) and the file becomes file.1.<br><br>
+  *
+  * When gzip is requested, the rotation itself only renames the file to a temporary name. Shifting the
+  * rotated files and compressing into file.1.gz happen on a separate compressor thread, in rotation order,
+  * so neither the writer nor the shared flusher ever waits for a compression.<br><br>
+  *
+  * When writing or rotating fails (disk full, no permission) the error is reported once and the writer stops
+  * writing: text written after that is dropped.
+  */
+public class OutputLogWriter implements Closeable {
+    private static final long                     FLUSH_MS    = 200;
+    private static final int                      FLUSH_BYTES = 64 * 1024;
+    private static final int                      MAX_PENDING = 16 * FLUSH_BYTES; // then the writer flushes itself
+    private static final Set<OutputLogWriter>     writers     = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService flusher     = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "Output-Log-Flusher"));
+    private static final ExecutorService          compressor  = Executors.newSingleThreadExecutor(r -> daemon(r, "Output-Log-Gzip"));
+    private final File             file;
+    private final Charset          charset;
+    private final long             maxSizeBytes;
+    private final int              keepCount;
+    private final boolean          gzip;
+    private final Consumer<String> errorHandler;
+    private final Object           sync        = new Object(); // guards pending
+    private final Object           fileSync    = new Object(); // guards the file (only one flush at a time)
+    private       ByteBuffer       pending     = ByteBuffer.allocate(FLUSH_BYTES);
+    private       ByteBuffer       writing     = ByteBuffer.allocate(FLUSH_BYTES);
+    private       FileChannel      channel;    // null when closed
+    private       long             size;
+    private       int              rotationCount;
+    private volatile Future<?>     compressing; // of the last rotation, or null
+    private volatile boolean       flushRequested;
+    private volatile boolean       failed;      // after a write error
+
+    static {
+        flusher.scheduleWithFixedDelay(OutputLogWriter::flushAll, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+    }
+    private static Thread daemon(Runnable r, String name) {
+        final Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /** keepCount is the number of rotated files to keep (0 to just remove the file when too large).
+      * The errorHandler is called (once, on the flusher thread) when writing fails.
+      */
+    public OutputLogWriter(File file, Charset charset, long maxSizeBytes, int keepCount, boolean gzip, Consumer<String> errorHandler) {
+        this.file = file;
+        this.charset = charset;
+        this.maxSizeBytes = maxSizeBytes;
+        this.keepCount = Math.max(0, keepCount);
+        this.gzip = gzip;
+        this.errorHandler = errorHandler;
+        try {
+            open();
+        } catch(final IOException e) {
+            throw new RuntimeException("Unable to open file for writing: " + file.getAbsolutePath(), e);
+        }
+        writers.add(this);
+    }
+
+    public File getFile() { return file; }
+    public long getMaxSizeBytes() { return maxSizeBytes; }
+    public boolean isFailed() { return failed; }
+
+    /** Size of the file including text not yet flushed */
+    public long getSize() {
+        synchronized(sync) { return size + pending.position(); }
+    }
+
+    public void write(String text) {
+        if(failed) return;
+        final byte[] bytes = text.getBytes(charset);
+        boolean flushNow = false;
+        synchronized(sync) {
+            if(pending.remaining() < bytes.length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes.length));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            pending.put(bytes);
+            if(pending.position() >= MAX_PENDING) flushNow = true;
+            else if(pending.position() >= FLUSH_BYTES && !flushRequested) {
+                flushRequested = true;
+                flusher.execute(this::flush);
+            }
+        }
+        if(flushNow) flush(); // the flusher cannot keep up: slow down the writer
+    }
+
+    /** Writes all pending text to the file */
+    public void flush() {
+        synchronized(fileSync) {
+            synchronized(sync) { // swap buffers so writers can continue while writing to the file
+                final ByteBuffer toWrite = pending;
+                pending = writing;
+                writing = toWrite;
+                flushRequested = false;
+            }
+            writing.flip();
+            try {
+                if(channel != null) while(writing.hasRemaining()) size += channel.write(writing);
+                if(channel != null && size > maxSizeBytes) rotate();
+            } catch(final IOException e) {
+                fail(e);
+            } finally {
+                writing.clear(); // also after a partial write, so it can't be swapped back in half written
+                if(writing.capacity() > MAX_PENDING) writing = ByteBuffer.allocate(FLUSH_BYTES); // don't hold on to a burst
+            }
+        }
+    }
+
+    /** Stops writing and reports the error once */
+    private void fail(IOException e) { // in fileSync
+        if(failed) return;
+        failed = true;
+        writers.remove(this);
+        synchronized(sync) { pending.clear(); }
+        if(channel != null) try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+        channel = null;
+        final String message = "Unable to write output log file " + file.getAbsolutePath() + " -- no longer writing it: " + e;
+        flusher.execute(() -> errorHandler.accept(message)); // not on the thread of a writer, which may be a logger stage
+    }
+
+    private static void flushAll() {
+        for(final OutputLogWriter writer : writers) {
+            if(writer.hasPending()) writer.flush();
+        }
+    }
+    private boolean hasPending() {
+        synchronized(sync) { return pending.position() > 0; }
+    }
+
+    private void open() throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null) dir.mkdirs();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    private void rotate() throws IOException { // in fileSync
+        channel.close();
+        channel = null;
+        try {
+            if(keepCount == 0) {
+                file.delete();
+            } else if(gzip) {
+                // The single compressor thread handles rotations in order, so a compression that is still
+                // running is never disturbed by the shift of the next rotation.
+                final File toCompress = new File(file.getPath() + ".rotated-" + (++rotationCount));
+                if(!file.renameTo(toCompress)) throw new IOException("Unable to rename " + file + " to " + toCompress);
+                compressing = compressor.submit(() -> {
+                    shiftRotated();
+                    compress(toCompress, gzipped(rotated(1)), rotated(1));
+                });
+            } else {
+                shiftRotated();
+                final File first = rotated(1);
+                if(!file.renameTo(first)) throw new IOException("Unable to rename " + file + " to " + first);
+            }
+        } finally {
+            open(); // when the rename failed, continue with the large file
+        }
+    }
+    /** Makes room for a new file.1: file.1 becomes file.2 etc and the last one is removed */
+    private void shiftRotated() {
+        delete(rotated(keepCount));
+        for(int i = keepCount - 1; i >= 1; i--) {
+            rotated(i).renameTo(rotated(i + 1));
+            gzipped(rotated(i)).renameTo(gzipped(rotated(i + 1)));
+        }
+    }
+    private File rotated(int number) { return new File(file.getPath() + "." + number); }
+    private static File gzipped(File f) { return new File(f.getPath() + ".gz"); }
+    private static void delete(File f) {
+        f.delete();
+        gzipped(f).delete();
+    }
+
+    /** Gzips the source into the target, or when that fails renames the source to the fallback */
+    private static void compress(File source, File target, File fallback) {
+        try(final InputStream in = new FileInputStream(source);
+            final OutputStream out = new GZIPOutputStream(new FileOutputStream(target), IOUtil.COPY_BUFFER_SIZE)) {
+            IOUtil.copy(in, out);
+        } catch(final IOException e) {
+            e.printStackTrace();
+            target.delete();
+            source.renameTo(fallback);
+            return;
+        }
+        source.delete();
+    }
+
+    /** Flushes pending text and closes the file. Then waits for the compression of rotated files (outside the lock). */
+    @Override
+    public void close() {
+        writers.remove(this);
+        synchronized(fileSync) {
+            flush();
+            if(channel != null) try { channel.close(); } catch(final IOException ignored) { /*ignored*/ }
+            channel = null;
+        }
+        final Future<?> last = compressing; // rotations are compressed in order, so this is the last to finish
+        if(last == null) return;
+        try {
+            last.get();
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(final ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+}
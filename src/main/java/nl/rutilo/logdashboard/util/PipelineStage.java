@@ -0,0 +1,124 @@
+package nl.rutilo.logdashboard.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/** One stage of an asynchronous pipeline: a bounded queue of items that are handled one at a time,
+  * in order, by the consumer. Stages share a thread pool and only occupy a thread while they have
+  * items to handle. A producer blocks when the queue is full (backpressure), or with offer()
+  * is refused so it can try again later without blocking.
+  */
+public class PipelineStage<T> {
+    private static final AtomicInteger   threadCount     = new AtomicInteger();
+    private static final ExecutorService threadPool      = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "Pipeline-Stage-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int             MAX_DRAIN_COUNT = 1000; // then give other stages a turn
+    private final        String           name;
+    private final        int              capacity;
+    private final        BlockingQueue<T> queue;
+    private final        Consumer<T>      consumer;
+    private final        AtomicBoolean    scheduled      = new AtomicBoolean();
+    private final        AtomicLong       processedCount = new AtomicLong();
+    private final        AtomicLong       blockedCount   = new AtomicLong();
+    private volatile     int              maxDepth;
+    private volatile     Thread           drainingThread;
+
+    public static class Metrics {
+        public final String name;
+        public final int    depth;
+        public final int    maxDepth;
+        public final int    capacity;
+        public final long   processed;
+        public final long   blocked; // number of times a producer had to wait for, or was refused by, a full queue
+        private Metrics(PipelineStage<?> stage) {
+            name      = stage.name;
+            depth     = stage.queue.size();
+            maxDepth  = stage.maxDepth;
+            capacity  = stage.capacity;
+            processed = stage.processedCount.get();
+            blocked   = stage.blockedCount.get();
+        }
+    }
+
+    public PipelineStage(String name, int capacity, Consumer<T> consumer) {
+        this.name = name;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = consumer;
+    }
+
+    /** Adds the item, waiting for room when the queue is full. Returns false when interrupted while waiting. */
+    public boolean put(T item) {
+        if(!queue.offer(item)) {
+            blockedCount.incrementAndGet();
+            try {
+                queue.put(item);
+            } catch(final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        final int depth = queue.size();
+        if(depth > maxDepth) maxDepth = depth; // approximation, good enough for metrics
+        schedule();
+        return true;
+    }
+
+    /** Adds the item when there is room, without waiting. Returns false when the queue is full. */
+    public boolean offer(T item) {
+        if(!queue.offer(item)) {
+            blockedCount.incrementAndGet();
+            return false;
+        }
+        final int depth = queue.size();
+        if(depth > maxDepth) maxDepth = depth;
+        schedule();
+        return true;
+    }
+
+    /** True when called from within the consumer. Putting from there would deadlock on a full queue. */
+    public boolean isDrainingThread() {
+        return Thread.currentThread() == drainingThread;
+    }
+
+    public boolean isIdle() {
+        return queue.isEmpty() && !scheduled.get();
+    }
+
+    public Metrics getMetrics() {
+        return new Metrics(this);
+    }
+
+    private void schedule() {
+        if(scheduled.compareAndSet(false, true)) threadPool.execute(this::drain);
+    }
+
+    private void drain() {
+        drainingThread = Thread.currentThread();
+        try {
+            for(int i=0; i<MAX_DRAIN_COUNT; i++) {
+                final T item = queue.poll();
+                if(item == null) break;
+                try {
+                    consumer.accept(item);
+                } catch(final RuntimeException e) {
+                    e.printStackTrace();
+                }
+                processedCount.incrementAndGet();
+            }
+        } finally {
+            drainingThread = null;
+            scheduled.set(false);
+            if(!queue.isEmpty()) schedule(); // items added while finishing, or more than MAX_DRAIN_COUNT
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package nl.rutilo.logdashboard.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/** Watches processes and drains their output without a thread per process or stream.<br><br>
+  *
+  * A single ticker thread checks all supervised processes for available output and exit. Output is
+  * read (only what is available, so never blocking) on a small fixed pool and split into lines.
+  * When a process exited, its remaining output is handled before the returned future completes,
+  * so the exit is always after the last line.<br><br>
+  *
+  * The pool threads must never wait, or a few slow consumers would stop the output of all other
+  * processes. So a turn reads at most MAX_TURN_BYTES per stream before giving others a turn, and
+  * the line handler refuses a line (returns false) instead of waiting when it has no room. The
+  * stream is then parked: nothing more is read from it until the refused line is accepted, which
+  * is retried on the next tick. The process itself then blocks on its full output pipe.
+  */
+public final class ProcessSupervisor {
+    private ProcessSupervisor() { throw new IllegalStateException("singleton"); }
+    private static final long                        POLL_MS        = 20;
+    private static final int                         DRAIN_THREADS  = 4;
+    private static final int                         MAX_TURN_BYTES = 64 * 1024; // per stream, then give others a turn
+    private static final Set<Supervised>             supervised     = ConcurrentHashMap.newKeySet();
+    private static final ScheduledThreadPoolExecutor ticker         = new ScheduledThreadPoolExecutor(1, daemonThreads("Process-Supervisor"));
+    private static final ExecutorService             drainPool      = Executors.newFixedThreadPool(DRAIN_THREADS, daemonThreads("Process-Output"));
+
+    static {
+        ticker.scheduleWithFixedDelay(ProcessSupervisor::tick, POLL_MS, POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            final Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /** Lines of stdout and stderr of the process are given to the lineHandler (with isError true for stderr).
+      * The handler returns false when it can't take the line now (it should not wait), after which the
+      * same line is offered again later. The returned future completes with the exit code when the
+      * process ended and all its output is handled.
+      */
+    public static CompletableFuture<Integer> supervise(Process process, Charset charset, BiPredicate<Boolean,LineStreamHandler.Line> lineHandler) {
+        final Supervised sup = new Supervised(process, charset, lineHandler);
+        supervised.add(sup);
+        return sup.exit;
+    }
+
+    public static int getSupervisedCount() { return supervised.size(); }
+
+    private static void tick() {
+        try {
+            for(final Supervised sup : supervised) {
+                if(sup.hasWork() && sup.busy.compareAndSet(false, true)) drainPool.execute(sup::handle);
+            }
+        } catch(final RuntimeException e) { // an escaping exception would stop the ticker
+            e.printStackTrace();
+        }
+    }
+
+    private static class Supervised {
+        final Process                    process;
+        final Pump                       out;
+        final Pump                       err;
+        final AtomicBoolean              busy = new AtomicBoolean();
+        final CompletableFuture<Integer> exit = new CompletableFuture<>();
+
+        Supervised(Process process, Charset charset, BiPredicate<Boolean,LineStreamHandler.Line> lineHandler) {
+            this.process = process;
+            out = new Pump(process.getInputStream(), charset, line -> lineHandler.test(false, line));
+            err = new Pump(process.getErrorStream(), charset, line -> lineHandler.test(true, line));
+        }
+
+        boolean hasWork() {
+            return !process.isAlive() || out.hasWork() || err.hasWork();
+        }
+
+        void handle() {
+            boolean again = false;
+            try {
+                final boolean exited = !process.isAlive(); // before draining, so all output written before exit is read
+                final boolean outLeft = out.drain();
+                final boolean errLeft = err.drain();
+                if(exited && !out.hasWork() && !err.hasWork()) { // all read and accepted
+                    out.end();
+                    err.end();
+                }
+                if(out.isDone() && err.isDone()) {
+                    supervised.remove(this);
+                    exit.complete(process.exitValue());
+                } else {
+                    again = outLeft || errLeft;
+                }
+            } catch(final RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                if(again) drainPool.execute(this::handle); // behind the turns of others, still busy
+                else      busy.set(false);
+            }
+        }
+    }
+
+    private static class Pump {
+        private final InputStream                       in;
+        private final LineStreamHandler                 lines;
+        private final Predicate<LineStreamHandler.Line> lineConsumer;
+        private final Deque<LineStreamHandler.Line>     refused = new ArrayDeque<>(); // in order, first one was refused
+        private final byte[]                            buffer  = new byte[IOUtil.COPY_BUFFER_SIZE];
+        private       boolean                           ended;
+
+        Pump(InputStream in, Charset charset, Predicate<LineStreamHandler.Line> lineConsumer) {
+            this.in = in;
+            this.lines = new LineStreamHandler(charset);
+            this.lineConsumer = lineConsumer;
+        }
+
+        boolean hasWork() {
+            return !refused.isEmpty() || available();
+        }
+
+        boolean isDone() {
+            return ended && refused.isEmpty();
+        }
+
+        private boolean available() {
+            try {
+                return !ended && in.available() > 0;
+            } catch(final IOException closed) {
+                return false;
+            }
+        }
+
+        /** Reads what is available, up to MAX_TURN_BYTES, so this never blocks. Returns true when
+          * the turn ended with more to read, false when all is read or the stream is parked.
+          */
+        boolean drain() {
+            if(!offerRefused()) return false;
+            try {
+                int budget = MAX_TURN_BYTES;
+                int available;
+                while(!ended && budget > 0 && (available = in.available()) > 0) {
+                    final int count = in.read(buffer, 0, Math.min(Math.min(available, buffer.length), budget));
+                    if(count < 0) break;
+                    budget -= count;
+                    lines.feed(buffer, 0, count, this::offer);
+                    if(!refused.isEmpty()) return false; // parked until the handler has room again
+                }
+                return budget <= 0 && available();
+            } catch(final IOException closed) {
+                return false; // nothing more to read
+            }
+        }
+
+        void end() {
+            if(ended) return;
+            ended = true;
+            lines.end(this::offer);
+            try { in.close(); } catch(final IOException ignored) { /*ignored*/ }
+        }
+
+        private void offer(LineStreamHandler.Line line) {
+            if(!refused.isEmpty() || !lineConsumer.test(line)) refused.add(line);
+        }
+
+        /** Offers the lines that were refused before, in order. Returns true when all were accepted. */
+        private boolean offerRefused() {
+            while(!refused.isEmpty()) {
+                if(!lineConsumer.test(refused.peekFirst())) return false;
+                refused.removeFirst();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package nl.rutilo.logdashboard.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts events over several sliding windows at once (e.g. the last minute, 10 minutes and hour).<br><br>
+  *
+  * Writers only add to a striped, lock-free adder, so concurrent writers don't contend and no clock
+  * is read per event. A single shared thread ticks every TICK_MS for all counters: it moves what was
+  * added since the previous tick into the current bucket of each window, drops buckets that slid
+  * out of a window from its running sum and publishes the sums. A read is O(1): the published sum
+  * of the window plus what was added since the last tick.<br><br>
+  *
+  * Each window has BUCKET_COUNT buckets, and buckets slide out as a whole, so a window count covers
+  * between the window minus one bucket duration and the full window.
+  */
+public class SlidingRateCounter {
+    public  static final long                     TICK_MS      = 1000;
+    private static final int                      BUCKET_COUNT = 60;
+    private static final Set<SlidingRateCounter>  counters     = Collections.newSetFromMap(new WeakHashMap<>()); // guarded by itself
+    private static final ScheduledExecutorService ticker       = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "Rate-Counter-Tick");
+        t.setDaemon(true);
+        return t;
+    });
+    private final        Duration[]               windows;
+    private final        int[]                    ticksPerBucket;
+    private final        long[][]                 buckets;     // per window, ring of bucket counts
+    private final        long[]                   sums;        // per window, sum of its buckets
+    private final        LongAdder                total       = new LongAdder(); // all ever added
+    private              int                      tickCount;
+    private volatile     Snapshot                 snapshot;
+
+    static {
+        ticker.scheduleAtFixedRate(SlidingRateCounter::tickAll, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Window sums as of a tick, together with the total at that tick */
+    private static final class Snapshot {
+        final long   total;
+        final long[] sums;
+        Snapshot(long total, long[] sums) { this.total = total; this.sums = sums; }
+    }
+
+    /** The windows are rounded to a multiple of BUCKET_COUNT ticks (of at least one tick per bucket) */
+    public static SlidingRateCounter withWindows(Duration... windows) {
+        final SlidingRateCounter counter = new SlidingRateCounter(windows);
+        synchronized(counters) { counters.add(counter); }
+        return counter;
+    }
+
+    /** Creates a counter that is only ticked by calling tick() */
+    SlidingRateCounter(Duration... windows) {
+        if(windows.length == 0) throw new IllegalArgumentException("At least one window is needed");
+        this.windows = windows.clone();
+        ticksPerBucket = new int[windows.length];
+        buckets = new long[windows.length][BUCKET_COUNT];
+        sums = new long[windows.length];
+        for(int w=0; w<windows.length; w++) {
+            ticksPerBucket[w] = (int)Math.max(1, Math.round(windows[w].toMillis() / (double)(TICK_MS * BUCKET_COUNT)));
+        }
+        snapshot = new Snapshot(0, new long[windows.length]);
+    }
+
+    public List<Duration> getWindows() { return new ArrayList<>(Arrays.asList(windows)); }
+
+    public void add() { total.increment(); }
+    public void add(long amount) { total.add(amount); }
+
+    /** Count in the first window */
+    public long get() { return get(0); }
+
+    /** Count in the given window, which should be one of the windows of this counter */
+    public long get(Duration window) {
+        for(int w=0; w<windows.length; w++) if(windows[w].equals(window)) return get(w);
+        throw new IllegalArgumentException("Not a window of this counter: " + window);
+    }
+
+    private long get(int window) {
+        final Snapshot s = snapshot;
+        return s.sums[window] + (total.sum() - s.total);
+    }
+
+    /** Forgets all counts */
+    public synchronized void reset() {
+        for(final long[] ring : buckets) Arrays.fill(ring, 0);
+        Arrays.fill(sums, 0);
+        snapshot = new Snapshot(total.sum(), new long[windows.length]);
+    }
+
+    /** Moves what was added since the previous tick into the windows. Called every TICK_MS. */
+    synchronized void tick() {
+        final long newTotal = total.sum(); // events added meanwhile are counted at the next tick
+        final long added = newTotal - snapshot.total;
+        tickCount++;
+        for(int w=0; w<windows.length; w++) {
+            final long[] ring = buckets[w];
+            final int bucket = (tickCount / ticksPerBucket[w]) % BUCKET_COUNT;
+            if(tickCount % ticksPerBucket[w] == 0) { // bucket starts: it now holds the oldest counts
+                sums[w] -= ring[bucket];
+                ring[bucket] = 0;
+            }
+            ring[bucket] += added;
+            sums[w] += added;
+        }
+        snapshot = new Snapshot(newTotal, sums.clone());
+    }
+
+    private static void tickAll() {
+        final List<SlidingRateCounter> toTick;
+        synchronized(counters) { toTick = new ArrayList<>(counters); }
+        for(final SlidingRateCounter counter : toTick) {
+            try {
+                counter.tick();
+            } catch(final RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -4,54 +4,64 @@ import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/** Timers of the application, all on one shared WheelTimer. Callbacks are called one at a time
+  * on the Util-Timer thread. Prefer schedule(), which returns a handle to cancel the timer with;
+  * the string ids are for callers that can't keep a handle.
+  */
 public class Timer {
-    private static       int                       nextTimerTaskId = Integer.MIN_VALUE;
-    private static final java.util.Timer           timer           = new java.util.Timer("Util-Timer", /*daemon*/true);
-    private static final Map<String, CallbackTask> timerTasks      = new HashMap<>();
-    private static final class CallbackTask extends TimerTask {
-        final String id;
-        final Runnable callback;
-        CallbackTask(String id, Runnable r) { this.id=id; callback=r; }
-        @Override public void run() {
-            clear(id);
-            try {
-                callback.run();
-            } catch(final Throwable t) {
-                t.printStackTrace();
-            }
-        }
+    private static       int                            nextTimerTaskId = Integer.MIN_VALUE;
+    private static final ExecutorService                executor        = Executors.newSingleThreadExecutor(r -> {
+                                                                              final Thread t = new Thread(r, "Util-Timer");
+                                                                              t.setDaemon(true);
+                                                                              return t;
+                                                                          });
+    private static final WheelTimer                     wheelTimer      = new WheelTimer("Util-Timer-Tick", Duration.ofMillis(1), 512, executor);
+    private static final Map<String, WheelTimer.Handle> namedHandles    = new HashMap<>();
+
+    public static WheelTimer.Handle schedule(Duration delay, Runnable callback) {
+        return wheelTimer.schedule(delay, callback);
+    }
+    /** Cancels the handle (when not null) and returns null, for: handle = Timer.cancel(handle) */
+    public static WheelTimer.Handle cancel(WheelTimer.Handle handle) {
+        if(handle != null) handle.cancel();
+        return null;
     }
+    public static WheelTimer.Metrics getMetrics() { return wheelTimer.getMetrics(); }
 
     public static boolean has(int id) { return has("" + id); }
     public static boolean has(String id) {
-        synchronized(timer) {
-            return timerTasks.containsKey(id);
+        synchronized(namedHandles) {
+            return Optional.ofNullable(namedHandles.get(id)).map(WheelTimer.Handle::isPending).orElse(false);
         }
     }
 
     public static int start(Duration delay, Runnable callback) {
-        synchronized(timer) {
+        synchronized(namedHandles) {
             final int id = nextTimerTaskId++;
             start("" + id, delay, callback);
             return id;
         }
     }
     public static void start(String id, Duration delay, Runnable callback) {
-        synchronized(timer) {
+        synchronized(namedHandles) {
             clear(id);
 
-            final CallbackTask task = new CallbackTask(id, callback);
-            timerTasks.put(task.id, task);
-            timer.schedule(task, delay.toMillis());
+            final WheelTimer.Handle[] handle = { null };
+            handle[0] = schedule(delay, () -> {
+                synchronized(namedHandles) { namedHandles.remove(id, handle[0]); }
+                callback.run();
+            });
+            namedHandles.put(id, handle[0]);
         }
     }
 
     public static void clear(int id) { clear("" + id); }
     public static void clear(String id) {
-        synchronized(timer) {
-            Optional.ofNullable(timerTasks.remove(id)).ifPresent(TimerTask::cancel);
+        synchronized(namedHandles) {
+            Optional.ofNullable(namedHandles.remove(id)).ifPresent(WheelTimer.Handle::cancel);
         }
     }
 
@@ -59,18 +69,19 @@ public class Timer {
         return "timer." + ("" + Math.random()).substring(2) + "." + System.currentTimeMillis();
     }
 
-    private final String id;
-    private Duration delay = null;
-    private Runnable callback = null;
+    private Duration          delay = null;
+    private Runnable          callback = null;
+    private WheelTimer.Handle handle = null;
 
-    public Timer()                      { id = createRandomId(); }
+    public Timer()                      { }
     public Timer set(Duration delay)    { this.delay = delay; return this; }
     public Timer set(Runnable callback) { this.callback = callback; return this; }
-    public Timer start() {
+    public synchronized Timer start() {
         if(callback == null) throw new IllegalStateException("No callback set");
         if(delay == null)    throw new IllegalStateException("No delay set");
-        start(id, delay, callback);
+        cancel(handle);
+        handle = schedule(delay, callback);
         return this;
     }
-    public Timer stop() { clear(id); return this; }
+    public synchronized Timer stop() { handle = cancel(handle); return this; }
 }
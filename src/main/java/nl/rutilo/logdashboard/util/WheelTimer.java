@@ -0,0 +1,208 @@
+package nl.rutilo.logdashboard.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/** Hashed wheel timer: scheduled callbacks are kept in a wheel of buckets, one bucket per tick, so
+  * scheduling and cancelling take constant time. Cancelled callbacks are removed right away, so
+  * debounce timers that are restarted all the time don't pile up. A tick thread moves callbacks
+  * that are due to an executor, so a slow callback doesn't delay the others.<br><br>
+  *
+  * The tick thread doesn't tick when nothing is due: it sleeps until the next bucket that holds a
+  * callback (or until a callback is scheduled that is due sooner). Callbacks are never called
+  * before their delay has passed and are at most one tick late, unless the executor is busy.
+  * Callbacks that start more than LATE_MS after their deadline are counted as late.
+  */
+public final class WheelTimer {
+    public  static final long     LATE_MS    = 10;
+    private static final long     LATE_NS    = TimeUnit.MILLISECONDS.toNanos(LATE_MS);
+    private        final Object   lock       = new Object();
+    private        final Bucket[] wheel;
+    private        final int      mask;
+    private        final long     tickNs;
+    private        final long     startNs    = System.nanoTime();
+    private        final Executor executor;
+    private              long     tick;                        // last handled tick
+    private              long     wakeTick   = Long.MAX_VALUE; // tick the tick thread sleeps until
+    private              long     pending;
+    private              long     fired;
+    private              long     late;
+    private              long     cancelled;
+
+    /** Counters of the timer */
+    public static class Metrics {
+        public final long pending;   // scheduled and not called or cancelled yet
+        public final long fired;
+        public final long late;      // called more than LATE_MS after the deadline
+        public final long cancelled;
+        private Metrics(long pending, long fired, long late, long cancelled) {
+            this.pending   = pending;
+            this.fired     = fired;
+            this.late      = late;
+            this.cancelled = cancelled;
+        }
+    }
+
+    private enum HandleState { SCHEDULED, DUE, CALLED, CANCELLED }
+
+    /** A scheduled callback, to be able to cancel it */
+    public final class Handle {
+        private final Runnable    callback;
+        private final long        deadlineNs;
+        private final long        deadlineTick;
+        private       HandleState state = HandleState.SCHEDULED;
+        private       Bucket      bucket;
+        private       Handle      prev;
+        private       Handle      next;
+
+        private Handle(Runnable callback, long deadlineNs, long deadlineTick) {
+            this.callback = callback;
+            this.deadlineNs = deadlineNs;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /** Returns true when the callback was not called yet and now won't be */
+        public boolean cancel() {
+            synchronized(lock) {
+                if(state == HandleState.SCHEDULED) bucket.remove(this);
+                else if(state != HandleState.DUE) return false;
+                state = HandleState.CANCELLED;
+                pending--;
+                cancelled++;
+                return true;
+            }
+        }
+
+        /** True until the callback is called or cancelled */
+        public boolean isPending() {
+            synchronized(lock) { return state == HandleState.SCHEDULED || state == HandleState.DUE; }
+        }
+
+        private void call() {
+            synchronized(lock) {
+                if(state != HandleState.DUE) return; // cancelled meanwhile
+                state = HandleState.CALLED;
+                pending--;
+                fired++;
+                if(System.nanoTime() - deadlineNs > LATE_NS) late++;
+            }
+            try {
+                callback.run();
+            } catch(final Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /** Doubly linked list of handles, so a handle can be removed without a search */
+    private static final class Bucket {
+        Handle head;
+        Handle tail;
+        int    size;
+        void add(Handle handle) {
+            handle.bucket = this;
+            handle.prev = tail;
+            handle.next = null;
+            if(tail == null) head = handle; else tail.next = handle;
+            tail = handle;
+            size++;
+        }
+        void remove(Handle handle) {
+            if(handle.prev == null) head = handle.next; else handle.prev.next = handle.next;
+            if(handle.next == null) tail = handle.prev; else handle.next.prev = handle.prev;
+            handle.prev = handle.next = null;
+            handle.bucket = null;
+            size--;
+        }
+    }
+
+    /** wheelSize is rounded up to a power of two. Callbacks are called by the executor. */
+    public WheelTimer(String name, Duration tickDuration, int wheelSize, Executor executor) {
+        this.tickNs = Math.max(1, tickDuration.toNanos());
+        this.executor = executor;
+        final int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = new Bucket[size];
+        this.mask = size - 1;
+        for(int i=0; i<size; i++) wheel[i] = new Bucket();
+
+        final Thread t = new Thread(this::tickLoop, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public Handle schedule(Duration delay, Runnable callback) {
+        final long deadlineNs = System.nanoTime() + Math.max(0, delay.toNanos());
+        synchronized(lock) {
+            // ceil, so the callback is not called before the deadline
+            final long deadlineTick = Math.max(tick + 1, (deadlineNs - startNs + tickNs - 1) / tickNs);
+            final Handle handle = new Handle(callback, deadlineNs, deadlineTick);
+            wheel[(int)(deadlineTick & mask)].add(handle);
+            pending++;
+            if(deadlineTick < wakeTick) lock.notifyAll();
+            return handle;
+        }
+    }
+
+    public Metrics getMetrics() {
+        synchronized(lock) { return new Metrics(pending, fired, late, cancelled); }
+    }
+
+    private void tickLoop() {
+        final List<Handle> due = new ArrayList<>();
+        for(;;) {
+            synchronized(lock) {
+                try {
+                    waitForNextTick();
+                } catch(final InterruptedException e) {
+                    return;
+                }
+                final long nowTick = (System.nanoTime() - startNs) / tickNs;
+                // after a long sleep each bucket only needs to be handled once
+                for(long t = Math.max(tick + 1, nowTick - mask); t <= nowTick; t++) expire(wheel[(int)(t & mask)], nowTick, due);
+                tick = Math.max(tick, nowTick);
+            }
+            for(final Handle handle : due) {
+                try {
+                    executor.execute(handle::call);
+                } catch(final RejectedExecutionException e) {
+                    handle.call();
+                }
+            }
+            due.clear();
+        }
+    }
+
+    private void waitForNextTick() throws InterruptedException {
+        for(;;) {
+            wakeTick = pending == 0 ? Long.MAX_VALUE : nextUsedTick();
+            if(wakeTick == Long.MAX_VALUE) { lock.wait(); continue; }
+            final long waitNs = startNs + wakeTick * tickNs - System.nanoTime();
+            if(waitNs <= 0) return;
+            TimeUnit.NANOSECONDS.timedWait(lock, waitNs);
+        }
+    }
+
+    /** First tick after the last handled tick of which the bucket is not empty */
+    private long nextUsedTick() {
+        for(long t = tick + 1; t <= tick + wheel.length; t++) {
+            if(wheel[(int)(t & mask)].size > 0) return t;
+        }
+        return Long.MAX_VALUE; // only handles that are due but not called yet
+    }
+
+    private static void expire(Bucket bucket, long nowTick, List<Handle> due) {
+        for(Handle handle = bucket.head; handle != null; ) {
+            final Handle next = handle.next;
+            if(handle.deadlineTick <= nowTick) { // else due in a later round of the wheel
+                bucket.remove(handle);
+                handle.state = HandleState.DUE;
+                due.add(handle);
+            }
+            handle = next;
+        }
+    }
+}
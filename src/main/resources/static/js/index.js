@@ -13,6 +13,7 @@ let selectedService;
 let mainInfo = { version: 0, latestVersion: 0 };
 let mousedownTimer = null;
 let preventNextClick; // prevent 'click' event when 'longclick'
+let outputSubscriptions = []; // of the selected service
 
 
 initFunctions.push(init);
@@ -33,11 +34,9 @@ function init() {
   window.addEventListener('keyup',   evt => { if(evt.key === 'Control') document.body.classList.toggle('special', false); });
   window.addEventListener('blur',    evt => {                           document.body.classList.toggle('special', false); });
 
-  Server.subscribe('process-output',         response => handleProcessOutput(JSON.parse(response.body)));
-  Server.subscribe('clear-process-output',   response => clearLog());
-  Server.subscribe('service-state-changes',  response => handleServiceChanges(JSON.parse(response.body)));
-  Server.subscribe('service-log-velocities', response => handleLogVelocities(JSON.parse(response.body)));
-  Server.subscribe('last-state-history',     response => handleLastStateHistory(JSON.parse(response.body)));
+  Server.subscribeDecoded('service-state-changes',  handleServiceChanges);
+  Server.subscribeDecoded('service-log-velocities', handleLogVelocities);
+  Server.subscribe('last-state-history',     response => handleStateHistoryChanges(JSON.parse(response.body)));
   Server.subscribe('services-reloaded',      response => location.reload(/*noCache=*/true));
   Server.subscribe('scripts-changed',        response => location.reload(/*noCache=*/true));
   Server.subscribe('upgrade-available',      response => checkForNewVersion());
@@ -139,11 +138,21 @@ function selectTab(tabNode) {
   tabs.forEach(tab => tab.classList.toggle('selected', tab === target));
 }
 
+// The server only sends output of services a client is subscribed to
+function watchOutputOf(service) {
+  outputSubscriptions.forEach(subscription => subscription.unsubscribe());
+  outputSubscriptions = !service ? [] : [
+    Server.subscribeDecoded('process-output/' + service.uid, handleProcessOutput),
+    Server.subscribe('clear-process-output/' + service.uid, response => clearLog())
+  ];
+}
+
 function handleProcessOutput(output) {
   const service = getSelectedService();
   if(!service || service.uid !== output.suid) return; // ignore callback of previously selected service
   service.state.logVelocity = output.logVelocity;
-  addToLog(output.line.type, output.line.text, output.line.replaces);
+  const lines = output.lines || (output.line ? [output.line] : []); // server sends batches of lines
+  addOutputLines(lines);
 }
 
 
@@ -155,10 +164,8 @@ function updateServices() {
       services.forEach(s => receivedService(s));
       updateForNewServices();
     })
-    .then(() => Server.getStateHistory())
-    .then(tts => {
-      updateStateHistoryBlocks(tts);
-    })
+    .then(() => Server.getStateHistory(stateHistoryVersion))
+    .then(handleStateHistoryChanges)
     .catch(error => {
       document.body.classList.toggle('app-starting', false);
       console.error('failed to retrieve services:', error);
@@ -223,12 +230,13 @@ function selectService(name) {
     selectedService = service;
     consolidateLog(); // debounced -- it shouldn't be called after clearLog
     clearLog();
+    watchOutputOf(service);
     promise = updateLog(service);
   }
   if(!service) {
     selectedService = null;
     clearLog();
-    promise = Server.sendOutputOfService({name:'{non-existing}'}); // stops sending output
+    watchOutputOf(null); // stops sending output
   }
   updateForSettings();
   return promise;
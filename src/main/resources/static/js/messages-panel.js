@@ -7,6 +7,9 @@ let currentLineInfo;
 let currentLineDiv;
 let lastCollapsableDiv;
 let previousLineDiv;
+let lastLineIndex = -1;  // index of the last line added to the log (line indices always increase)
+let pendingLines  = null; // lines received while the log is being loaded
+let isOutputSynced = false; // true when lines logged between loading the log and subscribing were fetched
 
 const consolidateLogDebounced = debounce(300, consolidateLog);
 const updateSidelineDebounced = debounce(100, updateSideline);
@@ -21,13 +24,49 @@ function clearLog() { messagesPanel.innerHTML = ''; clearSideline(); }
 function clearLogOnServer() { return Server.clearLog(getSelectedService()); }
 
 function updateLog(service) {
+  pendingLines = [];
+  isOutputSynced = false;
   return Server.sendOutputOfService(service).then(output => {
-    output.log.forEach(lineInfo => addToLog(lineInfo.type, lineInfo.text));
+    output.log.forEach(lineInfo => addToLog(lineClassNames(lineInfo), lineInfo.text));
+    lastLineIndex = output.log.length ? output.log[output.log.length - 1].index : -1;
     service.state.logVelocity = output.logVelocity;
     setTimeout(() => setLogScrollPosFromSaved(service), 400);
+  }).finally(() => {
+    const lines = pendingLines;
+    pendingLines = null;
+    addOutputLines(lines);
   });
 }
 
+// Lines that were already part of the loaded log are skipped.
+// The subscription may have become active after the log was loaded, so when the first lines
+// arrive the lines in between are fetched first.
+function addOutputLines(lines) {
+  if(pendingLines) { pendingLines.push(...lines); return; }
+  const service = getSelectedService();
+  if(!isOutputSynced && lines.length && service) {
+    isOutputSynced = true;
+    const received = pendingLines = lines.slice();
+    Server.getOutputSince(service, lastLineIndex)
+      .then(page => { received.unshift(...page.lines); })
+      .catch(() => {})
+      .finally(() => {
+        if(pendingLines !== received) return; // another service was selected meanwhile
+        pendingLines = null;
+        addOutputLines(received);
+      });
+    return;
+  }
+  lines.filter(line => line.index > lastLineIndex).forEach(line => {
+    addToLog(lineClassNames(line), line.text, line.replaces);
+    lastLineIndex = line.index;
+  });
+}
+
+function lineClassNames(lineInfo) {
+  return lineInfo.severity && lineInfo.severity !== 'NONE' ? [lineInfo.type, lineInfo.severity] : [lineInfo.type];
+}
+
 function scrollToTop() { messagesPanel.scrollTop = 0; }
 function scrollToBottom() { messagesPanel.scrollTop = LARGE_YPOS; }
 function isScrolledToBottom() {
@@ -175,7 +214,7 @@ function getLineInfo(classNames, text) {
   const info = {};
   const textBegin = text.substring(0,32).toUpperCase();
   info.isErrorLine = (classNames || '').includes('ERROR') || textBegin.includes('ERROR');
-  info.isWarnLine = textBegin.includes('WARN');
+  info.isWarnLine = (classNames || '').includes('WARN') || textBegin.includes('WARN');
   info.isInfoLine = textBegin.includes('INFO');
   info.isDebugLine = textBegin.includes('DEBUG');
   info.isOtherLine = (classNames || '').includes('OTHER');
@@ -20,6 +20,37 @@ function initServer() {
 
 const whenConnected = (func) => { if (!isConnected) runAfterConnect.push(func); else func(); };
 
+// High volume topics are received in the compact wire format (see CompactEncoder.java)
+// unless localStorage.wireFormat is 'json'. Decoded messages equal their json variant.
+const LINE_TYPES = ['WAITING', 'OUT', 'ERROR', 'INIT_ERROR', 'OTHER'];
+const SEVERITIES = ['NONE', 'WARN', 'ERROR', 'FATAL'];
+let compactVelocities = null; // until the first full frame
+const compactDecoders = {
+  'process-output':         decodeCompactOutput,
+  'service-state-changes':  body => JSON.parse(body),
+  'service-log-velocities': decodeCompactVelocities
+};
+
+function decodeCompactOutput(body) {
+  const [suid, logVelocity, firstIndex, firstTime, indexDeltas, timeDeltas, codes, texts] = JSON.parse(body);
+  let index = firstIndex;
+  let time = firstTime;
+  const lines = texts.map((text, i) => {
+    index += indexDeltas[i];
+    time += timeDeltas[i];
+    const code = codes[i];
+    return { index, time, type: LINE_TYPES[code & 7], text, severity: SEVERITIES[(code >> 3) & 3], replaces: !!(code & 32) };
+  });
+  return { suid, logVelocity, lines };
+}
+function decodeCompactVelocities(body) {
+  const values = JSON.parse(body);
+  if(values[0] === 1) compactVelocities = values.slice(1);
+  else if(!compactVelocities) return undefined; // changes only, wait for the next full frame
+  else for(let i=1; i<values.length; i+=2) compactVelocities[values[i]] = values[i + 1];
+  return compactVelocities.slice();
+}
+
 // Server.subscribe('test', response => {
 //   console.log('received test message:', response);
 // });
@@ -35,8 +66,24 @@ class Server {
     if(mainInfo.upgrading) showUpgradeProgress();
   }
 
+  // Returns a subscription with an unsubscribe() function (which also works before being connected)
   static subscribe(topic, callback) {
-    whenConnected(() => stompClient.subscribe('/topic/' + topic, response => callback(response)));
+    const subscription = { unsubscribe: () => { subscription.cancelled = true; } };
+    whenConnected(() => {
+      if(subscription.cancelled) return;
+      const stompSubscription = stompClient.subscribe('/topic/' + topic, response => callback(response));
+      subscription.unsubscribe = () => stompSubscription.unsubscribe();
+    });
+    return subscription;
+  }
+  // Like subscribe, but the callback gets the decoded (json) message, in the compact format when available
+  static subscribeDecoded(topic, callback) {
+    const decoder = compactDecoders[topic.split('/')[0]];
+    if(localStorage.wireFormat === 'json' || !decoder) return Server.subscribe(topic, response => callback(JSON.parse(response.body)));
+    return Server.subscribe(topic + '.compact', response => {
+      const decoded = decoder(response.body);
+      if(decoded !== undefined) callback(decoded);
+    });
   }
   static unsubscribe(topic) {
     whenConnected(() => stompClient.unsubscribe(topic));
@@ -56,12 +103,20 @@ class Server {
     return fetch('sendOutputOfService', {method:'post', body:service.name})
       .then(response => response.json());
   }
+  static getOutputSince(service, sinceIndex) {
+    return fetch('output?direction=forward&service=' + encodeURIComponent(service.name) + '&sinceIndex=' + sinceIndex)
+      .then(response => response.json());
+  }
+  static getMetricsSeries(resolution = '1h', from = undefined) {
+    return fetch('metrics/series?resolution=' + resolution + (from === undefined ? '' : '&from=' + from))
+      .then(response => response.json());
+  }
   static getStateOfService(service) {
     return fetch('getStateOfService', {method:'post', body:service.name})
       .then(response => response.json());
   }
-  static getStateHistory() {
-    return fetch('stateHistory', {method:'post'})
+  static getStateHistory(sinceVersion = -1) {
+    return fetch('stateHistory?since=' + sinceVersion, {method:'post'})
       .then(response => response.json());
   }
   static stopOutputOfService(service) {
@@ -1,7 +1,24 @@
 const timeToStates = {};
+let stateHistoryVersion = -1;
 
-function handleLastStateHistory(lastTimeToState) {
-  updateStateHistoryBlocks(lastTimeToState);
+/** changes: {fromVersion, version, full, oldestTime, rows: {time: 'OWS,R,3*O'}} */
+function handleStateHistoryChanges(changes) {
+  if(!changes) return;
+  if(!changes.full && changes.fromVersion !== stateHistoryVersion) { // missed some changes
+    Server.getStateHistory(stateHistoryVersion).then(handleStateHistoryChanges);
+    return;
+  }
+  if(changes.full) Object.keys(timeToStates).forEach(time => delete timeToStates[time]);
+  Object.keys(changes.rows).forEach(time => timeToStates[time] = decodeStateHistoryRow(changes.rows[time]));
+  Object.keys(timeToStates).filter(time => +time < changes.oldestTime).forEach(time => delete timeToStates[time]);
+  stateHistoryVersion = changes.version;
+  updateStateHistoryBlocks();
+}
+function decodeStateHistoryRow(text) {
+  return text.split(/,/).map(column => {
+    const run = /^(\d+)\*(.*)$/.exec(column);
+    return run ? Array(+run[1]).fill(run[2]).join(',') : column;
+  }).join(',');
 }
 function updateStateHistoryBlocks(tts) {
   if(tts) Object.assign(timeToStates, tts);
@@ -61,6 +78,7 @@ function createStateHistoryBlock(targetDiv, states, serviceIndex) {
       S: 'starting',
       R: 'running',
       E: 'error',
+      X: 'exit_error',
       I: 'init_error'
     };
     box.setAttribute('title', (services[serviceIndex] || {name:'unknown'}).name + ' (' +
@@ -0,0 +1,70 @@
+package nl.rutilo.logdashboard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/** Shows the latency impact of compressing a large output buffer (as sent by /sendOutputOfService):
+  * time to compress plus time to transfer the compressed bytes, versus transferring them uncompressed,
+  * for some link speeds. Not a unit test: run the main method (e.g. from the IDE) and read the report.
+  */
+public class CompressionBenchmark {
+    private static final int[]    LINE_COUNTS = { 1_000, 10_000, 50_000 };
+    private static final double[] MBITS       = { 1, 10, 100, 1000 }; // tunnel, remote vm, lan, local
+    private static final int      ROUNDS      = 10;
+
+    public static void main(String... args) throws IOException {
+        final ObjectMapper json = new ObjectMapper();
+        System.out.printf("%8s %10s %10s %8s", "lines", "bytes", "gzipped", "gzip ms");
+        for(final double mbit : MBITS) System.out.printf(" %17s", (int)mbit + " Mbit/s: ms");
+        System.out.println();
+
+        for(final int lineCount : LINE_COUNTS) {
+            final byte[] payload = json.writeValueAsBytes(createLines(lineCount, new Random(1)));
+            byte[] gzipped = null;
+            long bestNs = Long.MAX_VALUE;
+            for(int round=0; round<ROUNDS; round++) { // the first rounds warm up the jit
+                final long start = System.nanoTime();
+                gzipped = gzip(payload);
+                bestNs = Math.min(bestNs, System.nanoTime() - start);
+            }
+            final double gzipMs = bestNs / 1e6;
+            System.out.printf("%8d %10d %10d %8.1f", lineCount, payload.length, gzipped.length, gzipMs);
+            for(final double mbit : MBITS) {
+                System.out.printf(" %8.0f -> %6.0f", transferMs(payload.length, mbit), gzipMs + transferMs(gzipped.length, mbit));
+            }
+            System.out.println();
+        }
+    }
+
+    private static double transferMs(long bytes, double mbit) {
+        return bytes * 8 / (mbit * 1000);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        try(final GZIPOutputStream out = new GZIPOutputStream(bytes) {{ def.setLevel(Deflater.DEFAULT_COMPRESSION); }}) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<LineInfo> createLines(int count, Random random) {
+        final String[] words = { "INFO", "DEBUG", "o.s.b.w.embedded.tomcat", "Started", "request", "GET", "/api/v1/items", "200", "in", "ms", "user=" };
+        final List<LineInfo> lines = new ArrayList<>();
+        for(int i=0; i<count; i++) {
+            final StringBuilder text = new StringBuilder();
+            for(int w=5 + random.nextInt(10); w>0; w--) text.append(words[random.nextInt(words.length)]).append(random.nextInt(100)).append(' ');
+            lines.add(new LineInfo(random.nextInt(20) == 0 ? LineType.ERROR : LineType.OUT, text.toString()));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,88 @@
+package nl.rutilo.logdashboard;
+
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.*;
+
+public class PrecompressedResourceResolverTest {
+    private final AtomicLong lastModified = new AtomicLong(1000);
+    private final String     content      = String.join("", Collections.nCopies(200, "function test() { return 1; }\n"));
+
+    private Resource resourceNamed(String name) {
+        return new ByteArrayResource(content.getBytes()) {
+            @Override public String getFilename() { return name; }
+            @Override public long lastModified() { return lastModified.get(); }
+        };
+    }
+    private ResourceResolverChain chainReturning(Resource resource) {
+        return new ResourceResolverChain() {
+            @Override public Resource resolveResource(HttpServletRequest request, String requestPath, List<? extends Resource> locations) { return resource; }
+            @Override public String resolveUrlPath(String resourcePath, List<? extends Resource> locations) { return resourcePath; }
+        };
+    }
+    private static MockHttpServletRequest request(String acceptEncoding) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        if(acceptEncoding != null) request.addHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        return request;
+    }
+
+    @Test public void gzipsWhenAccepted() throws IOException {
+        final PrecompressedResourceResolver resolver = new PrecompressedResourceResolver(() -> 100);
+        final Resource original = resourceNamed("test.js");
+        final Resource resolved = resolver.resolveResource(request("gzip, deflate"), "js/test.js", null, chainReturning(original));
+
+        assertThat(resolved, instanceOf(HttpResource.class));
+        assertThat(resolved.getFilename(), is("test.js"));
+        assertThat(resolved.lastModified(), is(1000L));
+        assertThat(((HttpResource)resolved).getResponseHeaders().getFirst(HttpHeaders.CONTENT_ENCODING), is("gzip"));
+        assertThat(resolved.contentLength() < original.contentLength(), is(true));
+        try(final GZIPInputStream in = new GZIPInputStream(resolved.getInputStream())) {
+            assertThat(new String(StreamUtils.copyToByteArray(in)), is(content));
+        }
+    }
+
+    @Test public void compressesOnceUntilChanged() {
+        final PrecompressedResourceResolver resolver = new PrecompressedResourceResolver(() -> 100);
+        final ResourceResolverChain chain = chainReturning(resourceNamed("test.css"));
+        final Resource first = resolver.resolveResource(request("gzip"), "test.css", null, chain);
+        assertThat(resolver.resolveResource(request("gzip"), "test.css", null, chain), sameInstance(first));
+
+        lastModified.set(2000);
+        assertThat(resolver.resolveResource(request("gzip"), "test.css", null, chain), not(sameInstance(first)));
+    }
+
+    @Test public void servedAsIsWhenNotApplicable() {
+        final Resource js = resourceNamed("test.js");
+        final Resource png = resourceNamed("test.png");
+        assertThat(new PrecompressedResourceResolver(() -> 100).resolveResource(request(null), "test.js", null, chainReturning(js)), sameInstance(js));
+        assertThat(new PrecompressedResourceResolver(() -> 100).resolveResource(request("gzip"), "test.png", null, chainReturning(png)), sameInstance(png));
+        assertThat(new PrecompressedResourceResolver(() -> 1_000_000).resolveResource(request("gzip"), "test.js", null, chainReturning(js)), sameInstance(js));
+        assertThat(new PrecompressedResourceResolver(() -> -1).resolveResource(request("gzip"), "test.js", null, chainReturning(js)), sameInstance(js));
+    }
+
+    @Test public void gzipRoundTrip() throws IOException {
+        final byte[] gzipped = PrecompressedResourceResolver.gzip(resourceNamed("a.txt"));
+        try(final GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertThat(new String(StreamUtils.copyToByteArray(in)), is(content));
+        }
+    }
+}
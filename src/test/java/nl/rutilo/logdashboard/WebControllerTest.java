@@ -0,0 +1,34 @@
+package nl.rutilo.logdashboard;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class WebControllerTest {
+    @Test public void invalidSearchRegexIsBadRequest() {
+        assertNotNull(WebController.toSearch("(unclosed", false, false)); // literal, so fine
+        try {
+            WebController.toSearch("(unclosed", true, false);
+            fail("expected bad request");
+        } catch(final ResponseStatusException e) {
+            assertThat(e.getStatus(), is(HttpStatus.BAD_REQUEST));
+            assertTrue(e.getReason(), e.getReason().startsWith("Invalid regex: Unclosed group"));
+        }
+    }
+
+    @Test public void unknownMetricsResolutionIsBadRequest() {
+        final WebController controller = new WebController(null); // no messaging
+        try {
+            controller.getMetricsSeries(Optional.empty(), "2m", Optional.empty(), Optional.empty());
+            fail("expected bad request");
+        } catch(final ResponseStatusException e) {
+            assertThat(e.getStatus(), is(HttpStatus.BAD_REQUEST));
+            assertThat(e.getReason(), is("Unknown resolution: 2m"));
+        }
+    }
+}
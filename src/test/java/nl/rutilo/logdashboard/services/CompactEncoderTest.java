@@ -0,0 +1,80 @@
+package nl.rutilo.logdashboard.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class CompactEncoderTest {
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test public void outputIsDeltaEncoded() throws IOException {
+        final List<LineInfo> lines = Arrays.asList(
+            new LineInfo(100, 1_000_000L, LineType.OUT,   Severity.NONE,  "first \"quoted\""),
+            new LineInfo(101, 1_000_005L, LineType.ERROR, Severity.FATAL, "second\n\u00e9"),
+            new LineInfo(110, 1_000_004L, LineType.OTHER, Severity.WARN,  "")
+        );
+        final JsonNode frame = json.readTree(CompactEncoder.encodeOutput(7, 42, lines));
+
+        assertThat(frame.size(), is(8));
+        assertThat(frame.get(0).asInt(), is(7));
+        assertThat(frame.get(1).asInt(), is(42));
+        assertThat(frame.get(2).asLong(), is(100L));
+        assertThat(frame.get(3).asLong(), is(1_000_000L));
+        assertThat(frame.get(4).toString(), is("[0,1,9]"));
+        assertThat(frame.get(5).toString(), is("[0,5,-1]"));
+        assertThat(frame.get(7).get(0).asText(), is("first \"quoted\""));
+        assertThat(frame.get(7).get(1).asText(), is("second\n\u00e9"));
+
+        for(int i=0; i<lines.size(); i++) { // same decoding as the client
+            final int code = frame.get(6).get(i).asInt();
+            assertThat(LineType.values()[code & 7], is(lines.get(i).type));
+            assertThat(Severity.values()[(code >> 3) & 3], is(lines.get(i).severity));
+            assertThat((code & 32) != 0, is(false));
+        }
+    }
+
+    @Test public void replacesIsPartOfCode() {
+        final LineInfo line = new LineInfo(LineType.OUT, "text", /*replacePrevious=*/true, Severity.WARN);
+        assertThat(CompactEncoder.codeOf(line), is(1 | 1 << 3 | 1 << 5));
+    }
+
+    @Test public void emptyOutput() throws IOException {
+        final JsonNode frame = json.readTree(CompactEncoder.encodeOutput(1, 0, new ArrayList<>()));
+        assertThat(frame.toString(), is("[1,0,0,0,[],[],[],[]]"));
+    }
+
+    @Test public void velocitiesAreSentAsChanges() {
+        assertThat(CompactEncoder.encodeVelocities(new int[] { 1, 2, 3 }, null), is("[1,1,2,3]"));
+        assertThat(CompactEncoder.encodeVelocities(new int[] { 1, 5, 3 }, new int[] { 1, 2, 3 }), is("[0,1,5]"));
+        assertThat(CompactEncoder.encodeVelocities(new int[] { 1, 5, 3 }, new int[] { 1, 5, 3 }), is("[0]"));
+        assertThat(CompactEncoder.encodeVelocities(new int[] { 4 }, new int[] { 1, 5 }), is("[1,4]"));
+    }
+
+    @Test public void stateHoldsOnlyChangingFields() throws IOException {
+        final Service service = new Service();
+        service.setName("Compact");
+        final JsonNode state = json.readTree(CompactEncoder.encodeState(service));
+        assertThat(state.get("name").asText(), is("Compact"));
+        assertThat(state.has("state"), is(true));
+        assertThat(state.has("location"), is(false));
+    }
+
+    @Test public void wireFormatOfDestination() {
+        assertThat(WireFormat.of("/topic/a.compact"), is(WireFormat.COMPACT));
+        assertThat(WireFormat.of("/topic/a"), is(WireFormat.JSON));
+        assertThat(WireFormat.topicOf("/topic/a.compact"), is("/topic/a"));
+        assertThat(WireFormat.topicOf("/topic/a"), is("/topic/a"));
+        assertThat(WireFormat.COMPACT.destinationOf("/topic/a"), is("/topic/a.compact"));
+    }
+}
@@ -0,0 +1,90 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class HealthCheckerTest {
+
+    private static boolean probePort(int port) throws InterruptedException, ExecutionException, TimeoutException {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        HealthChecker.probePort("localhost", port, 5000, result::complete);
+        return result.get(10, TimeUnit.SECONDS);
+    }
+    private static boolean probeUrl(String url) throws InterruptedException, ExecutionException, TimeoutException {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        HealthChecker.probeUrl(url, 5000, result::complete);
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test public void port() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final int port;
+        try(final ServerSocket server = new ServerSocket(0)) {
+            port = server.getLocalPort();
+            assertThat(probePort(port), is(true));
+        }
+        assertThat(probePort(port), is(false));
+    }
+
+    @Test public void http() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        try(final ServerSocket server = new ServerSocket(0)) {
+            final Thread responder = new Thread(() -> {
+                for(final String status : new String[] { "200 OK", "500 Internal Server Error" }) {
+                    try(final Socket socket = server.accept()) {
+                        final InputStream in = socket.getInputStream();
+                        final byte[] buffer = new byte[1024];
+                        final int count = in.read(buffer);
+                        final String request = new String(buffer, 0, Math.max(0, count), StandardCharsets.ISO_8859_1);
+                        final OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 " + (request.startsWith("GET /path?q=1 ") ? status : "400 Bad Request") + "\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    } catch(final IOException ignored) { /*ignored*/ }
+                }
+            });
+            responder.start();
+            final String url = "http://localhost:" + server.getLocalPort() + "/path?q=1";
+            assertThat(probeUrl(url), is(true));
+            assertThat(probeUrl(url), is(false));
+            responder.join(5000);
+        }
+        assertThat(probeUrl("not a url"), is(false));
+    }
+
+    @Test public void hostIsResolvedOnceAndOffTheCheckerThread() throws InterruptedException, ExecutionException, TimeoutException {
+        assertThat(HealthChecker.resolve("localhost"), is(HealthChecker.resolve("localhost"))); // cached
+        assertThat(HealthChecker.resolve("localhost").get(5, TimeUnit.SECONDS).isLoopbackAddress(), is(true));
+
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        HealthChecker.probePort("no-such-host.invalid", 80, 5000, result::complete);
+        final CompletableFuture<Void> scheduled = new CompletableFuture<>();
+        HealthChecker.schedule(0, () -> scheduled.complete(null)); // not held up by the lookup
+        scheduled.get(5, TimeUnit.SECONDS);
+        assertThat(result.get(10, TimeUnit.SECONDS), is(false));
+    }
+
+    @Test public void scheduleInOrder() throws InterruptedException {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        HealthChecker.schedule(60, () -> { order.add(3); done.complete(null); });
+        HealthChecker.schedule(0, () -> order.add(1));
+        HealthChecker.schedule(30, () -> order.add(2));
+        HealthChecker.schedule(10, () -> order.add(-1)).cancel();
+        try { done.get(5, TimeUnit.SECONDS); } catch(final ExecutionException | TimeoutException e) { fail(e.toString()); }
+        assertThat(order.toString(), is("[1, 2, 3]"));
+    }
+}
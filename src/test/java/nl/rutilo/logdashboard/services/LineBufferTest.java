@@ -0,0 +1,135 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class LineBufferTest {
+
+    @Test public void addAndGet() {
+        final LineBuffer buffer = new LineBuffer(3);
+        assertThat(buffer.getAll().isEmpty(), is(true));
+
+        buffer.add(line(LineType.OUT, "a"));
+        buffer.add(line(LineType.ERROR, "b"));
+        assertThat(textsOf(buffer.getAll()), is("a,b"));
+        assertThat(buffer.getAll().get(1).type, is(LineType.ERROR));
+        assertThat(buffer.size(), is(2));
+
+        buffer.add(line(LineType.OUT, "c"));
+        buffer.add(line(LineType.OTHER, "d"));
+        buffer.add(line(LineType.OUT, "e"));
+        assertThat(textsOf(buffer.getAll()), is("c,d,e"));
+        assertThat(buffer.getAll().get(1).type, is(LineType.OTHER));
+        assertThat(buffer.size(), is(3));
+
+        assertThat(textsOf(buffer.getLast(2)), is("d,e"));
+        assertThat(textsOf(buffer.getLast(0)), is(""));
+    }
+
+    @Test public void keepsLineInfoFields() {
+        final LineBuffer buffer = new LineBuffer(10);
+        final LineInfo li = line(LineType.WAITING, "waiting");
+        buffer.add(li);
+
+        final LineInfo copy = buffer.getAll().get(0);
+        assertThat(copy.index, is(li.index));
+        assertThat(copy.time, is(li.time));
+        assertThat(copy.type, is(li.type));
+        assertThat(copy.severity, is(li.severity));
+        assertThat(copy.text, is(li.text));
+        assertThat(copy.replaces, is(false));
+    }
+
+    @Test public void clear() {
+        final LineBuffer buffer = new LineBuffer(3);
+        buffer.add(line(LineType.OUT, "a"));
+        buffer.add(line(LineType.OUT, "b"));
+        buffer.clear();
+        assertThat(buffer.getAll().isEmpty(), is(true));
+        assertThat(buffer.size(), is(0));
+
+        buffer.add(line(LineType.OUT, "c"));
+        assertThat(textsOf(buffer.getAll()), is("c"));
+    }
+
+    @Test public void getRange() {
+        final LineBuffer buffer = new LineBuffer(5);
+        for(int i=0; i<8; i++) buffer.add(new LineInfo(i * 10, i, LineType.OUT, ServiceLogger.Severity.NONE, "" + i)); // 3..7 remain
+
+        assertThat(textsOf(buffer.getRange(-1, Long.MAX_VALUE, 10, true)), is("3,4,5,6,7"));
+        assertThat(textsOf(buffer.getRange(-1, Long.MAX_VALUE, 2, true)), is("6,7"));
+        assertThat(textsOf(buffer.getRange(-1, Long.MAX_VALUE, 2, false)), is("3,4"));
+        assertThat(textsOf(buffer.getRange(40, Long.MAX_VALUE, 10, false)), is("5,6,7"));
+        assertThat(textsOf(buffer.getRange(45, Long.MAX_VALUE, 10, false)), is("5,6,7"));
+        assertThat(textsOf(buffer.getRange(-1, 60, 10, true)), is("3,4,5"));
+        assertThat(textsOf(buffer.getRange(30, 60, 1, true)), is("5"));
+        assertThat(textsOf(buffer.getRange(30, 60, 1, false)), is("4"));
+        assertThat(textsOf(buffer.getRange(70, Long.MAX_VALUE, 10, false)), is(""));
+        assertThat(textsOf(buffer.getRange(-1, 30, 10, true)), is(""));
+        assertThat(textsOf(buffer.getRange(60, 40, 10, true)), is(""));
+    }
+
+    @Test public void search() {
+        final LineBuffer buffer = new LineBuffer(4);
+        buffer.add(line(LineType.OUT, "Started application"));
+        buffer.add(new LineInfo(0, 1000, LineType.ERROR, ServiceLogger.Severity.ERROR, "java.lang.NullPointerException: a"));
+        buffer.add(new LineInfo(0, 2000, LineType.ERROR, ServiceLogger.Severity.ERROR, "java.lang.NullPointerException: b"));
+        buffer.add(line(LineType.OUT, "Stopped"));
+
+        assertThat(textsOf(buffer.search(LineSearch.literal("nullpointer", false), 10)), is("java.lang.NullPointerException: a,java.lang.NullPointerException: b"));
+        assertThat(textsOf(buffer.search(LineSearch.literal("nullpointer", true), 10)), is(""));
+        assertThat(textsOf(buffer.search(LineSearch.literal("NullPointer", true), 1)), is("java.lang.NullPointerException: b"));
+        assertThat(textsOf(buffer.search(LineSearch.regex("Null\\w+: a", true), 10)), is("java.lang.NullPointerException: a"));
+        assertThat(textsOf(buffer.search(LineSearch.regex("^St", true), 10)), is("Started application,Stopped"));
+        assertThat(textsOf(buffer.search(LineSearch.literal("Exception", true).between(1500, 2500), 10)), is("java.lang.NullPointerException: b"));
+
+        buffer.add(line(LineType.OUT, "Overwrites Started"));
+        assertThat(textsOf(buffer.search(LineSearch.literal("Started", true), 10)), is("Overwrites Started"));
+        buffer.clear();
+        assertThat(textsOf(buffer.search(LineSearch.literal("Started", true), 10)), is(""));
+    }
+
+    @Test public void readWhileWriting() throws InterruptedException {
+        final LineBuffer buffer = new LineBuffer(100);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        final Thread reader = new Thread(() -> {
+            while(!done.get() && failure.get() == null) {
+                final List<LineInfo> lines = buffer.getAll();
+                for(int i=0; i<lines.size(); i++) {
+                    final LineInfo li = lines.get(i);
+                    if(!li.text.equals("" + li.index)) failure.set("inconsistent line: " + li.index + " " + li.text);
+                    if(i > 0 && lines.get(i-1).index + 1 != li.index) failure.set("out of order: " + lines.get(i-1).index + " " + li.index);
+                }
+            }
+        });
+        reader.start();
+
+        for(int i=0; i<200_000; i++) {
+            final LineInfo li = line(LineType.OUT, "");
+            buffer.add(new LineInfo(i, li.time, li.type, li.severity, "" + i));
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+        assertThat(buffer.getAll().get(99).index, is(199_999L));
+    }
+
+    private static LineInfo line(LineType type, String text) {
+        return new LineInfo(type, text);
+    }
+    private static String textsOf(List<LineInfo> lines) {
+        return lines.stream().map(li -> li.text).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,97 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class LineClassifierTest {
+
+    @Test public void builtInRules() {
+        final LineClassifier classifier = LineClassifier.builtIn();
+
+        assertThat(classifier.classify("java.lang.IllegalStateException: oops"), is(Severity.ERROR));
+        assertThat(classifier.classify("\tat nl.rutilo.Foo.bar(Foo.java:12)"), is(Severity.ERROR));
+        assertThat(classifier.classify("Caused by: java.io.IOException: closed"), is(Severity.ERROR));
+        assertThat(classifier.classify("\t... 12 more"), is(Severity.ERROR));
+        assertThat(classifier.classify("[ERROR] Failed to execute goal"), is(Severity.ERROR));
+
+        assertThat(classifier.classify("Started Application in 1.23 seconds"), is(Severity.NONE));
+        assertThat(classifier.classify("no [ERROR] at start"), is(Severity.NONE));
+        assertThat(classifier.classify("Exception: without package"), is(Severity.NONE));
+        assertThat(classifier.classify(""), is(Severity.NONE));
+    }
+
+    @Test public void configuredRules() {
+        final Service service = new Service();
+        final Map<String,String> levels = new LinkedHashMap<>();
+        levels.put("warn", "\\bWARN\\b");
+        levels.put("ERROR", "^\\S+ ERROR ");
+        levels.put("Fatal", "OutOfMemoryError");
+        service.setLogLevels(levels);
+
+        final LineClassifier classifier = LineClassifier.of(service, error -> fail(error));
+
+        assertThat(classifier.classify("12:00 INFO  all is well"), is(Severity.NONE));
+        assertThat(classifier.classify("12:00 WARN  disk almost full"), is(Severity.WARN));
+        assertThat(classifier.classify("12:00 ERROR something failed"), is(Severity.ERROR));
+        assertThat(classifier.classify("WARN: not at start ERROR "), is(Severity.WARN));
+        assertThat(classifier.classify("12:00 WARN java.lang.OutOfMemoryError"), is(Severity.FATAL)); // most severe wins
+        assertThat(classifier.classify("java.lang.IllegalStateException: WARN"), is(Severity.ERROR));
+    }
+
+    @Test public void rulesWithGroupReferences() {
+        final Service service = new Service();
+        final Map<String,String> levels = new LinkedHashMap<>();
+        levels.put("warn", "(\\w+) again \\1");                 // backreference: kept as separate pattern
+        levels.put("error", "(x)(y) (?<code>E\\d+) \\k<code>"); // named group and reference
+        levels.put("fatal", "(?<code>F\\d+)!");                 // same group name as the error rule
+        service.setLogLevels(levels);
+        final LineClassifier classifier = LineClassifier.of(service, error -> fail(error));
+
+        assertThat(classifier.classify("oops again oops"), is(Severity.WARN));
+        assertThat(classifier.classify("oops again other"), is(Severity.NONE));
+        assertThat(classifier.classify("xy E12 E12"), is(Severity.ERROR));
+        assertThat(classifier.classify("xy E12 E13"), is(Severity.NONE));
+        assertThat(classifier.classify("oops again oops F1!"), is(Severity.FATAL));
+        assertThat(classifier.classify("java.lang.IllegalStateException: oops again oops"), is(Severity.ERROR));
+
+        assertTrue(LineClassifier.refersToGroups("a\\1"));
+        assertTrue(LineClassifier.refersToGroups("(?<name>a)"));
+        assertFalse(LineClassifier.refersToGroups("(?<=a)b(?<!c)\\\\1"));
+    }
+
+    @Test public void configurationErrors() {
+        final Service service = new Service();
+        final Map<String,String> levels = new LinkedHashMap<>();
+        levels.put("SEVERE", "foo");
+        levels.put("WARN", "(unclosed");
+        levels.put("ERROR", "bar");
+        service.setLogLevels(levels);
+        service.setLogDeletes(Arrays.asList("[", "\\s+$"));
+
+        final List<String> errors = new ArrayList<>();
+        final LineClassifier classifier = LineClassifier.of(service, errors::add);
+
+        assertThat(errors.size(), is(3));
+        assertThat(classifier.classify("foo bar"), is(Severity.ERROR));
+        assertThat(classifier.classify("(unclosed"), is(Severity.NONE));
+        assertThat(classifier.clean("trailing   "), is("trailing"));
+    }
+
+    @Test public void clean() {
+        final Service service = new Service();
+        service.setLogDeletes(Arrays.asList("\\d{4}-\\d\\d-\\d\\d ", "\\[main\\] "));
+        final LineClassifier classifier = LineClassifier.of(service, error -> fail(error));
+
+        assertThat(classifier.clean("2020-01-02 [main] started"), is("started"));
+        assertThat(LineClassifier.builtIn().clean("2020-01-02 [main] started"), is("2020-01-02 [main] started"));
+    }
+}
@@ -0,0 +1,49 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class LineSearchTest {
+
+    @Test public void requiredLiterals() {
+        assertThat(LineSearch.requiredLiterals("NullPointerException"), is(Collections.singletonList("NullPointerException")));
+        assertThat(LineSearch.requiredLiterals("Connection (refused|reset) at port \\d+"), is(Arrays.asList("Connection ", " at port ")));
+        assertThat(LineSearch.requiredLiterals("colou?r abc[de]fgh"), is(Arrays.asList("colo", "r abc", "fgh")));
+        assertThat(LineSearch.requiredLiterals("java\\.lang\\..*Exception"), is(Arrays.asList("java.lang.", "Exception")));
+        assertThat(LineSearch.requiredLiterals("abcd{0,2}efg+"), is(Arrays.asList("abc", "efg")));
+        assertThat(LineSearch.requiredLiterals("error|warning"), is(Collections.emptyList()));
+        assertThat(LineSearch.requiredLiterals("(?x) a b c"), is(Collections.emptyList()));
+        assertThat(LineSearch.requiredLiterals("\\Qa.b\\E"), is(Collections.emptyList()));
+    }
+
+    @Test public void signatureNeverSkipsMatches() {
+        final Random random = new Random(1);
+        final String chars = "abcABC .:-\u00e9";
+        for(int n=0; n<2000; n++) {
+            final StringBuilder sb = new StringBuilder();
+            for(int i=0; i<10 + random.nextInt(50); i++) sb.append(chars.charAt(random.nextInt(chars.length())));
+            final String text = sb.toString();
+            final int from = random.nextInt(text.length() - 4);
+            final String part = text.substring(from, from + 3 + random.nextInt(text.length() - from - 3));
+
+            final long[] signature = new long[LineSearch.SIGNATURE_LONGS];
+            LineSearch.addSignature(text, signature, 0);
+            final LineSearch literal = LineSearch.literal(part.toUpperCase(), false);
+            assertThat(text + " / " + part, literal.mayMatch(signature, 0) && literal.matches(text), is(true));
+        }
+    }
+
+    @Test public void signatureSkipsMostLines() {
+        final long[] signature = new long[LineSearch.SIGNATURE_LONGS];
+        LineSearch.addSignature("2020-02-14 12:00:01.123 INFO Started application in 3.2 seconds", signature, 0);
+        assertThat(LineSearch.literal("NullPointerException", false).mayMatch(signature, 0), is(false));
+        assertThat(LineSearch.literal("started", false).mayMatch(signature, 0), is(true));
+        assertThat(LineSearch.literal("ok", false).mayMatch(signature, 0), is(true)); // too short to have a trigram
+    }
+}
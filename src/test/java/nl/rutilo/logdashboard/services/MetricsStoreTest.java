@@ -0,0 +1,114 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.MetricsStore.SeriesData;
+import nl.rutilo.logdashboard.services.ServiceState.State;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.*;
+
+public class MetricsStoreTest {
+    private static final long HOUR = 3600_000;
+    private static final long T0   = 1000 * HOUR; // aligned on all resolutions
+
+    @Test public void samplesAreRolledUp() {
+        final MetricsStore store = new MetricsStore();
+        for(int i=0; i<24; i++) store.record("a", T0 + i * 5_000, 10, i == 13 ? 6 : 0, i == 13 ? State.RUNNING_ERROR : State.RUNNING);
+
+        final SeriesData fine = store.get("a", 5_000, T0, T0 + HOUR, T0 + HOUR);
+        assertThat(fine.start, is(T0));
+        assertThat(fine.linesPerSecond.length, is(24));
+        assertThat(fine.linesPerSecond[0], is(2.0));
+        assertThat(fine.errorsPerSecond[13], is(1.2));
+        assertThat(fine.states[12], is("RUNNING"));
+        assertThat(fine.states[13], is("RUNNING_ERROR"));
+
+        final SeriesData minutes = store.get("a", 60_000, T0, T0 + HOUR, T0 + HOUR);
+        assertThat(minutes.linesPerSecond.length, is(2));
+        assertThat(minutes.linesPerSecond[0], is(2.0));
+        assertThat(minutes.errorsPerSecond[0], is(0.0));
+        assertThat(minutes.errorsPerSecond[1], is(0.1));
+        assertThat(minutes.states[1], is("RUNNING_ERROR")); // most severe
+
+        final SeriesData hours = store.get("a", HOUR, T0, T0 + HOUR, T0 + HOUR);
+        assertThat(hours.linesPerSecond.length, is(1));
+        assertThat(hours.linesPerSecond[0], is(240 / 3600.0));
+    }
+
+    @Test public void newestSlotRateIsOverElapsedTime() {
+        final MetricsStore store = new MetricsStore();
+        store.record("a", T0, 60, 0, State.RUNNING);
+        assertThat(store.get("a", 60_000, T0, T0, T0 + 30_000).linesPerSecond[0], is(2.0));
+    }
+
+    @Test public void gapsAreNull() {
+        final MetricsStore store = new MetricsStore();
+        store.record("a", T0, 5, 0, State.RUNNING);
+        store.record("a", T0 + 3 * 60_000, 5, 0, State.OFF);
+
+        final SeriesData minutes = store.get("a", 60_000, 0, Long.MAX_VALUE, T0 + HOUR);
+        assertThat(minutes.start, is(T0));
+        assertThat(minutes.linesPerSecond.length, is(4));
+        assertThat(minutes.linesPerSecond[1], is(nullValue()));
+        assertThat(minutes.states[2], is(nullValue()));
+        assertThat(minutes.states[3], is("OFF"));
+    }
+
+    @Test public void oldSlotsAreOverwritten() {
+        final MetricsStore store = new MetricsStore();
+        for(int i=0; i<2 * 720; i++) store.record("a", T0 + i * 5_000L, 1, 0, State.RUNNING);
+        final SeriesData fine = store.get("a", 5_000, 0, Long.MAX_VALUE, T0 + 2 * HOUR);
+        assertThat(fine.start, is(T0 + HOUR));
+        assertThat(fine.linesPerSecond.length, is(720));
+    }
+
+    @Test public void sampleUsesDeltasOfTotals() {
+        final MetricsStore store = new MetricsStore();
+        store.sample("a", T0, 1000, 10, State.RUNNING); // first sample: only remembers the totals
+        store.sample("a", T0 + 5_000, 1050, 15, State.RUNNING);
+        final SeriesData fine = store.get("a", 5_000, T0, T0 + HOUR, T0 + HOUR);
+        assertThat(fine.linesPerSecond[0], is(0.0));
+        assertThat(fine.linesPerSecond[1], is(10.0));
+        assertThat(fine.errorsPerSecond[1], is(1.0));
+    }
+
+    @Test public void unknownIsNull() {
+        final MetricsStore store = new MetricsStore();
+        assertThat(store.get("a", HOUR, 0, T0, T0), is(nullValue()));
+        store.record("a", T0, 1, 0, State.RUNNING);
+        assertThat(store.get("a", 1234, 0, T0, T0), is(nullValue()));
+        assertThat(MetricsStore.resolutionOf("1m").get(), is(60_000L));
+        assertFalse(MetricsStore.resolutionOf("2m").isPresent());
+    }
+
+    @Test public void saveAndLoad() throws IOException {
+        final File file = new File(Files.createTempDirectory("metricsStore").toFile(), "metrics.dat");
+        final MetricsStore store = new MetricsStore();
+        for(int i=0; i<100; i++) store.record("a", T0 + i * 5_000L, i, i % 2, State.RUNNING);
+        store.record("b", T0, 3, 0, null);
+        store.save(file);
+
+        final MetricsStore loaded = MetricsStore.load(file);
+        assertThat(loaded.getServiceNames().toString(), is("[a, b]"));
+        for(final long resolution : MetricsStore.STEPS_MS) {
+            final SeriesData expected = store.get("a", resolution, 0, Long.MAX_VALUE, T0 + HOUR);
+            final SeriesData actual = loaded.get("a", resolution, 0, Long.MAX_VALUE, T0 + HOUR);
+            assertThat(actual.start, is(expected.start));
+            assertArrayEquals(expected.linesPerSecond, actual.linesPerSecond);
+            assertArrayEquals(expected.errorsPerSecond, actual.errorsPerSecond);
+            assertArrayEquals(expected.states, actual.states);
+        }
+        assertThat(loaded.get("b", 5_000, 0, Long.MAX_VALUE, T0 + HOUR).states[0], is(nullValue()));
+    }
+
+    @Test public void corruptFileGivesEmptyStore() throws IOException {
+        final File file = new File(Files.createTempDirectory("metricsStore").toFile(), "metrics.dat");
+        Files.write(file.toPath(), new byte[] { 1, 2, 3 });
+        assertTrue(MetricsStore.load(file).getServiceNames().isEmpty());
+    }
+}
@@ -0,0 +1,69 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.util.Util;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class OutputBatcherTest {
+    private final List<String> batches = Collections.synchronizedList(new ArrayList<>());
+
+    private void send(List<LineInfo> lines) {
+        batches.add(lines.stream().map(li -> li.text).collect(Collectors.joining(",")));
+    }
+
+    @Test public void batchOnCount() {
+        final OutputBatcher batcher = new OutputBatcher(this::send, () -> 10_000, () -> 3);
+        for(int i=1; i<=7; i++) batcher.add(new LineInfo(LineType.OUT, "" + i));
+
+        assertThat(batches, is(listOf("1,2,3", "4,5,6")));
+        batcher.flush();
+        assertThat(batches, is(listOf("1,2,3", "4,5,6", "7")));
+        batcher.flush();
+        assertThat(batches.size(), is(3));
+    }
+
+    @Test public void batchOnTime() {
+        final OutputBatcher batcher = new OutputBatcher(this::send, () -> 50, () -> 1000);
+        batcher.add(new LineInfo(LineType.OUT, "a"));
+        batcher.add(new LineInfo(LineType.OUT, "b"));
+        assertThat(batches.isEmpty(), is(true));
+
+        Util.sleep(Duration.ofMillis(200));
+        assertThat(batches, is(listOf("a,b")));
+
+        batcher.add(new LineInfo(LineType.OUT, "c"));
+        Util.sleep(Duration.ofMillis(200));
+        assertThat(batches, is(listOf("a,b", "c")));
+    }
+
+    @Test public void noBatching() {
+        final OutputBatcher batcher = new OutputBatcher(this::send, () -> 0, () -> 1000);
+        batcher.add(new LineInfo(LineType.OUT, "a"));
+        batcher.add(new LineInfo(LineType.OUT, "b"));
+        assertThat(batches, is(listOf("a", "b")));
+    }
+
+    @Test public void discard() {
+        final OutputBatcher batcher = new OutputBatcher(this::send, () -> 50, () -> 1000);
+        batcher.add(new LineInfo(LineType.OUT, "a"));
+        batcher.discard();
+        Util.sleep(Duration.ofMillis(150));
+        assertThat(batches.isEmpty(), is(true));
+    }
+
+    private static List<String> listOf(String... items) {
+        final List<String> list = new ArrayList<>();
+        Collections.addAll(list, items);
+        return list;
+    }
+}
@@ -0,0 +1,126 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class OutputStoreTest {
+
+    @Test public void appendAndRead() throws IOException {
+        final File dir = Files.createTempDirectory("outputStoreTest").toFile();
+        try(final OutputStore store = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error))) {
+            for(int i=0; i<1000; i++) store.append(line(i * 2, 1000L + i, "line " + i));
+            assertThat(store.getLineCount(), is(1000));
+            assertThat(dir.listFiles().length > 10, is(true));
+
+            assertThat(indicesOf(store.getBefore(Integer.MAX_VALUE, 3)), is("1994,1996,1998"));
+            assertThat(indicesOf(store.getBefore(1001, 3)), is("996,998,1000"));
+            assertThat(indicesOf(store.getBefore(4, 10)), is("0,2"));
+            assertThat(indicesOf(store.getBefore(0, 10)), is(""));
+            assertThat(store.getBefore(Integer.MAX_VALUE, 1000).size(), is(1000));
+
+            assertThat(indicesOf(store.getFrom(1500, 3)), is("1000,1002,1004"));
+            assertThat(indicesOf(store.getFrom(0, 2)), is("0,2"));
+            assertThat(store.getFrom(5000, 2).isEmpty(), is(true));
+
+            final LineInfo li = store.getBefore(1, 1).get(0);
+            assertThat(li.time, is(1000L));
+            assertThat(li.type, is(LineType.ERROR));
+            assertThat(li.severity, is(Severity.WARN));
+            assertThat(li.text, is("line 0"));
+        }
+    }
+
+    @Test public void retentionDeletesWholeSegments() throws IOException {
+        final File dir = Files.createTempDirectory("outputStoreTest").toFile();
+        try(final OutputStore store = new OutputStore(dir, 1024, 4096, error -> fail(error))) {
+            for(int i=0; i<1000; i++) store.append(line(i, i, "line " + i));
+            assertThat(store.getSize() <= 4096 + 1024, is(true));
+            assertThat(dir.listFiles().length <= 5, is(true));
+
+            final List<LineInfo> all = store.getBefore(Integer.MAX_VALUE, 1000);
+            assertThat(all.size(), is(store.getLineCount()));
+            assertThat(all.get(all.size() - 1).index, is(999L));
+            for(int i=1; i<all.size(); i++) assertThat(all.get(i).index, is(all.get(i - 1).index + 1));
+
+            store.clear();
+            assertThat(store.getLineCount(), is(0));
+            assertThat(dir.listFiles().length, is(0));
+            store.append(line(5, 5, "after clear"));
+            assertThat(store.getBefore(Integer.MAX_VALUE, 10).get(0).text, is("after clear"));
+        }
+    }
+
+    @Test public void longLines() throws IOException {
+        final File dir = Files.createTempDirectory("outputStoreTest").toFile();
+        try(final OutputStore store = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error))) {
+            final StringBuilder text = new StringBuilder();
+            for(int i=0; i<100_000; i++) text.append((char)('a' + i % 26));
+            store.append(line(1, 1, "short"));
+            store.append(line(2, 2, text.toString()));
+            store.append(line(3, 3, "\u00e9\u20ac"));
+            assertThat(store.getBefore(3, 1).get(0).text, is(text.toString()));
+            assertThat(store.getBefore(4, 1).get(0).text, is("\u00e9\u20ac"));
+        }
+    }
+
+    @Test public void directoryIsNotSharedWithLiveStore() throws IOException {
+        assertThat(OutputStore.dirNameOf("a b").equals(OutputStore.dirNameOf("a_b")), is(false));
+        assertThat(OutputStore.dirNameOf("a b").startsWith("a_b-"), is(true));
+
+        final File dir = new File(Files.createTempDirectory("outputStoreTest").toFile(), "service");
+        try(final OutputStore first = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error))) {
+            first.append(line(1, 1, "first"));
+            try(final OutputStore second = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error))) {
+                assertThat(second.getDir().equals(first.getDir()), is(false));
+                second.append(line(2, 2, "second"));
+                assertThat(first.getBefore(Integer.MAX_VALUE, 10).get(0).text, is("first")); // not deleted
+            }
+        }
+        try(final OutputStore next = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error))) {
+            assertThat(next.getDir(), is(dir.getAbsoluteFile())); // released on close
+            assertThat(dir.listFiles().length, is(0)); // previous run removed
+        }
+    }
+
+    @Test public void appendAfterCloseIsIgnored() throws IOException {
+        final File dir = Files.createTempDirectory("outputStoreTest").toFile();
+        final OutputStore store = new OutputStore(dir, 1024, 1024 * 1024, error -> fail(error));
+        store.append(line(1, 1, "stored"));
+        store.close();
+        store.append(line(2, 2, "after close")); // e.g. still queued when the service was removed
+        assertThat(store.getLineCount(), is(1));
+        assertThat(dir.listFiles().length, is(1));
+    }
+
+    @Test public void writeErrorDisablesOnce() throws IOException {
+        final File parent = Files.createTempDirectory("outputStoreTest").toFile();
+        final File notADir = new File(parent, "file");
+        Files.write(notADir.toPath(), new byte[1]);
+        final List<String> errors = new ArrayList<>();
+        try(final OutputStore store = new OutputStore(notADir, 1024, 1024 * 1024, errors::add)) {
+            for(int i=0; i<10; i++) store.append(line(i, i, "line " + i));
+            assertThat(errors.size(), is(1));
+            assertThat(store.isDisabled(), is(true));
+            assertThat(store.getBefore(Integer.MAX_VALUE, 10).isEmpty(), is(true));
+        }
+    }
+
+    private static LineInfo line(long index, long time, String text) {
+        return new LineInfo(index, time, LineType.ERROR, Severity.WARN, text);
+    }
+    private static String indicesOf(List<LineInfo> lines) {
+        return lines.stream().map(li -> "" + li.index).collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,103 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.Constants;
+import org.junit.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class OutputSubscriptionsTest {
+    private final Service             serviceA      = newService("A");
+    private final Service             serviceB      = newService("B");
+    private final OutputSubscriptions subscriptions = new OutputSubscriptions(new SimpMessagingTemplate((message, timeout) -> true),
+        uid -> uid == serviceA.uid ? Optional.of(serviceA) : uid == serviceB.uid ? Optional.of(serviceB) : Optional.empty());
+
+    @Test public void sessionsWatchDifferentServices() {
+        assertThat(subscriptions.subscribe("session1", "sub-0", topicOf(serviceA)), is(true));
+        assertThat(subscriptions.subscribe("session2", "sub-0", topicOf(serviceB)), is(true));
+        assertThat(serviceA.logger.isMessaging(), is(true));
+        assertThat(serviceB.logger.isMessaging(), is(true));
+
+        subscriptions.unsubscribe("session1", "sub-0");
+        assertThat(serviceA.logger.isMessaging(), is(false));
+        assertThat(serviceB.logger.isMessaging(), is(true)); // not affected by the other session
+    }
+
+    @Test public void lastWatcherStopsMessaging() {
+        subscriptions.subscribe("session1", "sub-0", topicOf(serviceA));
+        subscriptions.subscribe("session2", "sub-3", topicOf(serviceA));
+        assertThat(subscriptions.getWatcherCount(serviceA), is(2));
+
+        subscriptions.disconnect("session1");
+        assertThat(subscriptions.getWatcherCount(serviceA), is(1));
+        assertThat(serviceA.logger.isMessaging(), is(true));
+
+        subscriptions.disconnect("session2");
+        assertThat(subscriptions.getWatcherCount(serviceA), is(0));
+        assertThat(serviceA.logger.isMessaging(), is(false));
+    }
+
+    @Test public void disconnectRemovesAllSubscriptionsOfSession() {
+        subscriptions.subscribe("session1", "sub-0", topicOf(serviceA));
+        subscriptions.subscribe("session1", "sub-1", topicOf(serviceB));
+        subscriptions.disconnect("session1");
+        assertThat(serviceA.logger.isMessaging(), is(false));
+        assertThat(serviceB.logger.isMessaging(), is(false));
+        subscriptions.disconnect("session1"); // twice is harmless
+        subscriptions.unsubscribe("session1", "sub-0");
+        assertThat(subscriptions.getWatcherCount(serviceA), is(0));
+    }
+
+    @Test public void otherDestinationsAreIgnored() {
+        assertThat(subscriptions.subscribe("session1", "sub-0", Constants.MSG_TOPIC_STATE_CHANGE), is(false));
+        assertThat(subscriptions.subscribe("session1", "sub-1", Constants.MSG_TOPIC_PROCESS_OUTPUT + "x"), is(false));
+        assertThat(subscriptions.subscribe("session1", "sub-2", Constants.MSG_TOPIC_PROCESS_OUTPUT + "-1"), is(false));
+        assertThat(subscriptions.subscribe("session1", "sub-3", Constants.MSG_TOPIC_CLEAR_PROCESS_OUTPUT + serviceA.uid), is(false));
+        assertThat(serviceA.logger.isMessaging(), is(false));
+    }
+
+    @Test public void reusedSubscriptionIdReplacesSubscription() {
+        subscriptions.subscribe("session1", "sub-0", topicOf(serviceA));
+        subscriptions.subscribe("session1", "sub-0", topicOf(serviceB));
+        assertThat(serviceA.logger.isMessaging(), is(false));
+        assertThat(serviceB.logger.isMessaging(), is(true));
+    }
+
+    @Test public void onlySubscribedFormatsAreSent() {
+        subscriptions.subscribe("session1", "sub-0", topicOf(serviceA));
+        subscriptions.subscribe("session2", "sub-0", WireFormat.COMPACT.destinationOf(topicOf(serviceA)));
+        assertThat(serviceA.logger.isMessaging(WireFormat.JSON), is(true));
+        assertThat(serviceA.logger.isMessaging(WireFormat.COMPACT), is(true));
+        assertThat(subscriptions.getWatcherCount(serviceA), is(2));
+
+        subscriptions.disconnect("session1");
+        assertThat(serviceA.logger.isMessaging(WireFormat.JSON), is(false));
+        assertThat(serviceA.logger.isMessaging(WireFormat.COMPACT), is(true));
+    }
+
+    @Test public void otherDestinationsAreCounted() {
+        final String topic = WireFormat.COMPACT.destinationOf(Constants.MSG_TOPIC_LOG_VELOCITIES);
+        subscriptions.subscribe("session1", "sub-0", topic);
+        subscriptions.subscribe("session2", "sub-0", topic);
+        assertThat(subscriptions.isSubscribed(topic), is(true));
+        assertThat(subscriptions.getSubscriptionCount(topic), is(2));
+        assertThat(subscriptions.isSubscribed(Constants.MSG_TOPIC_LOG_VELOCITIES), is(false));
+        assertThat(subscriptions.getSubscriptionCount(Constants.MSG_TOPIC_LOG_VELOCITIES), is(0));
+        subscriptions.unsubscribe("session1", "sub-0");
+        assertThat(subscriptions.isSubscribed(topic), is(true));
+        assertThat(subscriptions.getSubscriptionCount(topic), is(1));
+        subscriptions.disconnect("session2");
+        assertThat(subscriptions.isSubscribed(topic), is(false));
+        assertThat(subscriptions.getSubscriptionCount(topic), is(0));
+    }
+
+    private static String topicOf(Service service) { return Constants.MSG_TOPIC_PROCESS_OUTPUT + service.uid; }
+    private static Service newService(String name) {
+        final Service service = new Service();
+        service.setName(name);
+        return service;
+    }
+}
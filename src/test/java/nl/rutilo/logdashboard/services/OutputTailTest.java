@@ -0,0 +1,172 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class OutputTailTest {
+
+    /** Records what is sent. When a gate is given, sending waits until it is opened. */
+    private static class RecordingEmitter extends ResponseBodyEmitter {
+        private final StringBuffer   sent = new StringBuffer();
+        private final CountDownLatch gate;
+        private volatile boolean     completed;
+        RecordingEmitter(CountDownLatch gate) { this.gate = gate; }
+        @Override public void send(Object data, MediaType mediaType) {
+            try { gate.await(); } catch(final InterruptedException e) { throw new IllegalStateException(e); }
+            sent.append(new String((byte[])data, StandardCharsets.UTF_8));
+        }
+        @Override public void complete() { completed = true; }
+        String getSent() { return sent.toString(); }
+    }
+
+    @Test public void ndjsonBacklogThenLive() {
+        final Service service = newService();
+        service.logger.logOther("line 1");
+        service.logger.logOther("line 2");
+        service.logger.logOther("line 3");
+        waitFor(service.logger::isPipelineIdle);
+
+        final RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.NDJSON, Optional.empty(), 2, Optional.empty(), Optional.empty());
+        service.logger.logOther("line 4");
+        waitFor(() -> emitter.getSent().contains("line 4"));
+
+        final String[] lines = emitter.getSent().split("\n");
+        assertThat(lines.length, is(3));
+        assertThat(lines[0].startsWith("{\"index\":"), is(true));
+        assertThat(lines[0].contains("\"text\":\"line 2\""), is(true));
+        assertThat(lines[2].contains("\"text\":\"line 4\""), is(true));
+
+        tail.close();
+        assertThat(emitter.completed, is(true));
+        service.logger.logOther("line 5");
+        waitFor(service.logger::isPipelineIdle);
+        assertThat(emitter.getSent().contains("line 5"), is(false));
+    }
+
+    @Test public void sseContinuesAfterLastEventId() {
+        final Service service = newService();
+        service.logger.logOther("first");
+        service.logger.logOther("second");
+        waitFor(service.logger::isPipelineIdle);
+        final long firstIndex = service.logger.getBuffer().get(0).index;
+
+        final RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.SSE, Optional.of(firstIndex), 10, Optional.empty(), Optional.empty());
+        waitFor(() -> emitter.getSent().contains("second"));
+
+        assertThat(emitter.getSent().contains("first"), is(false));
+        assertThat(emitter.getSent().startsWith("id: " + (firstIndex + 1) + "\ndata: {"), is(true));
+        assertThat(emitter.getSent().endsWith("}\n\n"), is(true));
+        tail.close();
+    }
+
+    @Test public void linesPublishedDuringSubscribeAreKept() {
+        final Service service = newService();
+        service.logger = new ServiceLogger(service) {
+            @Override public List<ServiceLogger.LineInfo> getRange(long afterIndex, long beforeIndex, int maxCount, boolean newest) {
+                final List<ServiceLogger.LineInfo> backlog = super.getRange(afterIndex, beforeIndex, maxCount, newest);
+                logOther("during"); // published after the backlog was read, before it is queued
+                waitFor(this::isPipelineIdle);
+                return backlog;
+            }
+        };
+        service.logger.logOther("line 1");
+        service.logger.logOther("line 2");
+        waitFor(service.logger::isPipelineIdle);
+
+        final RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.NDJSON, Optional.empty(), 10, Optional.empty(), Optional.empty());
+        service.logger.logOther("after");
+        waitFor(() -> emitter.getSent().contains("after"));
+
+        final String[] lines = emitter.getSent().split("\n");
+        assertThat(lines.length, is(4));
+        assertThat(lines[0].contains("\"text\":\"line 1\""), is(true));
+        assertThat(lines[1].contains("\"text\":\"line 2\""), is(true));
+        assertThat(lines[2].contains("\"text\":\"during\""), is(true));
+        assertThat(lines[3].contains("\"text\":\"after\""), is(true));
+        tail.close();
+    }
+
+    @Test public void resumeAfterLargeGapTellsDropped() {
+        final Service service = newService();
+        for(int i=0; i<20; i++) service.logger.logOther("line " + i);
+        waitFor(service.logger::isPipelineIdle);
+        final long firstIndex = service.logger.getBuffer().get(0).index;
+
+        final RecordingEmitter emitter = new RecordingEmitter(new CountDownLatch(0));
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.NDJSON, Optional.of(firstIndex), 0,
+            Optional.of(5), Optional.of(OutputTail.SlowConsumerPolicy.DROP_OLDEST));
+        waitFor(() -> emitter.getSent().contains("line 19"));
+
+        assertThat(emitter.getSent().startsWith("{\"dropped\":14}\n"), is(true));
+        assertThat(emitter.getSent().contains("line 14\""), is(false));
+        assertThat(emitter.getSent().contains("line 15\""), is(true));
+        tail.close();
+    }
+
+    @Test public void slowConsumerDropsOldest() {
+        final Service service = newService();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final RecordingEmitter emitter = new RecordingEmitter(gate);
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.NDJSON, Optional.empty(), 0,
+            Optional.of(5), Optional.of(OutputTail.SlowConsumerPolicy.DROP_OLDEST)); // first send (heartbeat) waits at the gate
+
+        for(int i=0; i<20; i++) service.logger.logOther("line " + i);
+        waitFor(service.logger::isPipelineIdle);
+        gate.countDown();
+        waitFor(() -> emitter.getSent().contains("line 19"));
+
+        assertThat(emitter.getSent().contains("{\"dropped\":15}"), is(true));
+        assertThat(emitter.getSent().contains("line 14\""), is(false));
+        assertThat(emitter.getSent().contains("line 15\""), is(true));
+        assertThat(tail.isClosed(), is(false));
+        tail.close();
+    }
+
+    @Test public void slowConsumerDisconnects() {
+        final Service service = newService();
+        final CountDownLatch gate = new CountDownLatch(1);
+        final RecordingEmitter emitter = new RecordingEmitter(gate);
+        final OutputTail tail = OutputTail.start(service, emitter, OutputTail.Format.NDJSON, Optional.empty(), 0,
+            Optional.of(5), Optional.of(OutputTail.SlowConsumerPolicy.DISCONNECT));
+
+        for(int i=0; i<20; i++) service.logger.logOther("line " + i);
+        waitFor(service.logger::isPipelineIdle);
+        assertThat(tail.isClosed(), is(true));
+        gate.countDown();
+        waitFor(() -> emitter.completed);
+    }
+
+    @Test public void policyNames() {
+        assertThat(OutputTail.SlowConsumerPolicy.of("dropOldest"), is(Optional.of(OutputTail.SlowConsumerPolicy.DROP_OLDEST)));
+        assertThat(OutputTail.SlowConsumerPolicy.of("drop-oldest"), is(Optional.of(OutputTail.SlowConsumerPolicy.DROP_OLDEST)));
+        assertThat(OutputTail.SlowConsumerPolicy.of("disconnect"), is(Optional.of(OutputTail.SlowConsumerPolicy.DISCONNECT)));
+        assertThat(OutputTail.SlowConsumerPolicy.of("other").isPresent(), is(false));
+    }
+
+    private static Service newService() {
+        final Service service = new Service();
+        service.setName("Tail Test");
+        service.setOutputHistorySize("0");
+        return service;
+    }
+    private static void waitFor(BooleanSupplier condition) {
+        final long timeout = System.currentTimeMillis() + 5000;
+        while(!condition.getAsBoolean()) {
+            assertTrue("timeout", System.currentTimeMillis() < timeout);
+            try { Thread.sleep(5); } catch(final InterruptedException e) { throw new IllegalStateException(e); }
+        }
+    }
+}
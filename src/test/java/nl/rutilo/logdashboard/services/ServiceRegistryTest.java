@@ -0,0 +1,82 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class ServiceRegistryTest {
+
+    private static Service createService(String name, String group, String jarLocation) {
+        final Service service = new Service();
+        service.setName(name);
+        service.setGroup(group);
+        if(jarLocation != null) {
+            service.setLocation(jarLocation);
+            service.setLocationType(Service.LocationType.JAR);
+        } else {
+            service.setLocationType(Service.LocationType.EXE);
+        }
+        return service;
+    }
+
+    private static String namesOf(List<Service> services) {
+        return services.stream().map(Service::getName).collect(Collectors.joining(","));
+    }
+
+    @Test public void lookups() {
+        final Service a = createService("a", "g1", "/x/a.jar");
+        final Service b = createService("b", "g1", null);
+        final Service c = createService("c", null, null);
+        final ServiceRegistry registry = ServiceRegistry.of(Arrays.asList(a, b, c));
+
+        assertThat(registry.version, is(1L));
+        assertThat(namesOf(registry.getAll()), is("a,b,c"));
+        assertThat(registry.get("b").get() == b, is(true));
+        assertFalse(registry.get("d").isPresent());
+        assertThat(registry.get(c.uid).get() == c, is(true));
+        assertThat(namesOf(registry.getGroup("g1")), is("a,b"));
+        assertTrue(registry.getGroup("g2").isEmpty());
+        assertThat(namesOf(registry.getOfLocationType(Service.LocationType.EXE)), is("b,c"));
+        assertThat(namesOf(registry.getOfLocationType(Service.LocationType.JAR)), is("a"));
+    }
+
+    @Test public void likeIsFoundByNameOrJarLocation() {
+        final ServiceRegistry registry = ServiceRegistry.of(Arrays.asList(createService("a", null, "/x/a.jar"), createService("b", null, null)));
+        assertThat(registry.getLike(createService("a", null, null)).get().getName(), is("a"));
+        assertThat(registry.getLike(createService("renamed", null, "/x/a.jar")).get().getName(), is("a"));
+        assertFalse(registry.getLike(createService("renamed", null, "/x/other.jar")).isPresent());
+        assertFalse(registry.getLike(createService("other", null, null)).isPresent());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void listCannotBeModified() {
+        ServiceRegistry.of(Collections.singletonList(createService("a", null, null))).getAll().clear();
+    }
+
+    @Test public void diff() {
+        final ServiceRegistry old = ServiceRegistry.of(Arrays.asList(
+            createService("a", null, null), createService("b", null, null), createService("c", null, "/x/c.jar")));
+        final Service changedB = createService("b", "g", null);
+        final Service keptA = createService("a", null, null);
+        keptA.setPort(1234); // runtime value, not configuration
+        final ServiceRegistry updated = old.withServices(Arrays.asList(
+            keptA, changedB, createService("renamedC", null, "/x/c.jar"), createService("d", null, null)));
+        final ServiceRegistry removed = updated.withServices(Collections.singletonList(keptA));
+
+        final ServiceRegistry.Diff diff = updated.diffFrom(old);
+        assertThat(diff.fromVersion, is(1L));
+        assertThat(diff.toVersion, is(2L));
+        assertThat(namesOf(diff.added), is("d"));
+        assertThat(namesOf(diff.changed), is("b,renamedC"));
+        assertTrue(diff.removed.isEmpty());
+
+        assertThat(namesOf(removed.diffFrom(updated).removed), is("b,renamedC,d"));
+        assertTrue(removed.diffFrom(removed).isEmpty());
+    }
+}
@@ -0,0 +1,65 @@
+package nl.rutilo.logdashboard.services;
+
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class ServiceRunnerLogTest {
+
+    @Test public void reloadedLogFileAndCharsetAreFollowed() throws IOException {
+        final File dir = Files.createTempDirectory("runnerLog").toFile();
+        final File fileA = new File(dir, "a.log");
+        final File fileB = new File(dir, "b.log");
+        Files.write(fileA.toPath(), "a1\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(fileB.toPath(), "b1\n".getBytes(StandardCharsets.UTF_8));
+
+        final Service service = new Service();
+        service.setName("Runner Log Test");
+        service.setOutputHistorySize("0");
+        service.setLocationType(Service.LocationType.EXE);
+        service.setLogFile(fileA.getPath());
+        final LogRunner runner = new LogRunner(service);
+        runner.poll();
+        assertThat(outLinesOf(service), is("[a1]"));
+
+        service.setLogFile(fileB.getPath()); // as after a configuration reload
+        runner.setService(service);
+        runner.poll();
+        assertThat(outLinesOf(service), is("[b1]")); // read from the start of the new file
+
+        Files.write(fileB.toPath(), "caf\u00e9\n".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+        service.setCharset("ISO-8859-1");
+        runner.setService(service);
+        runner.poll();
+        assertThat(outLinesOf(service), is("[b1, caf\u00e9]")); // same file: position was kept
+        runner.close();
+    }
+
+    private static String outLinesOf(Service service) {
+        waitFor(service.logger::isPipelineIdle);
+        final List<String> lines = service.logger.getBuffer().stream()
+            .filter(line -> line.type == LineType.OUT)
+            .map(line -> line.text)
+            .collect(Collectors.toList());
+        return lines.toString();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        final long timeout = System.currentTimeMillis() + 5000;
+        while(!condition.getAsBoolean()) {
+            assertTrue("timeout", System.currentTimeMillis() < timeout);
+            try { Thread.sleep(5); } catch(final InterruptedException e) { throw new IllegalStateException(e); }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -85,6 +86,64 @@ public class ServicesStateHistoryTest {
         assertThat(toString.call(), is("OWSOWSR,O,O,O,O,O,O,O,O,O"));
     }
 
+    @Test public void testChangesSinceVersion() {
+        final List<Service> services = createServices();
+        final ServicesStateHistory ssh = ServicesStateHistory
+            .forServices(services)
+            .withDuration(Duration.ofHours(1))
+            .andResolution(Duration.ofMinutes(5));
+
+        final ServicesStateHistory.Changes all = ssh.getChangesSince(-1);
+        assertTrue(all.full);
+        assertThat(toString(all.rows), is("10*O"));
+
+        services.get(3).state.setRunning();
+        ssh.update(services.get(3).state);
+        final ServicesStateHistory.Changes changes = ssh.getChangesSince(all.version);
+        assertFalse(changes.full);
+        assertThat(changes.fromVersion, is(all.version));
+        assertThat(toString(changes.rows), is("3*O,OR,6*O"));
+
+        ssh.update(services.get(3).state);
+        assertTrue(ssh.getChangesSince(changes.version).rows.isEmpty());
+        assertThat(ssh.getChangesSince(changes.version).version, is(changes.version));
+    }
+
+    @Test public void testServicesWereUpdated() {
+        final List<Service> services = createServices();
+        final ServicesStateHistory ssh = ServicesStateHistory
+            .forServices(services)
+            .withDuration(Duration.ofHours(1))
+            .andResolution(Duration.ofMinutes(5));
+        services.get(1).state.setRunning();
+        ssh.update(services.get(1).state);
+        final long version = ssh.getVersion();
+
+        final List<Service> newServices = new ArrayList<>();
+        final Map<Service,Service> oldToNew = new IdentityHashMap<>();
+        for(int i=0; i<3; i++) newServices.add(new Service());
+        newServices.forEach(s -> s.state.setOff());
+        newServices.get(2).state.setRunning(); // state is kept by the service that replaces the old one
+        oldToNew.put(services.get(1), newServices.get(2)); // moved, the others were removed
+        ssh.servicesWereUpdated(newServices, oldToNew);
+
+        assertTrue(ssh.getChangesSince(version).full);
+        assertThat(toString(ssh.getAsTimeToString()), is("O,O,OR"));
+    }
+
+    @Test public void testPackedColumn() {
+        long column = 0;
+        for(final int code : new int[] { 0, 0, 1, 2, 2, 3 }) column = ServicesStateHistory.add(column, code);
+        assertThat(ServicesStateHistory.countOf(column), is(4));
+        assertThat(ServicesStateHistory.columnToString(column), is("OWSR"));
+
+        column = ServicesStateHistory.add(0, 6);
+        for(int i=0; i<ServicesStateHistory.MAX_TRANSITIONS + 5; i++) column = ServicesStateHistory.add(column, i % 2);
+        assertThat(ServicesStateHistory.countOf(column), is(ServicesStateHistory.MAX_TRANSITIONS));
+        assertThat(ServicesStateHistory.codeAt(column, 0), is(6)); // first is kept
+        assertThat(ServicesStateHistory.codeAt(column, ServicesStateHistory.MAX_TRANSITIONS - 1), is((ServicesStateHistory.MAX_TRANSITIONS + 4) % 2));
+    }
+
     private static String toString(Map<Long,String> map) {
         final Long[] keys = map.keySet().toArray(new Long[0]);
         Arrays.sort(keys);
@@ -0,0 +1,135 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class StartSchedulerTest {
+    private final List<String>   started   = new ArrayList<>();
+    private final StartScheduler scheduler = new StartScheduler(s -> s.state.setWaiting(), s -> {
+        started.add(s.getName());
+        s.state.setStarting();
+    });
+
+    private static Service createService(String name, String... dependsOn) {
+        final Service service = new Service();
+        service.setName(name);
+        service.setLocationType(Service.LocationType.EXE);
+        service.setDependsOn(Arrays.asList(dependsOn));
+        service.state.setOff();
+        return service;
+    }
+
+    private void setRunning(Service service) {
+        service.state.setRunning();
+        scheduler.stateChanged(service);
+    }
+
+    @Test public void startsWhenDependenciesRun() {
+        final Service a = createService("a");
+        final Service b = createService("b", "a");
+        final Service c = createService("c", "a", "b");
+        scheduler.setServices(Arrays.asList(c, b, a));
+
+        scheduler.request(c);
+        scheduler.request(b);
+        assertThat(started.toString(), is("[]"));
+        assertTrue(c.state.isWaiting());
+
+        scheduler.request(a);
+        assertThat(started.toString(), is("[a]"));
+
+        scheduler.stateChanged(a); // now starting
+        assertThat(started.toString(), is("[a]"));
+        setRunning(a);
+        assertThat(started.toString(), is("[a, b]"));
+        setRunning(b);
+        assertThat(started.toString(), is("[a, b, c]"));
+        scheduler.stateChanged(c);
+        assertFalse(scheduler.isRequested(c)); // done
+    }
+
+    @Test public void onlyOneStartsAtATimeUnlessParallel() {
+        final Service a = createService("a");
+        final Service b = createService("b");
+        final Service c = createService("c");
+        scheduler.setServices(Arrays.asList(a, b, c));
+
+        scheduler.request(a);
+        scheduler.request(b);
+        assertThat(started.toString(), is("[a]"));
+        setRunning(a);
+        assertThat(started.toString(), is("[a, b]"));
+
+        scheduler.setParallel(true);
+        scheduler.request(c);
+        assertThat(started.toString(), is("[a, b, c]"));
+    }
+
+    @Test public void dependencyStoppingDelaysDependent() {
+        final Service a = createService("a");
+        final Service b = createService("b", "a");
+        scheduler.setServices(Arrays.asList(a, b));
+        scheduler.setParallel(true);
+        setRunning(a);
+
+        a.state.setError();
+        scheduler.stateChanged(a);
+        scheduler.request(b);
+        assertThat(started.toString(), is("[]"));
+
+        setRunning(a);
+        assertThat(started.toString(), is("[b]"));
+    }
+
+    @Test public void ignoringDependencies() {
+        final Service a = createService("a");
+        final Service b = createService("b", "a");
+        scheduler.setServices(Arrays.asList(a, b));
+        scheduler.setIgnoreDependencies(true);
+        scheduler.request(b);
+        assertThat(started.toString(), is("[b]"));
+        assertTrue(scheduler.getDependenciesOf(b).isEmpty());
+    }
+
+    @Test public void cancelledIsNotStarted() {
+        final Service a = createService("a");
+        final Service b = createService("b", "a");
+        scheduler.setServices(Arrays.asList(a, b));
+        scheduler.request(b);
+        assertTrue(scheduler.cancel(b));
+        assertFalse(scheduler.isRequested(b));
+        setRunning(a);
+        assertThat(started.toString(), is("[]"));
+    }
+
+    @Test public void criticalPath() throws InterruptedException {
+        final Service a = createService("a");
+        final Service b = createService("b", "a");
+        final Service c = createService("c");
+        final Service d = createService("d", "b", "c");
+        scheduler.setServices(Arrays.asList(a, b, c, d));
+        scheduler.setParallel(true);
+
+        for(final Service s : Arrays.asList(d, c, b, a)) scheduler.request(s);
+        scheduler.stateChanged(a);
+        setRunning(c);
+        Thread.sleep(20);
+        setRunning(a);
+        scheduler.stateChanged(b);
+        Thread.sleep(20);
+        setRunning(b);
+        scheduler.stateChanged(d);
+        setRunning(d);
+
+        final StartScheduler.CriticalPath path = scheduler.getCriticalPath(d);
+        assertThat(path.services.toString(), is("[a, b, d]"));
+        assertTrue(path.durationMs >= 40);
+        assertThat(scheduler.getCriticalPath(null).durationMs, is(path.durationMs));
+    }
+}
@@ -0,0 +1,119 @@
+package nl.rutilo.logdashboard.services;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class StateHistoryFileTest {
+
+    private static Service createService(String name, String jarLocation) {
+        final Service service = new Service();
+        service.setName(name);
+        if(jarLocation != null) {
+            service.setLocation(jarLocation);
+            service.setLocationType(Service.LocationType.JAR);
+        }
+        service.state.setOff();
+        return service;
+    }
+
+    private static ServicesStateHistory createHistory(List<Service> services, File file) {
+        sleep(); // only rows older than the current row are loaded
+        return ServicesStateHistory
+            .forServices(services)
+            .withDuration(Duration.ofHours(1))
+            .andResolution(Duration.ofMinutes(5))
+            .persistedIn(file);
+    }
+
+    private static File tempFile() throws IOException {
+        return new File(Files.createTempDirectory("stateHistory").toFile(), "state-history.dat");
+    }
+
+    @Test public void historySurvivesRestart() throws IOException {
+        final File file = tempFile();
+        final List<Service> services = Arrays.asList(createService("a", null), createService("b", null));
+        final ServicesStateHistory history = createHistory(services, file);
+        services.get(0).state.setRunning();
+        history.update(services.get(0).state);
+        services.get(1).state.setStarting();
+        history.update(services.get(1).state);
+
+        final List<Service> restarted = Arrays.asList(createService("b", null), createService("c", null), createService("a", null));
+        final ServicesStateHistory reloaded = createHistory(restarted, file);
+        assertThat(rowsOf(reloaded), is("OS,,OR -- O,O,O"));
+    }
+
+    @Test public void renamedJarIsFoundByLocation() throws IOException {
+        final File file = tempFile();
+        final List<Service> services = Arrays.asList(createService("a", "/x/a.jar"), createService("b", null));
+        final ServicesStateHistory history = createHistory(services, file);
+        services.get(0).state.setError();
+        history.update(services.get(0).state);
+
+        final List<Service> restarted = Arrays.asList(createService("renamed", "/x/a.jar"), createService("other", null));
+        assertThat(rowsOf(createHistory(restarted, file)), is("OI, -- O,O"));
+    }
+
+    @Test public void reloadedConfigurationIsWrittenToFile() throws IOException {
+        final File file = tempFile();
+        final List<Service> services = Arrays.asList(createService("a", null), createService("b", null));
+        final ServicesStateHistory history = createHistory(services, file);
+        services.get(1).state.setRunning();
+        history.update(services.get(1).state);
+
+        final List<Service> newServices = Arrays.asList(createService("b", null), createService("new", null));
+        newServices.get(0).state.setRunning(); // state is kept by the service that replaces the old one
+        final Map<Service,Service> oldToNew = new IdentityHashMap<>();
+        oldToNew.put(services.get(1), newServices.get(0));
+        history.servicesWereUpdated(newServices, oldToNew);
+
+        final StateHistoryFile.Contents contents = new StateHistoryFile(file, 12, 256, Duration.ofMinutes(5).toMillis()).read();
+        assertThat(contents.keys, is(Arrays.asList("b\t", "new\t")));
+        assertThat(contents.rows.size(), is(1));
+        assertThat(ServicesStateHistory.columnToString(contents.rows.get(0)[0]), is("OR"));
+        assertThat(ServicesStateHistory.columnToString(contents.rows.get(0)[1]), is(""));
+    }
+
+    @Test public void otherFormatIsCleared() throws IOException {
+        final File file = tempFile();
+        final List<Service> services = Arrays.asList(createService("a", null));
+        createHistory(services, file);
+        assertThat(new StateHistoryFile(file, 12, 256, 300_000).read().rows.size(), is(1));
+
+        final StateHistoryFile other = new StateHistoryFile(file, 24, 256, 300_000); // other capacity
+        assertThat(other.read().rows.size(), is(0));
+        assertThat(other.read().keys.size(), is(0));
+    }
+
+    @Test public void reopenedFileContinuesRing() throws IOException {
+        final File file = tempFile();
+        final StateHistoryFile historyFile = new StateHistoryFile(file, 4, 8, 1000);
+        historyFile.writeAll(Arrays.asList("a\t", "b\t"), 0, 1, new long[] { 1000, 0, 0, 0 }, new long[][] { { 1, 2 }, null, null, null });
+        historyFile.startRow(1, 2, 2000, new long[] { 3, 4 });
+        assertThat(new StateHistoryFile(file, 4, 8, 1000).read().rows.size(), is(2));
+
+        historyFile.startRow(2, 3, 3000, new long[] { 5, 6 });
+        final StateHistoryFile reopened = new StateHistoryFile(file, 4, 8, 1000);
+        reopened.startRow(3, 4, 4000, new long[] { 7, 8 });
+        assertThat(new StateHistoryFile(file, 4, 8, 1000).read().times, is(Arrays.asList(1000L, 2000L, 3000L, 4000L)));
+    }
+
+    private static void sleep() {
+        try { Thread.sleep(5); } catch(final InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    private static String rowsOf(ServicesStateHistory history) {
+        return String.join(" -- ", history.getAsTimeToString().values()); // from old to new
+    }
+}
@@ -0,0 +1,71 @@
+package nl.rutilo.logdashboard.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.LineType;
+import nl.rutilo.logdashboard.services.ServiceLogger.OutputInfo;
+import nl.rutilo.logdashboard.services.ServiceLogger.Severity;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/** Compares the size and encoding time of output batches in the JSON and COMPACT wire formats.
+  * Not a unit test: run the main method (e.g. from the IDE) and read the report.
+  */
+public class WireFormatBenchmark {
+    private static final int BATCH_SIZE = 500; // Constants.DEFAULT_OUTPUT_BATCH_SIZE
+    private static final int BATCHES    = 200;
+    private static final int ROUNDS     = 10;  // the first rounds warm up the jit
+
+    public static void main(String... args) throws Exception {
+        final ObjectMapper json = new ObjectMapper(); // as the websocket message converter
+        final Service service = new Service();
+        service.setName("benchmark");
+        final List<List<LineInfo>> batches = createBatches(new Random(1));
+
+        report("JSON   ", batches, lines -> {
+            try {
+                return json.writeValueAsString(new OutputInfo(service, lines));
+            } catch(final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        report("COMPACT", batches, lines -> CompactEncoder.encodeOutput(service.uid, 0, lines));
+    }
+
+    private static void report(String name, List<List<LineInfo>> batches, Function<List<LineInfo>,String> encoder) {
+        long bytes = 0;
+        long bestNs = Long.MAX_VALUE;
+        for(int round=0; round<ROUNDS; round++) {
+            bytes = 0;
+            final long start = System.nanoTime();
+            for(final List<LineInfo> batch : batches) bytes += encoder.apply(batch).getBytes(StandardCharsets.UTF_8).length;
+            bestNs = Math.min(bestNs, System.nanoTime() - start); // includes the utf-8 conversion done when sending
+        }
+        final long lineCount = (long)BATCHES * BATCH_SIZE;
+        System.out.printf("%s %7.1f bytes/line %7.1f ns/line%n", name, bytes / (double)lineCount, bestNs / (double)lineCount);
+    }
+
+    private static List<List<LineInfo>> createBatches(Random random) {
+        final String[] words = { "INFO", "DEBUG", "o.s.b.w.embedded.tomcat", "Started", "request", "GET", "/api/v1/items", "200", "in", "ms", "user=42" };
+        final List<List<LineInfo>> batches = new ArrayList<>();
+        long index = 1_000_000;
+        long time = System.currentTimeMillis();
+        for(int b=0; b<BATCHES; b++) {
+            final List<LineInfo> batch = new ArrayList<>();
+            for(int i=0; i<BATCH_SIZE; i++) {
+                final StringBuilder text = new StringBuilder();
+                for(int w=5 + random.nextInt(10); w>0; w--) text.append(words[random.nextInt(words.length)]).append(' ');
+                index += 1 + random.nextInt(3); // other services log too
+                time += random.nextInt(4);
+                batch.add(new LineInfo(index, time, random.nextInt(20) == 0 ? LineType.ERROR : LineType.OUT,
+                    random.nextInt(20) == 0 ? Severity.WARN : Severity.NONE, text.toString()));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,106 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class FileTailerTest {
+    private final List<String> lines = new ArrayList<>();
+    private int resetCount = 0;
+
+    private boolean poll(FileTailer tailer) throws IOException {
+        return tailer.poll(() -> resetCount++, lines::add);
+    }
+    private static void append(Path path, String text) throws IOException {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test public void followsAppends() throws IOException {
+        try(final TempFile temp = new TempFile(); final FileTailer tailer = new FileTailer(temp.get().toPath(), StandardCharsets.UTF_8, 1000)) {
+            final Path path = temp.get().toPath();
+            append(path, "a\nb\r\nc");
+            assertThat(poll(tailer), is(true));
+            assertThat(lines.toString(), is("[a, b]"));
+            assertThat(resetCount, is(1));
+
+            append(path, "d\re€");
+            poll(tailer);
+            assertThat(lines.toString(), is("[a, b, cd]"));
+
+            append(path, "\n");
+            poll(tailer);
+            poll(tailer);
+            assertThat(lines.toString(), is("[a, b, cd, e€]"));
+            assertThat(resetCount, is(1));
+        }
+    }
+
+    @Test public void startsAtEndOfLargeFile() throws IOException {
+        try(final TempFile temp = new TempFile(); final FileTailer tailer = new FileTailer(temp.get().toPath(), StandardCharsets.UTF_8, 10)) {
+            append(temp.get().toPath(), "0123456789\nabc\ndef\n");
+            poll(tailer);
+            assertThat(lines.toString(), is("[abc, def]"));
+        }
+    }
+
+    @Test public void detectsTruncateAndRotate() throws IOException {
+        try(final TempFile temp = new TempFile(); final FileTailer tailer = new FileTailer(temp.get().toPath(), StandardCharsets.UTF_8, 1000)) {
+            final Path path = temp.get().toPath();
+            append(path, "one\ntwo\n");
+            poll(tailer);
+
+            Files.write(path, "x\n".getBytes(StandardCharsets.UTF_8)); // truncate
+            poll(tailer);
+            assertThat(lines.toString(), is("[one, two, x]"));
+            assertThat(resetCount, is(2));
+
+            final File rotated = new File(temp.get().getPath() + ".1");
+            try {
+                assertTrue(temp.get().renameTo(rotated));
+                append(path, "new1\nnew2\nnew3\n"); // longer than before, so only identity tells it is a new file
+                poll(tailer);
+                assertThat(lines.toString(), is("[one, two, x, new1, new2, new3]"));
+                assertThat(resetCount, is(3));
+            } finally {
+                Files.deleteIfExists(rotated.toPath());
+            }
+        }
+    }
+
+    @Test public void missingFile() throws IOException {
+        final File file = new File(System.getProperty("java.io.tmpdir"), "FileTailerTest-" + System.nanoTime());
+        try(final FileTailer tailer = new FileTailer(file.toPath(), StandardCharsets.UTF_8, 1000)) {
+            assertThat(poll(tailer), is(false));
+            append(file.toPath(), "hello\n");
+            assertThat(poll(tailer), is(true));
+            assertThat(lines.toString(), is("[hello]"));
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    @Test public void awaitChangeReturnsOnAppend() throws IOException, InterruptedException {
+        try(final TempFile temp = new TempFile(); final FileTailer tailer = new FileTailer(temp.get().toPath(), StandardCharsets.UTF_8, 1000)) {
+            tailer.awaitChange(1); // starts watching
+            final Thread writer = new Thread(() -> {
+                Util.sleep(java.time.Duration.ofMillis(100));
+                try { append(temp.get().toPath(), "x\n"); } catch(final IOException ignored) { /*ignored*/ }
+            });
+            writer.start();
+            final long t0 = System.currentTimeMillis();
+            tailer.awaitChange(30_000);
+            assertTrue(System.currentTimeMillis() - t0 < 20_000);
+            writer.join();
+        }
+    }
+}
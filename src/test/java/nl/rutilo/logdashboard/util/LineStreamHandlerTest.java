@@ -4,6 +4,8 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -82,6 +84,74 @@ public class LineStreamHandlerTest {
         }
     }
 
+    @Test public void multiByteCharacters() {
+        final String text = "caf\u00e9 \u20ac 10\n\u65e5\u672c\u8a9e\r\n\ud83d\ude00 smile\n";
+        final List<String> expected = Arrays.asList("caf\u00e9 \u20ac 10", "\u65e5\u672c\u8a9e", "\ud83d\ude00 smile");
+
+        assertThat(linesOf(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))), is(expected));
+
+        // one byte per read() so every multi-byte character is split over multiple reads
+        assertThat(linesOf(new OneByteInputStream(text.getBytes(StandardCharsets.UTF_8))), is(expected));
+    }
+
+    @Test public void otherCharset() {
+        final byte[] latin1 = "caf\u00e9\n".getBytes(StandardCharsets.ISO_8859_1);
+        final List<String> lines = new LineStreamHandler(new ByteArrayInputStream(latin1), StandardCharsets.ISO_8859_1).stream()
+            .map(l -> l.text)
+            .collect(Collectors.toList());
+        assertThat(lines, is(Arrays.asList("caf\u00e9")));
+    }
+
+    @Test public void malformedInputIsReplaced() {
+        final byte[] bytes = { 'a', (byte)0xC3, '\n', 'b', (byte)0xE2, (byte)0x82 };
+        assertThat(linesOf(new ByteArrayInputStream(bytes)), is(Arrays.asList("a\ufffd", "b\ufffd")));
+    }
+
+    @Test public void largeVolume() {
+        final int lineCount = 200_000;
+        final StringBuilder sb = new StringBuilder();
+        for(int i=0; i<lineCount; i++) sb.append("line ").append(i).append(i % 2 == 0 ? " \u00e9\u20ac\n" : "\r\n");
+        final byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        final List<String> lines = linesOf(new ByteArrayInputStream(bytes));
+
+        assertThat(lines.size(), is(lineCount));
+        for(int i=0; i<lineCount; i++) assertThat(lines.get(i), is("line " + i + (i % 2 == 0 ? " \u00e9\u20ac" : "")));
+    }
+
+    @Test public void pushMode() {
+        final String text = "one\ntwo\r\nthree\rTHR\nfour\b\b\b\bFOUR\ncaf\u00e9 \u20ac\nlast\r";
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final List<String> expected = linesOf(new ByteArrayInputStream(bytes));
+
+        for(final int chunkSize : new int[] { 1, 2, 3, 7, bytes.length }) {
+            final List<String> lines = new ArrayList<>();
+            final LineStreamHandler handler = new LineStreamHandler(StandardCharsets.UTF_8);
+            for(int offset=0; offset<bytes.length; offset+=chunkSize) {
+                handler.feed(bytes, offset, Math.min(chunkSize, bytes.length - offset), l -> lines.add((l.replacesPreviousLine ? "#" : "") + l.text));
+            }
+            handler.end(l -> lines.add((l.replacesPreviousLine ? "#" : "") + l.text));
+            assertThat("chunk size " + chunkSize, lines, is(expected));
+        }
+
+        // complete lines are given before end()
+        final List<String> lines = new ArrayList<>();
+        final LineStreamHandler handler = new LineStreamHandler(StandardCharsets.UTF_8);
+        handler.feed(bytes, 0, 6, l -> lines.add(l.text));
+        assertThat(lines, is(Arrays.asList("one")));
+    }
+
+    private static List<String> linesOf(InputStream in) {
+        return new LineStreamHandler(in).stream()
+            .map(l -> (l.replacesPreviousLine ? "#" : "") + l.text)
+            .collect(Collectors.toList());
+    }
+
+    private static class OneByteInputStream extends ByteArrayInputStream {
+        OneByteInputStream(byte[] data) { super(data); }
+        @Override public synchronized int read(byte[] b, int off, int len) { return super.read(b, off, Math.min(1, len)); }
+    }
+
     private static String toString(List<String> items) {
         return items.stream().reduce("", (a, s) -> a + "\n" + s.replace("\n","\\n").replace("\r","\\r"));
     }
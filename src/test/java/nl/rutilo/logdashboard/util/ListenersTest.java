@@ -41,21 +41,39 @@ public class ListenersTest {
         assertThat(vac.count, is(10));
         vac.clear();
 
-        listeners.debounced();
+        listeners.debounced(Duration.ofMillis(200));
+        listeners.call(0); // dispatched right away, the next calls wait for the minimum interval
         for(int i=0; i<10; i++) listeners.call(123);
-        Util.sleep(Duration.ofMillis(300));
+        Util.sleep(Duration.ofMillis(400));
         assertThat(vac.value, is(123));
-        assertThat(vac.count, is(1));
+        assertThat(vac.count, is(2));
         vac.clear();
 
-        listeners.call(123);
-        listeners.call(123);
-        listeners.call(123);
-        listeners.call(456);
-        listeners.call(456);
-        listeners.call(456);
-        Util.sleep(Duration.ofMillis(300));
-        assertThat(vac.value, is(456));
-        assertThat(vac.count, is(2));
+        final Integer v1 = 1000;
+        final Integer v2 = 2000;
+        listeners.call(0);
+        listeners.call(v1);
+        listeners.call(v1);
+        listeners.call(v1);
+        listeners.call(v2);
+        listeners.call(v2);
+        listeners.call(v2);
+        Util.sleep(Duration.ofMillis(400));
+        assertThat(vac.value, is(2000));
+        assertThat(vac.count, is(3));
+        vac.clear();
+
+        // coalesced by identity: equal but different objects are all called
+        listeners.call(0);
+        listeners.call(new Integer(456));
+        listeners.call(new Integer(456));
+        Util.sleep(Duration.ofMillis(400));
+        assertThat(vac.count, is(3));
+
+        final Listeners.Metrics metrics = listeners.getMetrics();
+        assertThat(metrics.dispatched, is(8L));
+        assertThat(metrics.coalesced, is(13L));
+        assertTrue(metrics.maxLatencyMs < 400);
+        assertTrue(Listeners.getAllMetrics().dispatched >= metrics.dispatched);
     }
-}
\ No newline at end of file
+}
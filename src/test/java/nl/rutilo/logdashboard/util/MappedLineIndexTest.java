@@ -0,0 +1,77 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class MappedLineIndexTest {
+
+    private static void append(Path path, String text) throws IOException {
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    @Test public void indexAndRead() throws IOException {
+        try(final TempFile temp = new TempFile()) {
+            final Path path = temp.get().toPath();
+            append(path, "zero\r\none\n\nthree €\nfour");
+            try(final MappedLineIndex index = new MappedLineIndex(path, StandardCharsets.UTF_8)) {
+                assertThat(index.getLineCount(), is(4));
+                assertThat(index.getLines(0, 10).toString(), is("[zero, one, , three €]"));
+                assertThat(index.getLines(1, 2).toString(), is("[one, ]"));
+                assertThat(index.getLines(4, 2).isEmpty(), is(true));
+                assertThat(index.getLines(-1, 2).isEmpty(), is(true));
+
+                append(path, "\nfive\n");
+                assertThat(index.update(), is(true));
+                assertThat(index.getLineCount(), is(6));
+                assertThat(index.getLines(4, 10).toString(), is("[four, five]"));
+
+                Files.write(path, "x\n".getBytes(StandardCharsets.UTF_8)); // truncated
+                assertThat(index.update(), is(false));
+                assertThat(index.getLines(0, 10).isEmpty(), is(true));
+            }
+        }
+    }
+
+    @Test public void manyLines() throws IOException {
+        try(final TempFile temp = new TempFile()) {
+            final Path path = temp.get().toPath();
+            final StringBuilder sb = new StringBuilder();
+            for(int i=0; i<200_000; i++) sb.append("line ").append(i).append('\n');
+            append(path, sb.toString());
+            try(final MappedLineIndex index = new MappedLineIndex(path, StandardCharsets.UTF_8)) {
+                assertThat(index.getLineCount(), is(200_000));
+                assertThat(index.getLines(123_456, 2).toString(), is("[line 123456, line 123457]"));
+                assertThat(index.getIndexedSize(), is(Files.size(path)));
+            }
+        }
+    }
+
+    @Test public void appendedLinesAreNotMappedUntilAChunkIsFull() throws IOException {
+        try(final TempFile temp = new TempFile()) {
+            final Path path = temp.get().toPath();
+            final StringBuilder sb = new StringBuilder();
+            for(int i=0; i<1000; i++) sb.append("line ").append(i).append('\n');
+            append(path, sb.toString());
+            try(final MappedLineIndex index = new MappedLineIndex(path, StandardCharsets.UTF_8)) {
+                for(int i=1000; i<1100; i++) {
+                    append(path, "line " + i + "\n");
+                    assertThat(index.update(), is(true));
+                }
+                assertThat(index.getMappedChunkCount(), is(0)); // file is smaller than one chunk
+                assertThat(index.getLineCount(), is(1100));
+                for(final int from : new int[] { 0, 63, 64, 65, 127, 128, 1099 }) {
+                    assertThat(index.getLines(from, 2).get(0), is("line " + from));
+                }
+                assertThat(index.getLines(1098, 5).toString(), is("[line 1098, line 1099]"));
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class OutputLogWriterTest {
+
+    @Test public void writesAsynchronously() throws IOException {
+        final File file = new File(Files.createTempDirectory("outputLogWriter").toFile(), "out.log");
+        final OutputLogWriter writer = new OutputLogWriter(file, StandardCharsets.UTF_8, 1000, 1, false, error -> fail(error));
+        writer.write("abc\n");
+        assertThat(writer.getSize(), is(4L));
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while(file.length() < 4 && System.currentTimeMillis() < timeout) Util.sleep(Duration.ofMillis(10));
+        assertThat(IOUtil.fileToString(file), is("abc\n"));
+
+        writer.write("def\n");
+        writer.close();
+        assertThat(IOUtil.fileToString(file), is("abc\ndef\n"));
+    }
+
+    @Test public void rotates() throws IOException {
+        final File file = new File(Files.createTempDirectory("outputLogWriter").toFile(), "out.log");
+        final String line = "123456789A123456789B123456789\n"; // 30 bytes
+        final OutputLogWriter writer = new OutputLogWriter(file, StandardCharsets.UTF_8, 100, 2, false, error -> fail(error));
+        for(int i=0; i<4; i++) writer.write(line);
+        writer.flush();
+        assertThat(file.length(), is(0L));
+        assertThat(new File(file.getPath() + ".1").length(), is(120L));
+
+        writer.write("second\n");
+        for(int i=0; i<4; i++) writer.write(line);
+        writer.flush();
+        writer.write("third\n");
+        for(int i=0; i<4; i++) writer.write(line);
+        writer.flush();
+        writer.write("last\n");
+        writer.close();
+
+        assertThat(IOUtil.fileToString(file), is("last\n"));
+        assertThat(IOUtil.fileToString(new File(file.getPath() + ".1")).startsWith("third"), is(true));
+        assertThat(IOUtil.fileToString(new File(file.getPath() + ".2")).startsWith("second"), is(true));
+        assertThat(new File(file.getPath() + ".3").exists(), is(false));
+    }
+
+    @Test public void gzipsRotatedFiles() throws IOException {
+        final File file = new File(Files.createTempDirectory("outputLogWriter").toFile(), "out.log");
+        final OutputLogWriter writer = new OutputLogWriter(file, StandardCharsets.UTF_8, 10, 1, true, error -> fail(error));
+        writer.write("0123456789ABC\n");
+        writer.flush();
+        writer.close(); // waits for the compression
+
+        final File gzFile = new File(file.getPath() + ".1.gz");
+        assertThat(new File(file.getPath() + ".1").exists(), is(false));
+        try(final GZIPInputStream in = new GZIPInputStream(new FileInputStream(gzFile))) {
+            assertThat(IOUtil.asString(in), is("0123456789ABC\n"));
+        }
+    }
+
+    @Test public void gzipsRotationsInOrder() throws IOException {
+        final File file = new File(Files.createTempDirectory("outputLogWriter").toFile(), "out.log");
+        final OutputLogWriter writer = new OutputLogWriter(file, StandardCharsets.UTF_8, 10, 2, true, error -> fail(error));
+        for(final String text : new String[] { "first.....\n", "second....\n", "third.....\n" }) {
+            writer.write(text);
+            writer.flush(); // rotates without waiting for the compression of the previous rotation
+            assertThat(file.length(), is(0L));
+        }
+        writer.close(); // waits for the compressions
+
+        assertThat(gunzip(new File(file.getPath() + ".1.gz")), is("third.....\n"));
+        assertThat(gunzip(new File(file.getPath() + ".2.gz")), is("second....\n"));
+        assertThat(new File(file.getPath() + ".3.gz").exists(), is(false));
+        assertThat(file.getParentFile().list().length, is(3)); // no plain or temporary files left
+    }
+
+    @Test public void writeErrorStopsWritingAndIsReportedOnce() throws IOException {
+        final File dir = Files.createTempDirectory("outputLogWriter").toFile();
+        final File file = new File(dir, "out.log");
+        final List<String> errors = new ArrayList<>();
+        final OutputLogWriter writer = new OutputLogWriter(file, StandardCharsets.UTF_8, 10, 1, false, errors::add);
+        assertTrue(new File(dir, "out.log.1").mkdir()); // a non-empty directory, so rotating can't rename to it
+        Files.write(new File(dir, "out.log.1/other").toPath(), new byte[1]);
+        writer.write("0123456789ABC\n");
+        writer.flush(); // rotation fails
+        assertThat(writer.isFailed(), is(true));
+        writer.write("dropped\n");
+        writer.flush();
+        writer.close();
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        while(errors.isEmpty() && System.currentTimeMillis() < timeout) Util.sleep(Duration.ofMillis(10));
+        Util.sleep(Duration.ofMillis(50));
+        assertThat(errors.size(), is(1));
+        assertThat(IOUtil.fileToString(file), is("0123456789ABC\n"));
+    }
+
+    private static String gunzip(File gzFile) throws IOException {
+        try(final GZIPInputStream in = new GZIPInputStream(new FileInputStream(gzFile))) {
+            return IOUtil.asString(in);
+        }
+    }
+}
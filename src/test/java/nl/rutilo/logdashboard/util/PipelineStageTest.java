@@ -0,0 +1,71 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class PipelineStageTest {
+
+    private static void awaitIdle(PipelineStage<?> stage) {
+        final long endTime = System.currentTimeMillis() + 10_000;
+        while(!stage.isIdle() && System.currentTimeMillis() < endTime) Util.sleep(Duration.ofMillis(5));
+        assertTrue("stage should become idle", stage.isIdle());
+    }
+
+    @Test public void handlesInOrder() {
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        final PipelineStage<Integer> stage = new PipelineStage<>("test", 100, handled::add);
+        for(int i=0; i<5000; i++) stage.put(i);
+        awaitIdle(stage);
+
+        assertThat(handled.size(), is(5000));
+        for(int i=0; i<5000; i++) assertThat(handled.get(i), is(i));
+        assertThat(stage.getMetrics().processed, is(5000L));
+        assertThat(stage.getMetrics().depth, is(0));
+    }
+
+    @Test public void blocksWhenFull() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final PipelineStage<Integer> stage = new PipelineStage<>("test", 2, i -> {
+            try { release.await(10, TimeUnit.SECONDS); } catch(final InterruptedException ignored) { /*ignored*/ }
+        });
+        stage.put(1); // taken by the consumer which then waits
+        Util.sleep(Duration.ofMillis(100));
+        stage.put(2);
+        stage.put(3); // queue now full
+
+        final Thread producer = new Thread(() -> stage.put(4));
+        producer.start();
+        producer.join(200);
+        assertThat(producer.isAlive(), is(true));
+        assertThat(stage.getMetrics().depth, is(2));
+        assertThat(stage.getMetrics().blocked, is(1L));
+
+        release.countDown();
+        producer.join(10_000);
+        awaitIdle(stage);
+        assertThat(stage.getMetrics().processed, is(4L));
+        assertThat(stage.getMetrics().maxDepth, is(2));
+    }
+
+    @Test public void survivesFailingConsumer() {
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        final PipelineStage<Integer> stage = new PipelineStage<>("test", 10, i -> {
+            if(i == 1) throw new IllegalStateException("test failure -- ignore");
+            handled.add(i);
+        });
+        stage.put(0);
+        stage.put(1);
+        stage.put(2);
+        awaitIdle(stage);
+        assertThat(handled.toString(), is("[0, 2]"));
+    }
+}
@@ -0,0 +1,88 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class ProcessSupervisorTest {
+
+    private static Process start(String script) throws IOException {
+        return Util.IS_WINDOWS
+            ? new ProcessBuilder("cmd", "/c", script).start()
+            : new ProcessBuilder("sh", "-c", script).start();
+    }
+
+    @Test public void linesBeforeExit() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        final Process process = start("echo one&& echo two 1>&2&& echo three&& exit 3");
+
+        final int exitCode = ProcessSupervisor.supervise(process, StandardCharsets.UTF_8,
+            (isError, line) -> lines.add((isError ? "!" : "") + line.text.trim())
+        ).get(10, TimeUnit.SECONDS);
+
+        assertThat(exitCode, is(3));
+        assertThat(lines.size(), is(3));
+        assertTrue(lines.indexOf("one") < lines.indexOf("three"));
+        assertTrue(lines.contains("!two"));
+        assertThat(ProcessSupervisor.getSupervisedCount(), is(0));
+    }
+
+    @Test public void manyLinesAndDestroy() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        if(Util.IS_WINDOWS) return;
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        final Process process = start("i=0; while [ $i -lt 20000 ]; do echo line $i; i=$((i+1)); done; sleep 30");
+        final CompletableFuture<Integer> exit = ProcessSupervisor.supervise(process, StandardCharsets.UTF_8, (isError, line) -> lines.add(line.text));
+
+        final long endTime = System.currentTimeMillis() + 10_000;
+        while(lines.size() < 20000 && System.currentTimeMillis() < endTime) Util.sleep(Duration.ofMillis(20));
+        assertThat(exit.isDone(), is(false));
+
+        process.destroyForcibly();
+        exit.get(10, TimeUnit.SECONDS);
+        assertThat(lines.size(), is(20000));
+        assertThat(lines.get(19999), is("line 19999"));
+    }
+
+    @Test public void fullConsumerDoesNotStopOtherProcesses() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger handled = new AtomicInteger();
+        final PipelineStage<String> stage = new PipelineStage<>("full", 1, line -> {
+            try { release.await(); } catch(final InterruptedException e) { Thread.currentThread().interrupt(); }
+            handled.incrementAndGet();
+        });
+        final List<CompletableFuture<Integer>> stuck = new ArrayList<>();
+        for(int i=0; i<6; i++) { // more than there are drain threads
+            stuck.add(ProcessSupervisor.supervise(start("echo a&& echo b&& echo c&& exit 1"), StandardCharsets.UTF_8,
+                (isError, line) -> stage.offer(line.text)));
+        }
+        Util.sleep(Duration.ofMillis(200)); // stage is full now: one line being handled, one queued
+
+        final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        final int exitCode = ProcessSupervisor.supervise(start("echo free&& exit 2"), StandardCharsets.UTF_8,
+            (isError, line) -> lines.add(line.text.trim())
+        ).get(5, TimeUnit.SECONDS);
+        assertThat(exitCode, is(2));
+        assertThat(lines.toString(), is("[free]"));
+        assertThat(stuck.stream().anyMatch(CompletableFuture::isDone), is(false)); // their last lines weren't accepted
+
+        release.countDown();
+        for(final CompletableFuture<Integer> exit : stuck) assertThat(exit.get(10, TimeUnit.SECONDS), is(1));
+        final long endTime = System.currentTimeMillis() + 5000;
+        while(handled.get() < 18 && System.currentTimeMillis() < endTime) Util.sleep(Duration.ofMillis(5));
+        assertThat(handled.get(), is(18)); // no line was lost
+    }
+}
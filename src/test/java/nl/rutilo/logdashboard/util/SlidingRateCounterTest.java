@@ -0,0 +1,108 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class SlidingRateCounterTest {
+    private static final Duration MINUTE      = Duration.ofMinutes(1);
+    private static final Duration TEN_MINUTES = Duration.ofMinutes(10);
+
+    private static void tick(SlidingRateCounter counter, int count) {
+        for(int i=0; i<count; i++) counter.tick();
+    }
+
+    @Test public void countsBeforeAndAfterTick() {
+        final SlidingRateCounter counter = new SlidingRateCounter(MINUTE);
+        counter.add();
+        counter.add(2);
+        assertThat(counter.get(), is(3L)); // not yet ticked
+        counter.tick();
+        assertThat(counter.get(), is(3L));
+        counter.add();
+        assertThat(counter.get(MINUTE), is(4L));
+    }
+
+    @Test public void countsSlideOutOfWindow() {
+        final SlidingRateCounter counter = new SlidingRateCounter(MINUTE); // one tick per bucket
+        counter.add(5);
+        counter.tick();
+        tick(counter, 30);
+        counter.add(7);
+        counter.tick();
+        assertThat(counter.get(), is(12L));
+
+        tick(counter, 28);
+        assertThat(counter.get(), is(12L)); // 59 ticks since the first count
+        counter.tick();
+        assertThat(counter.get(), is(7L));
+        tick(counter, 31);
+        assertThat(counter.get(), is(0L));
+    }
+
+    @Test public void multipleWindows() {
+        final SlidingRateCounter counter = new SlidingRateCounter(MINUTE, TEN_MINUTES, Duration.ofHours(1));
+        for(int minute=0; minute<15; minute++) {
+            counter.add(10);
+            tick(counter, 60);
+        }
+        counter.tick();
+        assertThat(counter.get(MINUTE), is(0L)); // the last count was added over a minute ago
+        counter.add(10);
+        assertThat(counter.get(MINUTE), is(10L));
+        assertThat(counter.get(TEN_MINUTES), is(100L));
+        assertThat(counter.get(Duration.ofHours(1)), is(160L));
+    }
+
+    @Test public void windowCoversAtLeastWindowMinusBucket() {
+        final SlidingRateCounter counter = new SlidingRateCounter(TEN_MINUTES); // 10 ticks per bucket
+        counter.add();
+        for(int t=1; t<=610; t++) {
+            counter.tick();
+            final long expected = t < 590 ? 1 : counter.get(); // sliding out somewhere in the last bucket
+            assertThat("tick " + t, counter.get(), is(expected));
+        }
+        assertThat(counter.get(), is(0L));
+    }
+
+    @Test public void reset() {
+        final SlidingRateCounter counter = new SlidingRateCounter(MINUTE);
+        counter.add(3);
+        counter.tick();
+        counter.add(4);
+        counter.reset();
+        assertThat(counter.get(), is(0L));
+        counter.tick();
+        tick(counter, 60);
+        assertThat(counter.get(), is(0L)); // nothing slides out below zero
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void unknownWindow() {
+        new SlidingRateCounter(MINUTE).get(TEN_MINUTES);
+    }
+
+    @Test public void concurrentWriters() throws InterruptedException {
+        final SlidingRateCounter counter = new SlidingRateCounter(MINUTE);
+        final List<Thread> threads = new ArrayList<>();
+        for(int t=0; t<4; t++) threads.add(new Thread(() -> { for(int i=0; i<100_000; i++) counter.add(); }));
+        final Thread ticker = new Thread(() -> { for(int i=0; i<50; i++) counter.tick(); });
+        threads.forEach(Thread::start);
+        ticker.start();
+        for(final Thread thread : threads) thread.join();
+        ticker.join();
+        assertThat(counter.get(), is(400_000L)); // no count lost or counted twice while ticking
+    }
+
+    @Test public void sharedTicker() throws InterruptedException {
+        final SlidingRateCounter counter = SlidingRateCounter.withWindows(MINUTE);
+        counter.add(2);
+        Thread.sleep(SlidingRateCounter.TICK_MS + 200);
+        assertThat(counter.get(), is(2L));
+        assertThat(counter.getWindows().size(), is(1));
+    }
+}
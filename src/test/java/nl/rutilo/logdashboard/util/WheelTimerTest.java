@@ -0,0 +1,62 @@
+package nl.rutilo.logdashboard.util;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.*;
+
+public class WheelTimerTest {
+    private final WheelTimer timer = new WheelTimer("test-timer", Duration.ofMillis(1), 8, Runnable::run);
+
+    @Test public void callsAfterDelay() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final long[] calledAfterNs = { 0 };
+        final WheelTimer.Handle handle = timer.schedule(Duration.ofMillis(20), () -> {
+            calledAfterNs[0] = System.nanoTime() - start;
+            latch.countDown();
+        });
+        assertTrue(handle.isPending());
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(calledAfterNs[0] >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertFalse(handle.isPending());
+        assertFalse(handle.cancel());
+        assertThat(timer.getMetrics().fired, is(1L));
+        assertThat(timer.getMetrics().pending, is(0L));
+    }
+
+    @Test public void cancelledIsNotCalled() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        for(int i=0; i<1000; i++) timer.schedule(Duration.ofMillis(10), count::incrementAndGet).cancel();
+        final WheelTimer.Handle kept = timer.schedule(Duration.ofMillis(10), count::incrementAndGet);
+        assertThat(timer.getMetrics().pending, is(1L));
+        assertThat(timer.getMetrics().cancelled, is(1000L));
+        Thread.sleep(50);
+        assertThat(count.get(), is(1));
+        assertFalse(kept.isPending());
+    }
+
+    @Test public void delaysLongerThanTheWheelWaitForTheirRound() throws InterruptedException {
+        final AtomicInteger count = new AtomicInteger();
+        timer.schedule(Duration.ofMillis(30), count::incrementAndGet); // wheel is 8 ticks
+        timer.schedule(Duration.ofMillis(3), count::incrementAndGet);
+        Thread.sleep(15);
+        assertThat(count.get(), is(1));
+        Thread.sleep(40);
+        assertThat(count.get(), is(2));
+    }
+
+    @Test public void soonerDeadlineWakesTickThread() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timer.schedule(Duration.ofSeconds(10), () -> {});
+        final long start = System.nanoTime();
+        timer.schedule(Duration.ofMillis(5), latch::countDown); // wakes the sleeping tick thread
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+}